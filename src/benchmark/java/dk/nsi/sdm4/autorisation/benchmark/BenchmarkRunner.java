@@ -0,0 +1,83 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.benchmark;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler and prints ops/s, bytes allocated per record and GC counts, and the
+ * retained bytes per record for benchmarks that measure it.
+ * The first argument is a regular expression selecting the benchmarks to run.
+ */
+public class BenchmarkRunner {
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(args.length > 0 ? args[0] : "dk.nsi.sdm4.autorisation")
+				.addProfiler(GCProfiler.class)
+				.build();
+
+		Collection<RunResult> results = new Runner(options).run();
+
+		System.out.println();
+		System.out.println(String.format("%-60s %-30s %14s %16s %10s %16s", "Benchmark", "Params", "ops/s", "bytes/record", "GCs", "retained/record"));
+		for (RunResult result : results) {
+			String benchmark = result.getParams().getBenchmark();
+			String params = "";
+			for (String key : result.getParams().getParamsKeys()) {
+				params += key + "=" + result.getParams().getParam(key) + " ";
+			}
+
+			double bytesPerOperation = secondary(result, "gc.alloc.rate.norm");
+			String lines = result.getParams().getParam("lines");
+			double records = lines != null ? Double.parseDouble(lines) : 1;
+
+			System.out.println(String.format("%-60s %-30s %14.3f %16.1f %10.0f %16.1f",
+					benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1), params.trim(),
+					result.getPrimaryResult().getScore(), bytesPerOperation / records, secondary(result, "gc.count"),
+					secondary(result, "retainedBytesPerRecord")));
+		}
+	}
+
+	private static double secondary(RunResult result, String name) {
+		// the profiler prefixes its result names with a '·' in some JMH versions
+		for (Map.Entry<String, Result> entry : result.getSecondaryResults().entrySet()) {
+			if (entry.getKey().endsWith(name)) {
+				return entry.getValue().getScore();
+			}
+		}
+		return Double.NaN;
+	}
+}
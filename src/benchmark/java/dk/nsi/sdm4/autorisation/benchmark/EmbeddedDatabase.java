@@ -0,0 +1,100 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.benchmark;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import javax.sql.DataSource;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import ch.vorburger.exec.ManagedProcessException;
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+
+/**
+ * An embedded MariaDB with the importer's schema, so the benchmarks do not depend on a MySQL being installed.
+ */
+public class EmbeddedDatabase {
+	private static final String DATABASE_NAME = "sdm_warehouse_autorisation_benchmark";
+
+	private final DB db;
+	private final DriverManagerDataSource dataSource;
+
+	public EmbeddedDatabase() throws ManagedProcessException, IOException {
+		DBConfigurationBuilder config = DBConfigurationBuilder.newBuilder();
+		config.setPort(freePort());
+		db = DB.newEmbeddedDB(config.build());
+		db.start();
+		db.createDB(DATABASE_NAME);
+
+		dataSource = new DriverManagerDataSource(config.getURL(DATABASE_NAME), "root", "");
+		dataSource.setDriverClassName("com.mysql.jdbc.Driver");
+		migrate();
+	}
+
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+
+	public void stop() throws ManagedProcessException {
+		db.stop();
+	}
+
+	private void migrate() throws IOException {
+		// the same scripts and order as Flyway uses
+		Resource[] scripts = new PathMatchingResourcePatternResolver().getResources("classpath:db/migration/*.sql");
+		Arrays.sort(scripts, new Comparator<Resource>() {
+			@Override
+			public int compare(Resource a, Resource b) {
+				return a.getFilename().compareTo(b.getFilename());
+			}
+		});
+
+		ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
+		for (Resource script : scripts) {
+			populator.addScript(script);
+		}
+		DatabasePopulatorUtils.execute(populator, dataSource);
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.benchmark;
+
+import java.io.File;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.google.common.io.Files;
+
+import dk.nsi.sdm4.autorisation.lookup.AutorisationLookup;
+import dk.nsi.sdm4.autorisation.metrics.ImportStatistics;
+import dk.nsi.sdm4.autorisation.parser.AutorisationParser;
+import dk.nsi.sdm4.autorisation.parser.InputWatcher;
+import dk.nsi.sdm4.autorisation.persistence.AutorisationArchiver;
+import dk.nsi.sdm4.autorisation.persistence.AutregUpdater;
+import dk.nsi.sdm4.autorisation.persistence.ChangeOutbox;
+import dk.nsi.sdm4.autorisation.persistence.ImportFingerprints;
+import dk.nsi.sdm4.autorisation.persistence.ImportLedger;
+import dk.nsi.sdm4.autorisation.persistence.ImportStaging;
+import dk.nsi.sdm4.core.persistence.AuditingPersister;
+import dk.nsi.sdm4.core.persistence.Persister;
+import dk.sdsd.nsp.slalog.api.SLALogger;
+import dk.sdsd.nsp.slalog.impl.SLALoggerDummyImpl;
+
+/**
+ * The importer wired up against an {@link EmbeddedDatabase}, like {@link dk.nsi.sdm4.autorisation.AutorisationParserTestConfig}
+ * does against the test database.
+ */
+@Configuration
+public class ImportBenchmarkConfig {
+	@Bean(destroyMethod = "stop")
+	public EmbeddedDatabase embeddedDatabase() throws Exception {
+		return new EmbeddedDatabase();
+	}
+
+	@Bean
+	public DataSource dataSource() throws Exception {
+		return embeddedDatabase().getDataSource();
+	}
+
+	@Bean
+	public JdbcTemplate jdbcTemplate() throws Exception {
+		return new JdbcTemplate(dataSource());
+	}
+
+	@Bean
+	public PlatformTransactionManager transactionManager() throws Exception {
+		return new DataSourceTransactionManager(dataSource());
+	}
+
+	@Bean
+	public AutorisationParser parser() {
+		return new AutorisationParser();
+	}
+
+	@Bean
+	public Persister persister() {
+		return new AuditingPersister();
+	}
+
+	@Bean
+	public AutregUpdater autregUpdater() {
+		return new AutregUpdater();
+	}
+
+	@Bean
+	public ImportFingerprints importFingerprints() {
+		return new ImportFingerprints();
+	}
+
+	@Bean
+	public AutorisationLookup autorisationLookup() {
+		return new AutorisationLookup();
+	}
+
+	@Bean
+	public ImportLedger importLedger() {
+		return new ImportLedger();
+	}
+
+	@Bean
+	public ImportStaging importStaging() {
+		return new ImportStaging();
+	}
+
+	@Bean
+	public AutorisationArchiver autorisationArchiver() {
+		return new AutorisationArchiver();
+	}
+
+	@Bean
+	public ChangeOutbox changeOutbox() {
+		return new ChangeOutbox();
+	}
+
+	@Bean
+	public InputWatcher inputWatcher() {
+		return new InputWatcher();
+	}
+
+	@Bean
+	public ImportStatistics importStatistics() {
+		return new ImportStatistics();
+	}
+
+	@Bean
+	public SLALogger slaLogger() {
+		return new SLALoggerDummyImpl();
+	}
+
+	@Bean
+	public static PropertySourcesPlaceholderConfigurer properties() {
+		Properties properties = new Properties();
+		// the synthetic register removes 0.1% a day, which must not trip the reduction guard
+		properties.setProperty("spooler.autorisationimporter.max.allowed.reduction", "100000");
+		properties.setProperty("spooler.autorisationimporter.import.mode", "COMPLETE");
+		properties.setProperty("spooler.autorisationimporter.chunk.size", "1000");
+		properties.setProperty("spooler.autorisationimporter.parser.threads", "1");
+		properties.setProperty("spooler.autorisationimporter.ledger.reconcile", "false");
+		properties.setProperty("spooler.autorisationimporter.catchup", "false");
+		properties.setProperty("spooler.autorisationimporter.commit.chunk.rows", "100000");
+		properties.setProperty("spooler.autorisationimporter.pipeline", "false");
+		properties.setProperty("spooler.autorisationimporter.pipeline.queue.capacity", "8");
+		properties.setProperty("spooler.autorisationimporter.archive.horizon.days", "0");
+		properties.setProperty("spooler.autorisationimporter.autreg.incremental", "true");
+		properties.setProperty("spooler.autorisationimporter.autreg.reconcile.interval", "0");
+		properties.setProperty("spooler.autorisationimporter.outbox", "false");
+		properties.setProperty("spooler.autorisationimporter.outbox.file", "");
+		properties.setProperty("spooler.autorisationimporter.parallel.writers", "4");
+		properties.setProperty("spooler.autorisationimporter.spill.budget.mb", "0");
+		properties.setProperty("spooler.autorisationimporter.spill.dir", Files.createTempDir().getPath());
+		properties.setProperty("spooler.autorisationimporter.watch", "false");
+		properties.setProperty("spooler.autorisationimporter.watch.dir", Files.createTempDir().getPath());
+		properties.setProperty("spooler.autorisationimporter.watch.quiet.millis", "2000");
+		properties.setProperty("spooler.autorisationimporter.snapshot.file", new File(Files.createTempDir(), "lookup.snapshot").getPath());
+
+		PropertySourcesPlaceholderConfigurer configurer = new PropertySourcesPlaceholderConfigurer();
+		configurer.setProperties(properties);
+		return configurer;
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.io.Files;
+
+import dk.nsi.sdm4.autorisation.parser.AutorisationParser;
+import dk.nsi.sdm4.autorisation.parser.ImportMode;
+
+/**
+ * An importer running against an {@link EmbeddedDatabase}, fed with consecutive days of a {@link SyntheticRegister}.
+ */
+public class ImportFixture {
+	private final AnnotationConfigApplicationContext context;
+	private final AutorisationParser parser;
+	private final TransactionTemplate transactionTemplate;
+	private final File directory;
+	private int day = 0;
+
+	public ImportFixture(ImportMode importMode) {
+		context = new AnnotationConfigApplicationContext(ImportBenchmarkConfig.class);
+		parser = context.getBean(AutorisationParser.class);
+		ReflectionTestUtils.setField(parser, "importMode", importMode);
+		transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+		directory = Files.createTempDir();
+	}
+
+	public AutorisationParser getParser() {
+		return parser;
+	}
+
+	public JdbcTemplate getJdbcTemplate() {
+		return context.getBean(JdbcTemplate.class);
+	}
+
+	/**
+	 * Imports the next days of the register, e.g. to build up history in the Autorisation table.
+	 */
+	public void importDays(int days, int lines) throws IOException {
+		for (int i = 0; i < days; i++) {
+			process(nextDataset(lines));
+		}
+	}
+
+	/**
+	 * @return a data directory holding the register file for the next day, ready for {@link #process(File)}
+	 */
+	public File nextDataset(int lines) throws IOException {
+		File dataset = new File(directory, "day" + day);
+		FileUtils.forceMkdir(dataset);
+		SyntheticRegister.write(dataset, day, lines);
+		day++;
+		return dataset;
+	}
+
+	/**
+	 * Imports the data directory in a transaction, like the spooler does, with the status row its ParserExecutor opens
+	 * before and closes after the import.
+	 */
+	public void process(final File dataset) {
+		JdbcTemplate jdbcTemplate = getJdbcTemplate();
+		jdbcTemplate.update("INSERT INTO autorisationimporterImportStatus (StartTime) VALUES (NOW())");
+		transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				parser.process(dataset, "benchmark");
+			}
+		});
+		jdbcTemplate.update("UPDATE autorisationimporterImportStatus SET EndTime = NOW(), Outcome = 'SUCCESS' WHERE EndTime IS NULL");
+		FileUtils.deleteQuietly(dataset);
+	}
+
+	public void close() {
+		context.close();
+		FileUtils.deleteQuietly(directory);
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.apache.commons.io.IOUtils;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+
+/**
+ * Writes synthetic AutDK register files for the benchmarks.
+ * <p>
+ * Consecutive days differ roughly the way the real register does: each day about 2% of the autorisationer change
+ * name, 0.1% disappear from the start of the file and as many new ones appear at the end.
+ */
+public class SyntheticRegister {
+	private static final Charset ISO8859_15 = Charset.forName("ISO8859-15");
+	private static final String[] FORNAVNE = {"Jørgen", "Tage Søgaard", "Svend Christian", "Lilian", "Eli", "Ester Ruth", "Åse", "Bjørn"};
+	private static final String[] EFTERNAVNE = {"Bondo", "Johnsen", "Bertelsen", "Frederiksen", "Heering", "Østerby", "Ærø", "Hansen"};
+
+	public static final DateTime FIRST_DAY = new DateTime(2013, 1, 1, 0, 0);
+
+	/**
+	 * @param day the number of days after {@link #FIRST_DAY}
+	 * @return the file, named the way the register names its files
+	 */
+	public static File write(File directory, int day, int lines) throws IOException {
+		File file = new File(directory, fileName(day));
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+		try {
+			int removedPerDay = Math.max(lines / 1000, 1);
+			int first = day * removedPerDay;
+			for (int i = first; i < first + lines; i++) {
+				out.write(line(i, day).getBytes(ISO8859_15));
+			}
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+		return file;
+	}
+
+	public static String fileName(int day) {
+		return DateTimeFormat.forPattern("yyyyMMdd").print(FIRST_DAY.plusDays(day)) + "AutDK.csv";
+	}
+
+	private static String line(int i, int day) {
+		int nameVersion = i % 100 == day % 100 ? day : 0;
+		return autorisationsnummer(i) + ";" +
+				String.format("%010d", 101000000L + i) + ";" +
+				EFTERNAVNE[(i + nameVersion) % EFTERNAVNE.length] + ";" +
+				FORNAVNE[(i / 7 + nameVersion) % FORNAVNE.length] + ";" +
+				(7170 + i % 20) + "\n";
+	}
+
+	private static String autorisationsnummer(int i) {
+		String base36 = Integer.toString(i, 36).toUpperCase();
+		return "00000".substring(base36.length()) + base36;
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.io.Files;
+
+import dk.nsi.sdm4.autorisation.benchmark.SyntheticRegister;
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class AutorisationParserBenchmark {
+	@Param({"10000", "100000", "1000000"})
+	public int lines;
+
+	@Param({"1", "4"})
+	public int parserThreads;
+
+	private final AutorisationParser parser = new AutorisationParser();
+	private final DateTime validFrom = SyntheticRegister.FIRST_DAY;
+	private File directory;
+	private File file;
+
+	@Setup
+	public void writeRegister() throws IOException {
+		directory = Files.createTempDir();
+		file = SyntheticRegister.write(directory, 0, lines);
+		ReflectionTestUtils.setField(parser, "parserThreads", parserThreads);
+	}
+
+	@TearDown
+	public void deleteRegister() {
+		FileUtils.deleteQuietly(directory);
+	}
+
+	@Benchmark
+	public Autorisationsregisterudtraek parse() throws IOException {
+		return parser.parse(file, validFrom);
+	}
+
+	@Benchmark
+	public void parseWithHandler(final Blackhole blackhole) throws IOException {
+		parser.parse(file, validFrom, new AutorisationHandler() {
+			@Override
+			public void handle(Autorisation autorisation) {
+				blackhole.consume(autorisation);
+			}
+		});
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import com.google.common.io.Files;
+
+import dk.nsi.sdm4.autorisation.benchmark.SyntheticRegister;
+import dk.nsi.sdm4.autorisation.model.CompactRegister;
+
+/**
+ * Reads a register the way a COMPLETE import does, with the prescan and the parse, from an uncompressed file and from
+ * the same register compressed with gzip, zip and zstd. The writes to the database do not depend on the compression,
+ * so they are left out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class CompressedInputBenchmark {
+	@Param({"100000", "1000000"})
+	public int lines;
+
+	// the generated benchmark code cannot see the package private RegisterInput.Compression
+	@Param({"NONE", "GZIP", "ZIP", "ZSTD"})
+	public String compressionName;
+
+	private RegisterInput.Compression compression;
+
+	private final AutorisationParser parser = new AutorisationParser();
+	private final DateTime validFrom = SyntheticRegister.FIRST_DAY;
+	private File directory;
+	private File file;
+
+	@Setup
+	public void writeRegister() throws IOException {
+		compression = RegisterInput.Compression.valueOf(compressionName);
+		directory = Files.createTempDir();
+		file = compress(SyntheticRegister.write(directory, 0, lines));
+	}
+
+	@TearDown
+	public void deleteRegister() {
+		FileUtils.deleteQuietly(directory);
+	}
+
+	@Benchmark
+	public CompactRegister prescanAndParse() throws IOException {
+		RegisterFingerprint.of(file);
+		return parser.parseCompact(file, validFrom);
+	}
+
+	private File compress(File register) throws IOException {
+		if (compression == RegisterInput.Compression.NONE) {
+			return register;
+		}
+
+		File compressed = new File(directory, register.getName() + "." + compression.name().toLowerCase());
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(compressed), 64 * 1024);
+		try {
+			switch (compression) {
+				case GZIP:
+					out = new GZIPOutputStream(out, 64 * 1024);
+					break;
+				case ZIP:
+					ZipOutputStream zip = new ZipOutputStream(out);
+					zip.putNextEntry(new ZipEntry(register.getName()));
+					out = zip;
+					break;
+				case ZSTD:
+					out = new ZstdOutputStream(out);
+					break;
+				default:
+					throw new IllegalStateException("Unknown compression " + compression);
+			}
+			FileUtils.copyFile(register, out);
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+		FileUtils.deleteQuietly(register);
+		return compressed;
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.changes;
+
+import java.util.Date;
+import java.util.List;
+
+import org.joda.time.format.DateTimeFormat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import dk.nsi.sdm4.autorisation.persistence.ChangeEvent;
+import dk.nsi.sdm4.autorisation.persistence.ChangeOutbox;
+
+/**
+ * Replays the change feed of the {@link ChangeOutbox} from a version, given as yyyyMMdd. The result has one
+ * {@link ChangeEvent#format()} line per change in the versions after the given one, or status 404 if the outbox is off.
+ * <p>
+ * The feed is returned in pages of at most {@link #PAGE_SIZE} changes. A full page has a Link header with rel="next"
+ * pointing at the next page, which starts after the last change of this one.
+ */
+@Controller
+public class ChangeFeedController {
+	static final int PAGE_SIZE = 10000;
+
+	@Autowired
+	ChangeOutbox changeOutbox;
+
+	@RequestMapping(value = "/changes/{version}", method = RequestMethod.GET, produces = "text/plain; charset=UTF-8")
+	public ResponseEntity<String> changesAfter(@PathVariable String version, @RequestParam(value = "after", defaultValue = "0") long afterSequence) {
+		if (!changeOutbox.isEnabled()) {
+			return new ResponseEntity<String>("The change outbox is not enabled\n", HttpStatus.NOT_FOUND);
+		}
+		long after;
+		try {
+			after = DateTimeFormat.forPattern("yyyyMMdd").parseMillis(version);
+		} catch (IllegalArgumentException e) {
+			return new ResponseEntity<String>("The version must be yyyyMMdd, was " + version + "\n", HttpStatus.BAD_REQUEST);
+		}
+
+		List<ChangeEvent> events = changeOutbox.eventsAfter(new Date(after), afterSequence, PAGE_SIZE);
+		StringBuilder result = new StringBuilder();
+		for (ChangeEvent event : events) {
+			result.append(event.format()).append('\n');
+		}
+		HttpHeaders headers = new HttpHeaders();
+		if (events.size() == PAGE_SIZE) {
+			headers.add("Link", "<" + version + "?after=" + events.get(events.size() - 1).getSequence() + ">; rel=\"next\"");
+		}
+		return new ResponseEntity<String>(result.toString(), headers, HttpStatus.OK);
+	}
+}
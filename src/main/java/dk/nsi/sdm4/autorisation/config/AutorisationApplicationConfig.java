@@ -26,17 +26,31 @@
  */
 package dk.nsi.sdm4.autorisation.config;
 
+import dk.nsi.sdm4.autorisation.lookup.AutorisationLookup;
+import dk.nsi.sdm4.autorisation.metrics.ImportStatistics;
 import dk.nsi.sdm4.autorisation.parser.AutorisationParser;
+import dk.nsi.sdm4.autorisation.parser.InputWatcher;
+import dk.nsi.sdm4.autorisation.persistence.AutorisationArchiver;
+import dk.nsi.sdm4.autorisation.persistence.AutorisationBatchPersister;
+import dk.nsi.sdm4.autorisation.persistence.AutregUpdater;
+import dk.nsi.sdm4.autorisation.persistence.ChangeOutbox;
+import dk.nsi.sdm4.autorisation.persistence.ImportFingerprints;
+import dk.nsi.sdm4.autorisation.persistence.ImportLedger;
+import dk.nsi.sdm4.autorisation.persistence.ImportStaging;
 import dk.nsi.sdm4.core.config.StamdataConfiguration;
 import dk.nsi.sdm4.core.parser.Parser;
 import dk.nsi.sdm4.core.persistence.AuditingPersister;
 import dk.nsi.sdm4.core.persistence.Persister;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
 
 @Configuration
 public class AutorisationApplicationConfig {
+	@Value("${spooler.autorisationimporter.batch.persister}")
+	private boolean useBatchPersister;
+
 	@Bean
 	public Parser parser() {
 		return new AutorisationParser();
@@ -44,9 +58,57 @@ public class AutorisationApplicationConfig {
 
     @Bean
     public Persister persister() {
+	    if (useBatchPersister) {
+		    return new AutorisationBatchPersister();
+	    }
         return new AuditingPersister();
     }
 
+	@Bean
+	public AutregUpdater autregUpdater() {
+		return new AutregUpdater();
+	}
+
+	@Bean
+	public ImportFingerprints importFingerprints() {
+		return new ImportFingerprints();
+	}
+
+	@Bean
+	public AutorisationLookup autorisationLookup() {
+		return new AutorisationLookup();
+	}
+
+	@Bean
+	public ImportLedger importLedger() {
+		return new ImportLedger();
+	}
+
+	@Bean
+	public ImportStaging importStaging() {
+		return new ImportStaging();
+	}
+
+	@Bean
+	public AutorisationArchiver autorisationArchiver() {
+		return new AutorisationArchiver();
+	}
+
+	@Bean
+	public ChangeOutbox changeOutbox() {
+		return new ChangeOutbox();
+	}
+
+	@Bean
+	public InputWatcher inputWatcher() {
+		return new InputWatcher();
+	}
+
+	@Bean
+	public ImportStatistics importStatistics() {
+		return new ImportStatistics();
+	}
+
 	// this is not automatically registered, see https://jira.springsource.org/browse/SPR-8539
     @Bean
     public static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
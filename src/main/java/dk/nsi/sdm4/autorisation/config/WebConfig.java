@@ -26,6 +26,9 @@
  */
 package dk.nsi.sdm4.autorisation.config;
 
+import dk.nsi.sdm4.autorisation.changes.ChangeFeedController;
+import dk.nsi.sdm4.autorisation.lookup.AutorisationLookupController;
+import dk.nsi.sdm4.autorisation.metrics.ImportMetricsController;
 import dk.nsi.sdm4.core.status.StatusReporter;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -38,4 +41,19 @@ public class WebConfig {
     public StatusReporter statusReporter() {
         return new StatusReporter();
     }
+
+    @Bean
+    public ImportMetricsController importMetricsController() {
+        return new ImportMetricsController();
+    }
+
+    @Bean
+    public AutorisationLookupController autorisationLookupController() {
+        return new AutorisationLookupController();
+    }
+
+    @Bean
+    public ChangeFeedController changeFeedController() {
+        return new ChangeFeedController();
+    }
 }
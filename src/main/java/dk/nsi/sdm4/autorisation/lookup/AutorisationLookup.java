@@ -0,0 +1,186 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.lookup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+import dk.nsi.sdm4.autorisation.model.CompactRegister;
+import dk.nsi.sdm4.autorisation.parser.AutorisationParser;
+import dk.nsi.sdm4.autorisation.persistence.ImportLedger;
+
+/**
+ * Answers lookups of the currently valid autorisationer from an in-memory {@link AutorisationIndex}.
+ * <p>
+ * The index is an immutable snapshot that is replaced as a whole, so lookups need no locking and never see a
+ * half-applied import. The parser calls {@link #rebuild(DateTime)} after each import that changed the data; the new
+ * index is published and written to the snapshot file when the import's transaction commits. At startup the
+ * snapshot file is memory-mapped, and it is served as it is if its version is the newest version in the import ledger.
+ * Without a valid and current snapshot file the index is loaded from the database on the first lookup. A new snapshot
+ * file atomically replaces the previous one, so a failed write leaves the previous snapshot, which is then outdated
+ * and not served.
+ * <p>
+ * Rows that the old importer accepted but that do not fit a {@link CompactRegister}, e.g. a CPR that is not 10 digits,
+ * are left out of the index with a warning rather than failing the import.
+ */
+public class AutorisationLookup {
+	private static final Log log = LogFactory.getLog(AutorisationLookup.class);
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	ImportLedger importLedger;
+
+	@Value("${spooler.autorisationimporter.snapshot.file}")
+	private File snapshotFile;
+
+	private volatile AutorisationIndex index;
+
+	/** the mapped snapshot file, until the first lookup has compared its version with the import ledger */
+	private MappedAutorisationIndex unverifiedSnapshot;
+
+	@PostConstruct
+	public void mapSnapshot() {
+		if (!snapshotFile.exists()) {
+			return;
+		}
+		try {
+			MappedAutorisationIndex mapped = AutorisationSnapshot.map(snapshotFile);
+			synchronized (this) {
+				unverifiedSnapshot = mapped;
+			}
+			log.info("Mapped snapshot " + snapshotFile + " of " + mapped.size() + " valid autorisationer from version " + mapped.getVersion());
+		} catch (IOException e) {
+			log.warn("Ignoring snapshot " + snapshotFile + ", the index will be loaded from the database", e);
+		}
+	}
+
+	public List<Autorisation> findByCpr(String cpr) {
+		return getIndex().findByCpr(cpr);
+	}
+
+	public List<Autorisation> findByAutorisationsnummer(String autorisationsnummer) {
+		return getIndex().findByAutorisationsnummer(autorisationsnummer);
+	}
+
+	public AutorisationIndex getIndex() {
+		AutorisationIndex current = index;
+		if (current == null) {
+			synchronized (this) {
+				if (index == null) {
+					Date version = importLedger.lastVersion();
+					if (unverifiedSnapshot != null && version != null && unverifiedSnapshot.getVersion().getTime() == version.getTime()) {
+						index = unverifiedSnapshot;
+					} else {
+						if (unverifiedSnapshot != null) {
+							log.warn("Snapshot " + snapshotFile + " is of version " + unverifiedSnapshot.getVersion() + ", but the newest import is "
+									+ version + ". Loading the index from the database");
+						}
+						index = load(version != null ? version : new Date());
+					}
+					unverifiedSnapshot = null;
+				}
+				current = index;
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Builds a new index from the valid autorisationer in the database, as seen by the current transaction, and
+	 * publishes it when that transaction commits, or right away when there is no transaction.
+	 *
+	 * @param version the version of the register that was just imported
+	 */
+	public void rebuild(DateTime version) {
+		final Date versionDate = version.toDate();
+		final HeapAutorisationIndex rebuilt = load(versionDate);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					publish(rebuilt, versionDate);
+				}
+			});
+		} else {
+			publish(rebuilt, versionDate);
+		}
+	}
+
+	void publish(HeapAutorisationIndex rebuilt, Date version) {
+		synchronized (this) {
+			index = rebuilt;
+			unverifiedSnapshot = null;
+		}
+		log.info("Published lookup index of " + rebuilt.size() + " valid autorisationer");
+		try {
+			AutorisationSnapshot.write(rebuilt, version, snapshotFile);
+		} catch (IOException e) {
+			// the import has been committed, so a missing snapshot only costs a database load after a restart
+			log.error("Could not write snapshot " + snapshotFile, e);
+		}
+	}
+
+	private HeapAutorisationIndex load(Date version) {
+		final CompactRegister.Builder builder = new CompactRegister.Builder(version);
+		final int[] skipped = new int[1];
+		jdbcTemplate.query("SELECT Autorisationsnummer, CPR, Efternavn, Fornavn, UddannelsesKode " + AutorisationParser.FROMCLAUSE_VALID_AUTORISATIONER,
+				new RowCallbackHandler() {
+					@Override
+					public void processRow(ResultSet rs) throws SQLException {
+						try {
+							builder.add(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5));
+						} catch (IllegalArgumentException e) {
+							skipped[0]++;
+							log.warn("Leaving autorisation " + rs.getString(1) + " out of the lookup index: " + e.getMessage());
+						}
+					}
+				});
+		if (skipped[0] > 0) {
+			log.warn("Left " + skipped[0] + " valid autorisationer out of the lookup index, as they cannot be indexed");
+		}
+		return new HeapAutorisationIndex(builder.build());
+	}
+}
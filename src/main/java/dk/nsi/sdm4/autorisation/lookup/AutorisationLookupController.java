@@ -0,0 +1,71 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.lookup;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+
+/**
+ * Looks up currently valid autorisationer in the {@link AutorisationLookup} index.
+ * The result has one line per autorisation in the format of the register file, or status 404 if none are found.
+ */
+@Controller
+public class AutorisationLookupController {
+	@Autowired
+	AutorisationLookup autorisationLookup;
+
+	@RequestMapping(value = "/autorisation/cpr/{cpr}", method = RequestMethod.GET, produces = "text/plain; charset=UTF-8")
+	public ResponseEntity<String> byCpr(@PathVariable String cpr) {
+		return format(autorisationLookup.findByCpr(cpr));
+	}
+
+	@RequestMapping(value = "/autorisation/nummer/{autorisationsnummer}", method = RequestMethod.GET, produces = "text/plain; charset=UTF-8")
+	public ResponseEntity<String> byAutorisationsnummer(@PathVariable String autorisationsnummer) {
+		return format(autorisationLookup.findByAutorisationsnummer(autorisationsnummer));
+	}
+
+	private ResponseEntity<String> format(List<Autorisation> autorisationer) {
+		StringBuilder result = new StringBuilder();
+		for (Autorisation autorisation : autorisationer) {
+			result.append(autorisation.getAutorisationsnummer()).append(';')
+					.append(autorisation.getCpr()).append(';')
+					.append(autorisation.getEfternavn()).append(';')
+					.append(autorisation.getFornavn()).append(';')
+					.append(autorisation.getUddannelsesKode()).append('\n');
+		}
+		return new ResponseEntity<String>(result.toString(), autorisationer.isEmpty() ? HttpStatus.NOT_FOUND : HttpStatus.OK);
+	}
+}
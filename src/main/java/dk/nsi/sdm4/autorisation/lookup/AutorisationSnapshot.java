@@ -0,0 +1,184 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.lookup;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import dk.nsi.sdm4.autorisation.model.CompactRegister;
+
+/**
+ * Writes and maps the snapshot file of the valid autorisationer.
+ * <p>
+ * The file starts with a header of {@value #HEADER_SIZE} bytes: magic, format, version of the register (millis),
+ * number of rows, number of names, number of name bytes and the CRC32 of the rest of the file. Then follow the
+ * columns of the {@link CompactRegister}, the two key indexes of {@link HeapAutorisationIndex}, and the names as
+ * UTF-8 with their end offsets. Everything is fixed width, so {@link MappedAutorisationIndex} reads the file where
+ * it is mapped without deserializing it.
+ */
+public final class AutorisationSnapshot {
+	static final int MAGIC = 0x41555453; // "AUTS"
+	static final int FORMAT = 1;
+	static final int HEADER_SIZE = 40;
+	static final Charset NAME_CHARSET = Charset.forName("UTF-8");
+
+	private AutorisationSnapshot() {
+	}
+
+	/**
+	 * Writes the index to a temporary file next to the snapshot and moves it into place, so a reader never maps a
+	 * half-written file.
+	 */
+	public static void write(HeapAutorisationIndex index, Date version, File file) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		CompactRegister register = index.getRegister();
+		int rows = register.size();
+
+		byte[][] names = new byte[register.getDistinctNames()][];
+		int nameBytes = 0;
+		for (int i = 0; i < names.length; i++) {
+			names[i] = register.getName(i).getBytes(NAME_CHARSET);
+			nameBytes += names[i].length;
+		}
+
+		CRC32 checksum = new CRC32();
+		FileOutputStream output = new FileOutputStream(temporary);
+		try {
+			output.write(new byte[HEADER_SIZE]);
+			DataOutputStream body = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(output, checksum), 64 * 1024));
+			for (int row = 0; row < rows; row++) {
+				body.writeLong(register.getPackedAutorisationsnummer(row));
+			}
+			for (int row = 0; row < rows; row++) {
+				body.writeLong(register.getCprAsLong(row));
+			}
+			for (long entry : index.getByCpr()) {
+				body.writeLong(entry);
+			}
+			for (long entry : index.getByNummer()) {
+				body.writeLong(entry);
+			}
+			for (int row = 0; row < rows; row++) {
+				body.writeInt(register.getEfternavnIndex(row));
+			}
+			for (int row = 0; row < rows; row++) {
+				body.writeInt(register.getFornavnIndex(row));
+			}
+			int end = 0;
+			for (byte[] name : names) {
+				end += name.length;
+				body.writeInt(end);
+			}
+			for (int row = 0; row < rows; row++) {
+				body.writeShort(register.getUddannelsesKodeAsShort(row));
+			}
+			for (byte[] name : names) {
+				body.write(name);
+			}
+			body.flush();
+		} finally {
+			IOUtils.closeQuietly(output);
+		}
+
+		RandomAccessFile header = new RandomAccessFile(temporary, "rw");
+		try {
+			header.writeInt(MAGIC);
+			header.writeInt(FORMAT);
+			header.writeLong(version.getTime());
+			header.writeInt(rows);
+			header.writeInt(names.length);
+			header.writeInt(nameBytes);
+			header.writeLong(checksum.getValue());
+		} finally {
+			IOUtils.closeQuietly(header);
+		}
+
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Maps the snapshot file after checking its header and checksum.
+	 *
+	 * @throws IOException if the file cannot be read or is not a valid snapshot
+	 */
+	public static MappedAutorisationIndex map(File file) throws IOException {
+		FileInputStream input = new FileInputStream(file);
+		try {
+			FileChannel channel = input.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT) {
+				throw new IOException(file + " is not an autorisation snapshot");
+			}
+			long version = buffer.getLong(8);
+			int rows = buffer.getInt(16);
+			int names = buffer.getInt(20);
+			int nameBytes = buffer.getInt(24);
+			long expectedChecksum = buffer.getLong(28);
+
+			long expectedSize = HEADER_SIZE + rows * (4L * 8 + 2 * 4 + 2) + names * 4L + nameBytes;
+			if (buffer.limit() != expectedSize) {
+				throw new IOException(file + " has " + buffer.limit() + " bytes, but its header says " + expectedSize);
+			}
+			if (checksum(buffer) != expectedChecksum) {
+				throw new IOException(file + " does not match its checksum");
+			}
+			return new MappedAutorisationIndex(buffer, new Date(version), rows, names);
+		} finally {
+			// the mapping stays valid after the channel is closed
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	private static long checksum(ByteBuffer buffer) {
+		CRC32 checksum = new CRC32();
+		byte[] chunk = new byte[64 * 1024];
+		ByteBuffer body = buffer.duplicate();
+		body.position(HEADER_SIZE);
+		while (body.hasRemaining()) {
+			int length = Math.min(chunk.length, body.remaining());
+			body.get(chunk, 0, length);
+			checksum.update(chunk, 0, length);
+		}
+		return checksum.getValue();
+	}
+}
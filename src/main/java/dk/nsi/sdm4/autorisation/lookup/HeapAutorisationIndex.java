@@ -0,0 +1,107 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.lookup;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+import dk.nsi.sdm4.autorisation.model.CompactRegister;
+
+/**
+ * An {@link AutorisationIndex} on the heap, built from a {@link CompactRegister}.
+ * <p>
+ * Each key index is one sorted long[] of {@link KeyEntries}, so a lookup is a binary search over primitives.
+ */
+public class HeapAutorisationIndex implements AutorisationIndex {
+	private final CompactRegister register;
+	private final long[] byCpr;
+	private final long[] byNummer;
+
+	public HeapAutorisationIndex(CompactRegister register) {
+		if (register.size() > KeyEntries.MAX_ROWS) {
+			throw new IllegalArgumentException("Cannot index more than " + KeyEntries.MAX_ROWS + " autorisationer, got " + register.size());
+		}
+		this.register = register;
+		this.byCpr = new long[register.size()];
+		this.byNummer = new long[register.size()];
+		for (int row = 0; row < register.size(); row++) {
+			byCpr[row] = KeyEntries.entry(register.getCprAsLong(row), row);
+			byNummer[row] = KeyEntries.entry(register.getPackedAutorisationsnummer(row), row);
+		}
+		Arrays.sort(byCpr);
+		Arrays.sort(byNummer);
+	}
+
+	@Override
+	public List<Autorisation> findByCpr(String cpr) {
+		try {
+			return find(byCpr, CompactRegister.parseCpr(cpr));
+		} catch (IllegalArgumentException e) {
+			return new ArrayList<Autorisation>();
+		}
+	}
+
+	@Override
+	public List<Autorisation> findByAutorisationsnummer(String autorisationsnummer) {
+		try {
+			return find(byNummer, CompactRegister.packNummer(autorisationsnummer));
+		} catch (IllegalArgumentException e) {
+			return new ArrayList<Autorisation>();
+		}
+	}
+
+	@Override
+	public int size() {
+		return register.size();
+	}
+
+	CompactRegister getRegister() {
+		return register;
+	}
+
+	long[] getByCpr() {
+		return byCpr;
+	}
+
+	long[] getByNummer() {
+		return byNummer;
+	}
+
+	private List<Autorisation> find(long[] index, long key) {
+		List<Autorisation> result = new ArrayList<Autorisation>();
+		if (!KeyEntries.fits(key)) {
+			return result;
+		}
+		for (int i = KeyEntries.first(LongBuffer.wrap(index), key); i < index.length && KeyEntries.hasKey(index[i], key); i++) {
+			result.add(register.toAutorisation(KeyEntries.row(index[i])));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.lookup;
+
+import java.nio.LongBuffer;
+
+/**
+ * The entries of the key indexes. An entry holds the key in its high bits and the row it points to in the low
+ * {@value #ROW_BITS} bits, so an index is a sorted array of longs where the entries for a key form one range.
+ */
+final class KeyEntries {
+	static final int ROW_BITS = 24;
+	static final int MAX_ROWS = 1 << ROW_BITS;
+	private static final long MAX_KEY = 1L << (Long.SIZE - ROW_BITS);
+
+	private KeyEntries() {
+	}
+
+	static long entry(long key, int row) {
+		if (!fits(key)) {
+			throw new IllegalArgumentException("Key " + key + " does not fit in " + (Long.SIZE - ROW_BITS) + " bits");
+		}
+		return key << ROW_BITS | row;
+	}
+
+	static boolean fits(long key) {
+		return key >= 0 && key < MAX_KEY;
+	}
+
+	static boolean hasKey(long entry, long key) {
+		return entry >>> ROW_BITS == key;
+	}
+
+	static int row(long entry) {
+		return (int) (entry & (MAX_ROWS - 1));
+	}
+
+	/**
+	 * @return the position of the first entry for the key, or of the entry it would have been inserted before
+	 */
+	static int first(LongBuffer entries, long key) {
+		long target = key << ROW_BITS;
+		int low = 0;
+		int high = entries.limit();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (entries.get(middle) < target) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
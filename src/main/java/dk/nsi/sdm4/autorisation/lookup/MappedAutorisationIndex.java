@@ -0,0 +1,152 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.lookup;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+import dk.nsi.sdm4.autorisation.model.CompactRegister;
+import dk.nsi.sdm4.core.util.Dates;
+
+/**
+ * An {@link AutorisationIndex} that reads a memory-mapped {@link AutorisationSnapshot} file in place.
+ * <p>
+ * The sections of the file are viewed as primitive buffers and only read with absolute gets, which leave the
+ * buffers' positions alone, so the index can be shared between threads.
+ */
+public class MappedAutorisationIndex implements AutorisationIndex {
+	private final Date version;
+	private final int rows;
+	private final LongBuffer nummer;
+	private final LongBuffer cpr;
+	private final LongBuffer byCpr;
+	private final LongBuffer byNummer;
+	private final IntBuffer efternavn;
+	private final IntBuffer fornavn;
+	private final IntBuffer nameEnds;
+	private final ShortBuffer uddannelsesKode;
+	private final ByteBuffer nameBytes;
+
+	MappedAutorisationIndex(ByteBuffer buffer, Date version, int rows, int names) {
+		this.version = version;
+		this.rows = rows;
+
+		int position = AutorisationSnapshot.HEADER_SIZE;
+		nummer = section(buffer, position, rows * 8).asLongBuffer();
+		position += rows * 8;
+		cpr = section(buffer, position, rows * 8).asLongBuffer();
+		position += rows * 8;
+		byCpr = section(buffer, position, rows * 8).asLongBuffer();
+		position += rows * 8;
+		byNummer = section(buffer, position, rows * 8).asLongBuffer();
+		position += rows * 8;
+		efternavn = section(buffer, position, rows * 4).asIntBuffer();
+		position += rows * 4;
+		fornavn = section(buffer, position, rows * 4).asIntBuffer();
+		position += rows * 4;
+		nameEnds = section(buffer, position, names * 4).asIntBuffer();
+		position += names * 4;
+		uddannelsesKode = section(buffer, position, rows * 2).asShortBuffer();
+		position += rows * 2;
+		nameBytes = section(buffer, position, buffer.limit() - position);
+	}
+
+	@Override
+	public List<Autorisation> findByCpr(String cpr) {
+		try {
+			return find(byCpr, CompactRegister.parseCpr(cpr));
+		} catch (IllegalArgumentException e) {
+			return new ArrayList<Autorisation>();
+		}
+	}
+
+	@Override
+	public List<Autorisation> findByAutorisationsnummer(String autorisationsnummer) {
+		try {
+			return find(byNummer, CompactRegister.packNummer(autorisationsnummer));
+		} catch (IllegalArgumentException e) {
+			return new ArrayList<Autorisation>();
+		}
+	}
+
+	@Override
+	public int size() {
+		return rows;
+	}
+
+	/**
+	 * @return the version of the register the snapshot was written from
+	 */
+	public Date getVersion() {
+		return version;
+	}
+
+	private List<Autorisation> find(LongBuffer index, long key) {
+		List<Autorisation> result = new ArrayList<Autorisation>();
+		if (!KeyEntries.fits(key)) {
+			return result;
+		}
+		for (int i = KeyEntries.first(index, key); i < rows && KeyEntries.hasKey(index.get(i), key); i++) {
+			result.add(autorisation(KeyEntries.row(index.get(i))));
+		}
+		return result;
+	}
+
+	private Autorisation autorisation(int row) {
+		Autorisation autorisation = new Autorisation();
+		autorisation.setAutorisationnummer(CompactRegister.unpackNummer(nummer.get(row)));
+		autorisation.setCpr(CompactRegister.formatCpr(cpr.get(row)));
+		autorisation.setEfternavn(name(efternavn.get(row)));
+		autorisation.setFornavn(name(fornavn.get(row)));
+		autorisation.setUddannelsesKode(Short.toString(uddannelsesKode.get(row)));
+		autorisation.setValidFrom(version);
+		autorisation.setValidTo(Dates.THE_END_OF_TIME);
+		return autorisation;
+	}
+
+	private String name(int index) {
+		int start = index == 0 ? 0 : nameEnds.get(index - 1);
+		byte[] bytes = new byte[nameEnds.get(index) - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = nameBytes.get(start + i);
+		}
+		return new String(bytes, AutorisationSnapshot.NAME_CHARSET);
+	}
+
+	private static ByteBuffer section(ByteBuffer buffer, int position, int length) {
+		ByteBuffer section = buffer.duplicate();
+		section.position(position);
+		section.limit(position + length);
+		return section.slice();
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+
+/**
+ * Timings and counters for a single import.
+ * <p>
+ * The import calls {@link #startPhase(ImportPhase)} when it moves on to a new phase, which also ends the previous
+ * phase, and ends with {@link #importSucceeded()} or {@link #importFailed(String)}.
+ * The metrics may be read by the metrics page while the import is running, so all access is synchronized.
+ */
+public class ImportMetrics {
+	private final String identifier;
+	private final DateTime startTime = new DateTime();
+	private DateTime endTime;
+	private String outcome = "RUNNING";
+
+	private final Map<ImportPhase, Long> phaseMillis = new EnumMap<ImportPhase, Long>(ImportPhase.class);
+	private final Map<String, StageMetrics> stages = new LinkedHashMap<String, StageMetrics>();
+	private ImportPhase currentPhase;
+	private long currentPhaseStart;
+
+	private long rows;
+	private long bytesRead;
+	private long rowsInserted;
+	private long rowsClosed;
+	private long autregRowsTouched;
+	private long peakHeapBytes;
+
+	ImportMetrics(String identifier) {
+		this.identifier = identifier;
+	}
+
+	public synchronized void startPhase(ImportPhase phase) {
+		endPhase();
+		currentPhase = phase;
+		currentPhaseStart = System.currentTimeMillis();
+	}
+
+	public synchronized void addRows(long rows) {
+		this.rows += rows;
+	}
+
+	public synchronized void addBytesRead(long bytes) {
+		bytesRead += bytes;
+	}
+
+	public synchronized void addRowsWritten(long inserted, long closed) {
+		rowsInserted += inserted;
+		rowsClosed += closed;
+	}
+
+	/**
+	 * @param rows the rows of autreg that were deleted or inserted, which is all of them when autreg is rebuilt
+	 */
+	public synchronized void addAutregRowsTouched(long rows) {
+		autregRowsTouched += rows;
+	}
+
+	public synchronized long getAutregRowsTouched() {
+		return autregRowsTouched;
+	}
+
+	/**
+	 * @return the metrics of a stage of a pipelined import, created the first time it is asked for
+	 */
+	public synchronized StageMetrics stage(String name) {
+		StageMetrics stage = stages.get(name);
+		if (stage == null) {
+			stage = new StageMetrics(name);
+			stages.put(name, stage);
+		}
+		return stage;
+	}
+
+	public synchronized List<StageMetrics> getStages() {
+		return new ArrayList<StageMetrics>(stages.values());
+	}
+
+	public synchronized void importSucceeded() {
+		importEnded("OK");
+	}
+
+	public synchronized void importFailed(String message) {
+		importEnded("ERROR: " + message);
+	}
+
+	public synchronized long getPhaseMillis(ImportPhase phase) {
+		Long millis = phaseMillis.get(phase);
+		return millis != null ? millis : 0;
+	}
+
+	public synchronized Map<ImportPhase, Long> getPhaseMillis() {
+		return new EnumMap<ImportPhase, Long>(phaseMillis);
+	}
+
+	/**
+	 * @return rows per second in the {@link ImportPhase#WRITE} phase
+	 */
+	public synchronized long getRowsPerSecond() {
+		return rows * 1000 / Math.max(getPhaseMillis(ImportPhase.WRITE), 1);
+	}
+
+	public synchronized DateTime getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return when the import ended, or null while it is running
+	 */
+	public synchronized DateTime getEndTime() {
+		return endTime;
+	}
+
+	public synchronized long getRows() {
+		return rows;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder result = new StringBuilder();
+		result.append("import ").append(identifier)
+				.append(" start=").append(startTime)
+				.append(" end=").append(endTime != null ? endTime : "")
+				.append(" outcome=").append(outcome)
+				.append(" rows=").append(rows)
+				.append(" rowsInserted=").append(rowsInserted)
+				.append(" rowsClosed=").append(rowsClosed)
+				.append(" autregRowsTouched=").append(autregRowsTouched)
+				.append(" rowsPerSecond=").append(getRowsPerSecond())
+				.append(" bytesRead=").append(bytesRead)
+				.append(" peakHeapBytes=").append(peakHeapBytes)
+				.append("\n");
+		for (Map.Entry<ImportPhase, Long> phase : phaseMillis.entrySet()) {
+			result.append("  ").append(phase.getKey()).append(" ").append(phase.getValue()).append(" ms\n");
+		}
+		for (StageMetrics stage : stages.values()) {
+			result.append("  stage ").append(stage).append("\n");
+		}
+		return result.toString();
+	}
+
+	private void importEnded(String outcome) {
+		endPhase();
+		this.outcome = outcome;
+		this.endTime = new DateTime();
+		this.peakHeapBytes = peakHeapUsage();
+	}
+
+	private void endPhase() {
+		if (currentPhase != null) {
+			long millis = System.currentTimeMillis() - currentPhaseStart;
+			Long earlier = phaseMillis.get(currentPhase);
+			phaseMillis.put(currentPhase, earlier != null ? earlier + millis : millis);
+			currentPhase = null;
+		}
+	}
+
+	/**
+	 * Resets the peak heap usage, so {@link #peakHeapUsage()} measures from now on.
+	 * The heap is shared with everything else in the JVM, so the peak is an upper bound for the import.
+	 */
+	static void resetPeakHeapUsage() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	static long peakHeapUsage() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.metrics;
+
+/**
+ * The phases of an import that are timed separately in {@link ImportMetrics}.
+ */
+public enum ImportPhase {
+	/** Finding the previous version and checking that the new one comes after it */
+	VERSION_CHECK,
+	/** Reading through the file before anything is written, e.g. to count and validate the autorisationer */
+	PRESCAN,
+	/** Parsing the whole file into memory */
+	PARSE,
+	/** Comparing the number of autorisationer in the file with the number in the database */
+	REDUCTION_GUARD,
+	/** Copying the file into the staging table, in committed chunks in CHUNKED mode and with LOAD DATA in BULK mode */
+	STAGE,
+	/** Sorting the valid rows and the file on Autorisationsnummer in a DELTA import with a memory budget */
+	SORT,
+	/** Writing to the Autorisation table, including parsing when the import mode parses while writing */
+	WRITE,
+	/** Writing the change events of a delta import to the outbox */
+	OUTBOX,
+	/** Updating the autreg table for the STS */
+	AUTREG,
+	/** Building the in-memory lookup index of the valid autorisationer */
+	LOOKUP_INDEX,
+	/** Moving the rows closed before the archive horizon to AutorisationHistory */
+	ARCHIVE
+}
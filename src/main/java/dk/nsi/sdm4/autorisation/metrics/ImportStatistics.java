@@ -0,0 +1,58 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Keeps the {@link ImportMetrics} of the running import and of the most recent imports before it.
+ */
+public class ImportStatistics {
+	static final int HISTORY_SIZE = 30;
+
+	private final LinkedList<ImportMetrics> imports = new LinkedList<ImportMetrics>();
+
+	public synchronized ImportMetrics importStarted(String identifier) {
+		ImportMetrics.resetPeakHeapUsage();
+
+		ImportMetrics metrics = new ImportMetrics(identifier);
+		imports.addFirst(metrics);
+		while (imports.size() > HISTORY_SIZE) {
+			imports.removeLast();
+		}
+		return metrics;
+	}
+
+	/**
+	 * @return the metrics of the most recent imports, newest first
+	 */
+	public synchronized List<ImportMetrics> getImports() {
+		return new ArrayList<ImportMetrics>(imports);
+	}
+}
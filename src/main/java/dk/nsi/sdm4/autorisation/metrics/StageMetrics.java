@@ -0,0 +1,100 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counters for one stage of a pipelined import: the batches, rows and bytes it has handled, the time it spent working
+ * on them, and how many batches were waiting in its input queue each time it took one.
+ * <p>
+ * A stage whose input queue is usually full is the bottleneck; a stage whose input queue is usually empty is waiting
+ * for the stages before it.
+ */
+public class StageMetrics {
+	private final String name;
+
+	private long batches;
+	private long rows;
+	private long bytes;
+	private long busyNanos;
+	private long queueDepthSum;
+	private int maxQueueDepth;
+
+	StageMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @param queueDepth the number of batches left in the stage's input queue when it took this one
+	 */
+	public synchronized void batchHandled(int rows, long bytes, long busyNanos, int queueDepth) {
+		this.batches++;
+		this.rows += rows;
+		this.bytes += bytes;
+		this.busyNanos += busyNanos;
+		this.queueDepthSum += queueDepth;
+		this.maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized long getRows() {
+		return rows;
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized long getBusyMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(busyNanos);
+	}
+
+	/**
+	 * @return the rows the stage handles per second of its own working time
+	 */
+	public synchronized long getRowsPerSecond() {
+		return rows * TimeUnit.SECONDS.toNanos(1) / Math.max(busyNanos, 1);
+	}
+
+	public synchronized double getAverageQueueDepth() {
+		return batches == 0 ? 0 : (double) queueDepthSum / batches;
+	}
+
+	public synchronized int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%s batches=%d rows=%d bytes=%d busy=%d ms rowsPerSecond=%d queueDepth avg=%.1f max=%d",
+				name, batches, rows, bytes, getBusyMillis(), getRowsPerSecond(), getAverageQueueDepth(), maxQueueDepth);
+	}
+}
@@ -0,0 +1,294 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import dk.nsi.sdm4.core.util.Dates;
+
+/**
+ * A parsed register kept in primitive columns instead of one {@link Autorisation} per row.
+ * <p>
+ * The columns follow the Autorisation table: Autorisationsnummer (CHAR(5)) is packed into a long with one byte per
+ * character, CPR (CHAR(10)) is stored as a number, and UddannelsesKode (INT) as a short, so only codes from 0 to
+ * {@value java.lang.Short#MAX_VALUE} can be held. Names are stored once
+ * in a dictionary shared by first and last names, and all rows share the validity interval of the register.
+ * A row takes 26 bytes plus its share of the dictionary, against a few hundred bytes for an Autorisation.
+ */
+public class CompactRegister {
+	/** Autorisationsnummer is CHAR(5), and the lookup index keys on the 40 bits it packs into */
+	public static final int MAX_NUMMER_LENGTH = 5;
+	static final int CPR_LENGTH = 10;
+
+	private final Date validFrom;
+	private final Date validTo;
+	private final int size;
+	private final long[] nummer;
+	private final long[] cpr;
+	private final short[] uddannelsesKode;
+	private final int[] efternavn;
+	private final int[] fornavn;
+	private final String[] names;
+
+	private CompactRegister(Builder builder) {
+		this.validFrom = builder.validFrom;
+		this.validTo = Dates.THE_END_OF_TIME;
+		this.size = builder.size;
+		this.nummer = Arrays.copyOf(builder.nummer, size);
+		this.cpr = Arrays.copyOf(builder.cpr, size);
+		this.uddannelsesKode = Arrays.copyOf(builder.uddannelsesKode, size);
+		this.efternavn = Arrays.copyOf(builder.efternavn, size);
+		this.fornavn = Arrays.copyOf(builder.fornavn, size);
+		this.names = builder.names.toArray(new String[builder.names.size()]);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Date getValidFrom() {
+		return validFrom;
+	}
+
+	public Date getValidTo() {
+		return validTo;
+	}
+
+	public long getPackedAutorisationsnummer(int row) {
+		return nummer[row];
+	}
+
+	public String getAutorisationsnummer(int row) {
+		return unpackNummer(nummer[row]);
+	}
+
+	public long getCprAsLong(int row) {
+		return cpr[row];
+	}
+
+	public String getCpr(int row) {
+		return formatCpr(cpr[row]);
+	}
+
+	public String getEfternavn(int row) {
+		return names[efternavn[row]];
+	}
+
+	public String getFornavn(int row) {
+		return names[fornavn[row]];
+	}
+
+	/**
+	 * @return the position of the row's last name in the dictionary, see {@link #getName(int)}
+	 */
+	public int getEfternavnIndex(int row) {
+		return efternavn[row];
+	}
+
+	/**
+	 * @return the position of the row's first name in the dictionary, see {@link #getName(int)}
+	 */
+	public int getFornavnIndex(int row) {
+		return fornavn[row];
+	}
+
+	public String getName(int index) {
+		return names[index];
+	}
+
+	public short getUddannelsesKodeAsShort(int row) {
+		return uddannelsesKode[row];
+	}
+
+	public String getUddannelsesKode(int row) {
+		return Short.toString(uddannelsesKode[row]);
+	}
+
+	/**
+	 * Creates an Autorisation for a row, for code that needs the entity, such as the Persister.
+	 */
+	public Autorisation toAutorisation(int row) {
+		Autorisation autorisation = new Autorisation();
+		autorisation.setAutorisationnummer(getAutorisationsnummer(row));
+		autorisation.setCpr(getCpr(row));
+		autorisation.setEfternavn(getEfternavn(row));
+		autorisation.setFornavn(getFornavn(row));
+		autorisation.setUddannelsesKode(getUddannelsesKode(row));
+		autorisation.setValidFrom(validFrom);
+		autorisation.setValidTo(validTo);
+		return autorisation;
+	}
+
+	/**
+	 * @return true if an Autorisationsnummer occurs in more than one row
+	 */
+	public boolean hasDuplicateAutorisationsnummer() {
+		long[] sorted = Arrays.copyOf(nummer, size);
+		Arrays.sort(sorted);
+		for (int i = 1; i < sorted.length; i++) {
+			if (sorted[i] == sorted[i - 1]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of distinct names in the dictionary
+	 */
+	public int getDistinctNames() {
+		return names.length;
+	}
+
+	public static long packNummer(String value) {
+		if (value.length() > MAX_NUMMER_LENGTH) {
+			throw new IllegalArgumentException("Autorisationsnummer " + value + " is longer than " + MAX_NUMMER_LENGTH + " characters");
+		}
+		long packed = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == 0 || c > 0xFF) {
+				throw new IllegalArgumentException("Autorisationsnummer " + value + " contains the character " + (int) c);
+			}
+			packed = (packed << 8) | c;
+		}
+		return packed;
+	}
+
+	public static String unpackNummer(long packed) {
+		char[] chars = new char[MAX_NUMMER_LENGTH];
+		int start = MAX_NUMMER_LENGTH;
+		while (packed != 0) {
+			chars[--start] = (char) (packed & 0xFF);
+			packed >>>= 8;
+		}
+		return new String(chars, start, MAX_NUMMER_LENGTH - start);
+	}
+
+	public static long parseCpr(String value) {
+		if (value.length() != CPR_LENGTH) {
+			throw new IllegalArgumentException("CPR " + value + " does not have " + CPR_LENGTH + " digits");
+		}
+		long result = 0;
+		for (int i = 0; i < CPR_LENGTH; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				throw new IllegalArgumentException("CPR " + value + " does not have " + CPR_LENGTH + " digits");
+			}
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+	public static String formatCpr(long value) {
+		char[] digits = new char[CPR_LENGTH];
+		for (int i = CPR_LENGTH - 1; i >= 0; i--) {
+			digits[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return new String(digits);
+	}
+
+	public static short parseUddannelsesKode(String value) {
+		int code = Integer.parseInt(value.trim());
+		if (code < 0 || code > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("UddannelsesKode " + value + " is not between 0 and " + Short.MAX_VALUE
+					+ ", which the parsed register holds as a short");
+		}
+		return (short) code;
+	}
+
+	/**
+	 * Collects the rows of a register. Throws IllegalArgumentException for values that do not fit the columns.
+	 */
+	public static class Builder {
+		private static final int INITIAL_CAPACITY = 1024;
+
+		private final Date validFrom;
+		private int size;
+		private long[] nummer = new long[INITIAL_CAPACITY];
+		private long[] cpr = new long[INITIAL_CAPACITY];
+		private short[] uddannelsesKode = new short[INITIAL_CAPACITY];
+		private int[] efternavn = new int[INITIAL_CAPACITY];
+		private int[] fornavn = new int[INITIAL_CAPACITY];
+		private final List<String> names = new ArrayList<String>();
+		private final Map<String, Integer> nameIndex = new HashMap<String, Integer>();
+
+		public Builder(Date validFrom) {
+			this.validFrom = validFrom;
+		}
+
+		public Builder add(String autorisationsnummer, String cpr, String efternavn, String fornavn, String uddannelsesKode) {
+			long packedNummer = packNummer(autorisationsnummer);
+			long cprValue = parseCpr(cpr);
+			short code = parseUddannelsesKode(uddannelsesKode);
+
+			if (size == nummer.length) {
+				grow();
+			}
+			this.nummer[size] = packedNummer;
+			this.cpr[size] = cprValue;
+			this.uddannelsesKode[size] = code;
+			this.efternavn[size] = name(efternavn);
+			this.fornavn[size] = name(fornavn);
+			size++;
+			return this;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public CompactRegister build() {
+			return new CompactRegister(this);
+		}
+
+		private int name(String name) {
+			Integer index = nameIndex.get(name);
+			if (index == null) {
+				index = names.size();
+				names.add(name);
+				nameIndex.put(name, index);
+			}
+			return index;
+		}
+
+		private void grow() {
+			int capacity = nummer.length + (nummer.length >> 1);
+			nummer = Arrays.copyOf(nummer, capacity);
+			cpr = Arrays.copyOf(cpr, capacity);
+			uddannelsesKode = Arrays.copyOf(uddannelsesKode, capacity);
+			efternavn = Arrays.copyOf(efternavn, capacity);
+			fornavn = Arrays.copyOf(fornavn, capacity);
+		}
+	}
+}
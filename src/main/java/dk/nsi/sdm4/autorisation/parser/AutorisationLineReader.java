@@ -0,0 +1,261 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Reads the lines of an AutDK register file directly from a byte channel and splits them on ';' without going
+ * through a {@link java.io.Reader}.
+ * <p>
+ * The register is in a single-byte charset, so bytes are decoded through a lookup table, and the only objects
+ * allocated per line are the Strings returned by {@link #field(int)}. The field splitting follows
+ * {@link java.util.StringTokenizer}: empty fields are skipped, so ";;" counts as a single separator.
+ * Lines end at "\n", "\r" or "\r\n" like {@link java.io.BufferedReader#readLine()}.
+ * <p>
+ * The file is read through a buffer rather than memory-mapped: it is read once from start to end, and a mapped file
+ * keeps its handle open until the mapping is garbage collected, which gets in the way of the spooler moving it.
+ */
+public class AutorisationLineReader {
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	private static final int INITIAL_MAX_FIELDS = 8;
+
+	private final ReadableByteChannel channel;
+	private final char[] decodeTable;
+
+	private byte[] buffer;
+	private int position = 0;
+	private int limit = 0;
+	private boolean endOfInput = false;
+	private boolean skipLineFeed = false;
+	private long discarded = 0;
+
+	private int lineStart;
+	private int lineEnd;
+	private int lineNumber = 0;
+
+	private int fieldCount;
+	private int[] fieldStarts = new int[INITIAL_MAX_FIELDS];
+	private int[] fieldEnds = new int[INITIAL_MAX_FIELDS];
+
+	private char[] chars = new char[256];
+
+	public AutorisationLineReader(ReadableByteChannel channel, Charset charset) {
+		this(channel, charset, DEFAULT_BUFFER_SIZE);
+	}
+
+	AutorisationLineReader(ReadableByteChannel channel, Charset charset, int bufferSize) {
+		this.channel = channel;
+		this.decodeTable = decodeTableFor(charset);
+		this.buffer = new byte[bufferSize];
+	}
+
+	/**
+	 * Advances to the next line.
+	 * @return false if there are no more lines
+	 */
+	public boolean next() throws IOException {
+		int scan = position;
+		while (true) {
+			if (skipLineFeed) {
+				if (scan == limit && !fill()) {
+					return false;
+				}
+				scan = position;
+				if (buffer[scan] == '\n') {
+					position++;
+					scan++;
+				}
+				skipLineFeed = false;
+			}
+
+			while (scan < limit) {
+				byte b = buffer[scan];
+				if (b == '\n' || b == '\r') {
+					endLine(scan);
+					position = scan + 1;
+					skipLineFeed = b == '\r';
+					return true;
+				}
+				scan++;
+			}
+
+			int scanned = scan - position;
+			if (!fill()) {
+				if (position < limit) {
+					endLine(limit);
+					position = limit;
+					return true;
+				}
+				return false;
+			}
+			scan = position + scanned;
+		}
+	}
+
+	/**
+	 * @return the number of the current line, starting from 1
+	 */
+	public int lineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * @return the offset in the input of the first byte of the current line
+	 */
+	public long lineOffset() {
+		return discarded + lineStart;
+	}
+
+	/**
+	 * @return the number of bytes read past so far, i.e. the size of the input once {@link #next()} has returned false
+	 */
+	public long offset() {
+		return discarded + position;
+	}
+
+	/**
+	 * @return the number of non-empty ';'-separated fields on the current line
+	 */
+	public int fieldCount() {
+		return fieldCount;
+	}
+
+	public String field(int index) {
+		Preconditions.checkElementIndex(index, fieldCount);
+		return decode(fieldStarts[index], fieldEnds[index]);
+	}
+
+	/**
+	 * @return the whole current line, e.g. for error messages
+	 */
+	public String line() {
+		return decode(lineStart, lineEnd);
+	}
+
+	private void endLine(int end) {
+		lineStart = position;
+		lineEnd = end;
+		lineNumber++;
+		splitFields();
+	}
+
+	private void splitFields() {
+		fieldCount = 0;
+		int i = lineStart;
+		while (i < lineEnd) {
+			while (i < lineEnd && buffer[i] == ';') {
+				i++;
+			}
+			if (i == lineEnd) {
+				break;
+			}
+			int start = i;
+			while (i < lineEnd && buffer[i] != ';') {
+				i++;
+			}
+			if (fieldCount == fieldStarts.length) {
+				fieldStarts = grow(fieldStarts);
+				fieldEnds = grow(fieldEnds);
+			}
+			fieldStarts[fieldCount] = start;
+			fieldEnds[fieldCount] = i;
+			fieldCount++;
+		}
+	}
+
+	private String decode(int start, int end) {
+		int length = end - start;
+		if (chars.length < length) {
+			chars = new char[length];
+		}
+		for (int i = 0; i < length; i++) {
+			chars[i] = decodeTable[buffer[start + i] & 0xff];
+		}
+		return new String(chars, 0, length);
+	}
+
+	/**
+	 * Reads more input after the bytes from {@link #position}, moving or growing the buffer as needed.
+	 * @return false if the end of input has been reached and nothing more was read
+	 */
+	private boolean fill() throws IOException {
+		if (endOfInput) {
+			return false;
+		}
+
+		int remaining = limit - position;
+		discarded += position;
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, remaining);
+		} else if (remaining == buffer.length) {
+			byte[] larger = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, larger, 0, remaining);
+			buffer = larger;
+		}
+		position = 0;
+		limit = remaining;
+
+		ByteBuffer target = ByteBuffer.wrap(buffer, limit, buffer.length - limit);
+		int read;
+		do {
+			read = channel.read(target);
+		} while (read == 0);
+
+		if (read < 0) {
+			endOfInput = true;
+			return false;
+		}
+		limit += read;
+		return true;
+	}
+
+	private static int[] grow(int[] array) {
+		int[] larger = new int[array.length * 2];
+		System.arraycopy(array, 0, larger, 0, array.length);
+		return larger;
+	}
+
+	private static char[] decodeTableFor(Charset charset) {
+		byte[] allBytes = new byte[256];
+		for (int i = 0; i < allBytes.length; i++) {
+			allBytes[i] = (byte) i;
+		}
+		CharBuffer decoded = charset.decode(ByteBuffer.wrap(allBytes));
+		Preconditions.checkArgument(decoded.remaining() == allBytes.length, "%s is not a single-byte charset", charset);
+
+		char[] table = new char[allBytes.length];
+		decoded.get(table);
+		return table;
+	}
+}
@@ -26,24 +26,55 @@
  */
 package dk.nsi.sdm4.autorisation.parser;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.sql.Timestamp;
-import java.util.StringTokenizer;
-
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.LineIterator;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import com.google.common.base.Preconditions;
 
+import dk.nsi.sdm4.autorisation.lookup.AutorisationLookup;
+import dk.nsi.sdm4.autorisation.metrics.ImportMetrics;
+import dk.nsi.sdm4.autorisation.metrics.ImportPhase;
+import dk.nsi.sdm4.autorisation.metrics.ImportStatistics;
 import dk.nsi.sdm4.autorisation.model.Autorisation;
+import dk.nsi.sdm4.autorisation.model.CompactRegister;
+import dk.nsi.sdm4.autorisation.persistence.AutorisationArchiver;
+import dk.nsi.sdm4.autorisation.persistence.AutorisationWriter;
+import dk.nsi.sdm4.autorisation.persistence.AutregUpdater;
+import dk.nsi.sdm4.autorisation.persistence.BulkAutorisationLoader;
+import dk.nsi.sdm4.autorisation.persistence.ChangeEvent;
+import dk.nsi.sdm4.autorisation.persistence.ChangeOutbox;
+import dk.nsi.sdm4.autorisation.persistence.CompactRegisterPersister;
+import dk.nsi.sdm4.autorisation.persistence.DeltaAutorisationWriter;
+import dk.nsi.sdm4.autorisation.persistence.ExternalSorter;
+import dk.nsi.sdm4.autorisation.persistence.ImportFingerprints;
+import dk.nsi.sdm4.autorisation.persistence.ImportLedger;
+import dk.nsi.sdm4.autorisation.persistence.ImportStaging;
+import dk.nsi.sdm4.autorisation.persistence.ParallelAutorisationWriter;
+import dk.nsi.sdm4.autorisation.persistence.SortedDeltaAutorisationWriter;
+import dk.nsi.sdm4.autorisation.persistence.StreamingAutorisationWriter;
 import dk.nsi.sdm4.core.parser.Parser;
 import dk.nsi.sdm4.core.parser.ParserException;
 import dk.nsi.sdm4.core.persistence.Persister;
@@ -52,8 +83,12 @@ import dk.sdsd.nsp.slalog.api.SLALogItem;
 import dk.sdsd.nsp.slalog.api.SLALogger;
 
 public class AutorisationParser implements Parser {
-    private static final String FILENAME_DATE_FORMAT = "yyyyMMdd";
-    private static final String FILE_ENCODING = "ISO8859-15";
+	private static final Log log = LogFactory.getLog(AutorisationParser.class);
+
+    static final String FILENAME_DATE_FORMAT = "yyyyMMdd";
+    static final Charset FILE_CHARSET = Charset.forName("ISO8859-15");
+	static final int FIELDS_PER_LINE = 5;
+	private static final int UNKNOWN_VALID_COUNT = -1;
 	public static final String FROMCLAUSE_VALID_AUTORISATIONER = "FROM Autorisation WHERE ValidFrom <= NOW() AND ValidTo > NOW();";
 
 	@Autowired
@@ -65,16 +100,80 @@ public class AutorisationParser implements Parser {
     @Autowired
     JdbcTemplate jdbcTemplate;
 
+	@Autowired
+	AutregUpdater autregUpdater;
+
+	@Autowired
+	ImportStatistics importStatistics;
+
+	@Autowired
+	ImportFingerprints importFingerprints;
+
+	@Autowired
+	AutorisationLookup autorisationLookup;
+
+	@Autowired
+	ImportLedger importLedger;
+
+	@Autowired
+	ImportStaging importStaging;
+
+	@Autowired
+	AutorisationArchiver autorisationArchiver;
+
+	@Autowired
+	ChangeOutbox changeOutbox;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	@Autowired
+	InputWatcher inputWatcher;
+
 	@Value("${spooler.autorisationimporter.max.allowed.reduction}")
 	private int maxAllowedReduction;
 
+	@Value("${spooler.autorisationimporter.import.mode}")
+	private ImportMode importMode;
+
+	@Value("${spooler.autorisationimporter.chunk.size}")
+	private int chunkSize;
+
+	@Value("${spooler.autorisationimporter.parser.threads}")
+	private int parserThreads;
+
+	@Value("${spooler.autorisationimporter.catchup}")
+	private boolean catchUp;
+
+	@Value("${spooler.autorisationimporter.commit.chunk.rows}")
+	private int commitChunkRows;
+
+	@Value("${spooler.autorisationimporter.pipeline}")
+	private boolean pipeline;
+
+	@Value("${spooler.autorisationimporter.pipeline.queue.capacity}")
+	private int pipelineQueueCapacity;
+
+	@Value("${spooler.autorisationimporter.parallel.writers}")
+	private int parallelWriters;
+
+	@Value("${spooler.autorisationimporter.spill.budget.mb}")
+	private int spillBudgetMb;
+
+	@Value("${spooler.autorisationimporter.spill.dir}")
+	private File spillDirectory;
+
 	@Override
     public void process(File dataset, String identifier) throws ParserException {
         Preconditions.checkNotNull(dataset);
 
         File[] files = dataset.listFiles();
 
-		if (files.length != 1) {
+		if (catchUp) {
+			if (files.length == 0) {
+				throw new ParserException("Data directory " + dataset.getAbsolutePath() + " contains no files, but expected at least one");
+			}
+		} else if (files.length != 1) {
 			throw new ParserException("Data directory " + dataset.getAbsolutePath() + " contains " + files.length + " files, but expected exactly one");
 		}
 
@@ -83,40 +182,168 @@ public class AutorisationParser implements Parser {
         SLALogItem slaLogItem = slaLogger.createLogItem(getHome()+".process", "SDM4."+getHome()+".process");
         slaLogItem.setMessageId(identifier);
         slaLogItem.addCallParameter(Parser.SLA_INPUT_NAME, dataset.getAbsolutePath());
+	    ImportMetrics metrics = importStatistics.importStarted(identifier);
         try {
             // Make sure the file set has not been imported before.
-            // Check what the previous highest version is (the ValidFrom column).
+            // Check what the previous highest version is (from the import ledger).
+	        metrics.startPhase(ImportPhase.VERSION_CHECK);
+
+            Date previousVersion = importLedger.lastVersion();
+
+	        DateTime[] versions = sortByVersion(files);
+	        for (int i = 0; i < files.length; i++) {
+		        Date after = i == 0 ? previousVersion : versions[i - 1].toDate();
+		        if (after != null && !versions[i].isAfter(after.getTime())) {
+			        throw new Exception("The version of autorisationsregister that was placed for import was out of order. current_version='"
+					        + after + "', new_version='" + versions[i] + "'.");
+		        }
+	        }
+	        DateTime currentVersion = versions[files.length - 1];
+
+	        // several versions are applied as deltas, each one diffed against the rows the previous one left valid
+	        boolean catchingUp = files.length > 1;
+	        boolean delta = catchingUp || importMode == ImportMode.DELTA;
+	        // within a memory budget each version is diffed against the rows the one before it wrote, not against rows in memory
+	        boolean sorted = delta && spillBudgetMb > 0;
+	        if (changeOutbox.isEnabled() && !delta && importMode != ImportMode.CHUNKED) {
+		        // the other modes do not know which autorisationer changed, and the feed must not silently miss a version
+		        throw new ParserException("The change outbox (spooler.autorisationimporter.outbox) is enabled, but the "
+				        + importMode + " import mode does not feed it. Use the DELTA or CHUNKED import mode");
+	        }
+	        if (changeOutbox.isEnabled() && sorted) {
+		        // the events of a version are held until it commits, which a memory budget cannot bound
+		        throw new ParserException("The change outbox (spooler.autorisationimporter.outbox) cannot be enabled together "
+				        + "with the memory budget of DELTA and catch-up import (spooler.autorisationimporter.spill.budget.mb)");
+	        }
+	        if (catchingUp && sorted) {
+		        log.info("Catching up " + files.length + " versions within " + spillBudgetMb + " MB, one version at a time");
+	        }
+	        DeltaAutorisationWriter deltaWriter = null;
+	        String lastRecordDigest = importFingerprints.lastRecordDigest();
+	        int validCount = UNKNOWN_VALID_COUNT;
+	        List<LedgerEntry> ledgerEntries = new ArrayList<LedgerEntry>();
 
-            Timestamp previousVersion;
-            try {
-                previousVersion = jdbcTemplate.queryForObject("SELECT MAX(ValidFrom) as version FROM Autorisation", Timestamp.class);
-            } catch (EmptyResultDataAccessException e) {
-                previousVersion = null;
+            int processed = 0;
+	        boolean changed = false;
+            for (int i = 0; i < files.length; i++) {
+	            File file = files[i];
+	            DateTime version = versions[i];
+	            metrics.addBytesRead(file.length());
+	            metrics.startPhase(ImportPhase.PRESCAN);
+	            PreparedRegister prepared = inputWatcher.takePrepared(file, version);
+	            RegisterFingerprint fingerprint;
+	            if (prepared != null) {
+		            log.info("Using " + file.getName() + " as it was prepared on delivery (" + prepared.getFingerprint() + ")");
+		            fingerprint = prepared.getFingerprint();
+	            } else {
+		            RegisterValidator validator = new RegisterValidator();
+		            fingerprint = RegisterFingerprint.of(file, validator);
+		            validator.throwIfInvalid(file.getName());
+	            }
+	            // the modes that read the file themselves only skip the prescan
+	            CompactRegister preparedRegister = prepared != null ? prepared.getRegister() : null;
+	            boolean skipped = fingerprint.getRecordDigest().equals(lastRecordDigest);
+	            if (delta && validCount == UNKNOWN_VALID_COUNT) {
+		            validCount = importLedger.validCount();
+	            }
+	            if (skipped) {
+		            log.info("Content of " + file.getName() + " is the same as in the last import (" + fingerprint + "), only advancing the version");
+	            } else if (sorted) {
+		            metrics.startPhase(ImportPhase.REDUCTION_GUARD);
+		            guardAgainsUnacceptableReduction(file, fingerprint.getRecords(), validCount);
+		            SortedDeltaAutorisationWriter writer = writeSorted(file, version, metrics);
+		            processed += writer.getHandled();
+		            validCount = writer.getValidCount();
+		            changed = true;
+	            } else if (delta) {
+		            metrics.startPhase(ImportPhase.REDUCTION_GUARD);
+		            guardAgainsUnacceptableReduction(file, fingerprint.getRecords(), validCount);
+		            metrics.startPhase(ImportPhase.WRITE);
+		            deltaWriter = deltaWriter == null
+				            ? createDeltaWriter(version)
+				            : deltaWriter.nextVersion(version.toDate());
+		            processed += write(file, version, preparedRegister, deltaWriter, metrics);
+		            validCount = deltaWriter.getValidCount();
+		            if (changeOutbox.isEnabled()) {
+			            recordChangeEvents(deltaWriter.getChangeEvents(), metrics);
+		            }
+		            changed = true;
+	            } else if (importMode == ImportMode.BULK) {
+		            processed += importBulk(file, version, fingerprint.getRecords(), metrics);
+		            changed = true;
+	            } else if (importMode == ImportMode.CHUNKED) {
+		            deltaWriter = importChunked(file, version, fingerprint, metrics);
+		            processed += deltaWriter.getHandled();
+		            if (changeOutbox.isEnabled()) {
+			            recordChangeEvents(deltaWriter.getChangeEvents(), metrics);
+		            }
+		            changed = true;
+	            } else if (importMode != ImportMode.COMPLETE) {
+		            processed += importWithWriter(file, version, fingerprint.getRecords(), preparedRegister, metrics);
+		            changed = true;
+	            } else {
+		            metrics.startPhase(ImportPhase.PARSE);
+		            CompactRegister register = preparedRegister != null ? preparedRegister : parseCompact(file, version);
+		            metrics.startPhase(ImportPhase.REDUCTION_GUARD);
+		            guardAgainsUnacceptableReduction(file, register.size());
+	                processed += register.size();
+		            metrics.startPhase(ImportPhase.WRITE);
+		            persist(register);
+		            changed = true;
+	            }
+	            importFingerprints.recordImported(version, fingerprint);
+	            lastRecordDigest = fingerprint.getRecordDigest();
+	            ledgerEntries.add(new LedgerEntry(version, fingerprint, skipped, validCount));
             }
+	        metrics.addRows(processed);
+
+            // Update the table for the STS, once for all the versions in the file set.
+	        if (changed) {
+		        metrics.startPhase(ImportPhase.AUTREG);
+		        if (deltaWriter != null && autregUpdater.isIncremental()) {
+			        // only the rows the deltas closed or inserted, in the same transaction as the writes
+			        metrics.addAutregRowsTouched(autregUpdater.update(deltaWriter.getAutregChanges()));
+			        validCount = deltaWriter.getValidCount();
+		        } else {
+			        validCount = autregUpdater.rebuild();
+			        metrics.addAutregRowsTouched(validCount);
+		        }
+	        } else {
+		        validCount = importLedger.validCount();
+	        }
 
-            DateTime currentVersion = getDateFromFilename(files[0].getName());
-
-            if (previousVersion != null && !currentVersion.isAfter(previousVersion.getTime())) {
-                throw new Exception("The version of autorisationsregister that was placed for import was out of order. current_version='"
-                                + previousVersion + "', new_version='" + currentVersion + "'.");
-            }
+	        // The ledger rows are written right after the rows they describe, before anything else can fail. Everything
+	        // in the import is DML in the spooler's transaction, so the ledger and Autorisation commit or roll back together,
+	        // and the version check never trusts a ledger that is behind the data.
+	        ImportMode usedMode = catchingUp ? ImportMode.DELTA : importMode;
+	        for (int i = 0; i < ledgerEntries.size(); i++) {
+		        LedgerEntry entry = ledgerEntries.get(i);
+		        // the last version is counted by the autreg update, the versions before it by the delta writer
+		        boolean last = i == ledgerEntries.size() - 1;
+		        importLedger.record(entry.version, last || entry.validCount == UNKNOWN_VALID_COUNT ? validCount : entry.validCount,
+				        entry.fingerprint, usedMode, entry.skipped, metrics);
+	        }
 
-            int processed = 0;
-            for (File file : files) {
-                Autorisationsregisterudtraek autRegisterDataset = parse(file, currentVersion);
-	            guardAgainsUnacceptableReduction(file, autRegisterDataset);
-                processed += autRegisterDataset.size();
-		        persister.persistCompleteDataset(autRegisterDataset);
-            }
+	        if (changed) {
+		        metrics.startPhase(ImportPhase.LOOKUP_INDEX);
+		        autorisationLookup.rebuild(currentVersion);
+		        if (autorisationArchiver.isEnabled()) {
+			        metrics.startPhase(ImportPhase.ARCHIVE);
+			        autorisationArchiver.archive(currentVersion);
+		        }
+	        }
 
-            // Update the table for the STS.
-            jdbcTemplate.execute("TRUNCATE TABLE autreg");
-            jdbcTemplate.update("INSERT INTO autreg (cpr, given_name, surname, aut_id, edu_id) SELECT cpr, Fornavn, Efternavn, Autorisationsnummer, UddannelsesKode " + FROMCLAUSE_VALID_AUTORISATIONER);
+	        metrics.importSucceeded();
+	        log.info("Wrote " + processed + " autorisationer from " + files.length + " file(s) at " + metrics.getRowsPerSecond() + " rows/s using "
+			        + (usedMode == ImportMode.COMPLETE ? persister.getClass().getSimpleName() : usedMode + " import"));
 
             slaLogItem.addCallParameter(Parser.SLA_RECORDS_PROCESSED_MAME, ""+processed);
+	        addPhaseTimings(slaLogItem, metrics);
             slaLogItem.setCallResultOk();
             slaLogItem.store();
         } catch (Exception e) {
+	        metrics.importFailed(e.getMessage());
+	        addPhaseTimings(slaLogItem, metrics);
             slaLogItem.setCallResultError("AutorisationImporter failed - Cause: " + e.getMessage());
             slaLogItem.store();
 	        if (e instanceof ParserException) {
@@ -128,9 +355,216 @@ public class AutorisationParser implements Parser {
         }
     }
 
-	private void guardAgainsUnacceptableReduction(File file, Autorisationsregisterudtraek autRegisterDataset) {
-		int currentNumberOfValidAutorisationer = jdbcTemplate.queryForInt("SELECT COUNT(AutorisationPID) " + FROMCLAUSE_VALID_AUTORISATIONER);
-		int reduction = currentNumberOfValidAutorisationer - autRegisterDataset.size();
+	/**
+	 * Sorts the files by the version in their names, which may be the name of the register inside a compressed file.
+	 *
+	 * @return the versions of the sorted files
+	 */
+	private DateTime[] sortByVersion(File[] files) throws IOException {
+		final Map<File, DateTime> versions = new HashMap<File, DateTime>();
+		for (File file : files) {
+			versions.put(file, getDateFromFilename(RegisterInput.registerName(file)));
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return versions.get(a).compareTo(versions.get(b));
+			}
+		});
+
+		DateTime[] result = new DateTime[files.length];
+		for (int i = 0; i < files.length; i++) {
+			result[i] = versions.get(files[i]);
+		}
+		return result;
+	}
+
+	private void addPhaseTimings(SLALogItem slaLogItem, ImportMetrics metrics) {
+		for (Map.Entry<ImportPhase, Long> phase : metrics.getPhaseMillis().entrySet()) {
+			slaLogItem.addCallParameter("phase_" + phase.getKey().name().toLowerCase() + "_ms", "" + phase.getValue());
+		}
+	}
+
+	private int importWithWriter(File file, DateTime currentVersion, int records, CompactRegister prepared, ImportMetrics metrics) throws IOException {
+		// the reduction guard must run before anything is written, so it uses the number of records from the prescan
+		metrics.startPhase(ImportPhase.REDUCTION_GUARD);
+		guardAgainsUnacceptableReduction(file, records);
+
+		metrics.startPhase(ImportPhase.WRITE);
+		return write(file, currentVersion, prepared, createWriter(currentVersion.toDate()), metrics);
+	}
+
+	private DeltaAutorisationWriter importChunked(File file, DateTime version, RegisterFingerprint fingerprint, ImportMetrics metrics) throws IOException {
+		metrics.startPhase(ImportPhase.REDUCTION_GUARD);
+		guardAgainsUnacceptableReduction(file, fingerprint.getRecords());
+
+		metrics.startPhase(ImportPhase.STAGE);
+		ImportStaging.Checkpoint checkpoint = importStaging.resume(version, fingerprint.getContentHash());
+		if (checkpoint.getStagedRows() > 0) {
+			log.info("Resuming the import of " + file.getName() + " from checkpoint " + checkpoint);
+		}
+		if (checkpoint.getStagedRows() < fingerprint.getRecords()) {
+			stage(file, version, checkpoint);
+		}
+
+		metrics.startPhase(ImportPhase.WRITE);
+		DeltaAutorisationWriter writer = createDeltaWriter(version);
+		importStaging.publish(version, writer);
+		writer.finish();
+		importStaging.clear();
+		metrics.addRowsWritten(writer.getInsertedRows(), writer.getClosedRows());
+		return writer;
+	}
+
+	private int importBulk(File file, DateTime version, int records, ImportMetrics metrics) throws IOException {
+		metrics.startPhase(ImportPhase.REDUCTION_GUARD);
+		guardAgainsUnacceptableReduction(file, records);
+
+		metrics.startPhase(ImportPhase.STAGE);
+		BulkAutorisationLoader loader = new BulkAutorisationLoader(jdbcTemplate, version.toDate());
+		ReadableByteChannel input = RegisterInput.open(file);
+		try {
+			BulkRowStream rows = new BulkRowStream(new AutorisationLineReader(input, FILE_CHARSET));
+			int loaded = loader.load(rows);
+			if (loaded != rows.getRows()) {
+				throw new IllegalStateException("Loaded " + loaded + " of the " + rows.getRows() + " autorisationer in " + file.getName());
+			}
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+
+		metrics.startPhase(ImportPhase.WRITE);
+		loader.merge();
+		metrics.addRowsWritten(loader.getInsertedRows(), loader.getClosedRows());
+		return loader.getLoadedRows();
+	}
+
+	/**
+	 * Writes a DELTA import within the memory budget: the valid rows and the register each get half of it, and are
+	 * spilled to sorted run files in the spill directory when they do not fit.
+	 */
+	private SortedDeltaAutorisationWriter writeSorted(File file, DateTime version, ImportMetrics metrics) throws IOException {
+		metrics.startPhase(ImportPhase.SORT);
+		long budgetBytes = spillBudgetMb * 1024L * 1024L / 2;
+		Date validFrom = version.toDate();
+		SortedDeltaAutorisationWriter writer = new SortedDeltaAutorisationWriter(jdbcTemplate, validFrom, chunkSize, spillDirectory, budgetBytes);
+		final ExternalSorter<Autorisation> register = SortedDeltaAutorisationWriter.registerSorter(spillDirectory, budgetBytes, validFrom);
+		try {
+			parse(file, validFrom, new AutorisationHandler() {
+				@Override
+				public void handle(Autorisation autorisation) {
+					try {
+						register.add(autorisation);
+					} catch (IOException e) {
+						throw new ParserException("Unable to spill the register to " + spillDirectory, e);
+					}
+				}
+			});
+			ExternalSorter.Cursor<Autorisation> sorted = register.sorted();
+			log.info("Sorted " + writer.getSpilledRuns() + " run(s) of valid autorisationer and " + register.getRuns()
+					+ " run(s) of " + file.getName() + " within " + spillBudgetMb + " MB");
+
+			metrics.startPhase(ImportPhase.WRITE);
+			for (Autorisation autorisation = sorted.next(); autorisation != null; autorisation = sorted.next()) {
+				writer.handle(autorisation);
+			}
+			writer.finish();
+		} finally {
+			register.close();
+			writer.close();
+		}
+		metrics.addRowsWritten(writer.getInsertedRows(), writer.getClosedRows());
+		return writer;
+	}
+
+	private void stage(File file, DateTime version, ImportStaging.Checkpoint checkpoint) throws IOException {
+		Date validFrom = version.toDate();
+		long start = checkpoint.getByteOffset();
+		List<Autorisation> chunk = new ArrayList<Autorisation>(commitChunkRows);
+
+		ReadableByteChannel input = RegisterInput.open(file, start);
+		try {
+			AutorisationLineReader reader = new AutorisationLineReader(input, FILE_CHARSET);
+			while (reader.next()) {
+				if (chunk.size() == commitChunkRows) {
+					checkpoint = importStaging.stageChunk(checkpoint, chunk, start + reader.lineOffset());
+					chunk.clear();
+				}
+				chunk.add(toAutorisation(reader, validFrom));
+			}
+			importStaging.stageChunk(checkpoint, chunk, start + reader.offset());
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	/**
+	 * Writes the register with the writer, from the prepared register if there is one and otherwise by parsing the file.
+	 */
+	private int write(File file, DateTime version, CompactRegister prepared, AutorisationWriter writer, ImportMetrics metrics) throws IOException {
+		int handled;
+		try {
+			if (prepared != null) {
+				for (int row = 0; row < prepared.size(); row++) {
+					writer.handle(prepared.toAutorisation(row));
+				}
+			} else if (pipeline) {
+				new PipelinedAutorisationParser(pipelineQueueCapacity, PipelinedAutorisationParser.DEFAULT_BLOCK_BYTES)
+						.parse(file, version.toDate(), writer, metrics);
+			} else {
+				parse(file, version, writer);
+			}
+			handled = writer.finish();
+		} finally {
+			if (writer instanceof Closeable) {
+				// e.g. stops the threads of a ParallelAutorisationWriter if parsing failed
+				IOUtils.closeQuietly((Closeable) writer);
+			}
+		}
+		metrics.addRowsWritten(writer.getInsertedRows(), writer.getClosedRows());
+		return handled;
+	}
+
+	private void persist(CompactRegister register) throws SQLException {
+		if (persister instanceof CompactRegisterPersister && !register.hasDuplicateAutorisationsnummer()) {
+			((CompactRegisterPersister) persister).persistRegister(register);
+		} else {
+			// the dataset decides which of the duplicates is kept, as it always has
+			Autorisationsregisterudtraek dataset = new Autorisationsregisterudtraek(register.getValidFrom());
+			for (int row = 0; row < register.size(); row++) {
+				dataset.add(register.toAutorisation(row));
+			}
+			persister.persistCompleteDataset(dataset);
+		}
+	}
+
+	private DeltaAutorisationWriter createDeltaWriter(DateTime version) {
+		DeltaAutorisationWriter writer = new DeltaAutorisationWriter(jdbcTemplate, version.toDate(), chunkSize);
+		return changeOutbox.isEnabled() ? writer.collectChangeEvents() : writer;
+	}
+
+	private void recordChangeEvents(List<ChangeEvent> events, ImportMetrics metrics) {
+		metrics.startPhase(ImportPhase.OUTBOX);
+		changeOutbox.record(events);
+	}
+
+	private AutorisationWriter createWriter(Date validFrom) {
+		switch (importMode) {
+			case STREAMING:
+				return new StreamingAutorisationWriter(jdbcTemplate, validFrom, chunkSize);
+			case PARALLEL:
+				return new ParallelAutorisationWriter(jdbcTemplate, transactionManager, validFrom, chunkSize, parallelWriters);
+			default:
+				throw new IllegalStateException("Import mode " + importMode + " does not use an AutorisationWriter");
+		}
+	}
+
+	void guardAgainsUnacceptableReduction(File file, int numberOfAutorisationerInFile) {
+		guardAgainsUnacceptableReduction(file, numberOfAutorisationerInFile, importLedger.validCount());
+	}
+
+	private void guardAgainsUnacceptableReduction(File file, int numberOfAutorisationerInFile, int currentNumberOfValidAutorisationer) {
+		int reduction = currentNumberOfValidAutorisationer - numberOfAutorisationerInFile;
 		if (reduction > maxAllowedReduction) {
 	        throw new ParserException("Number of autorisationer in file " + file.getAbsolutePath() +
 			        " is a reduction of " + reduction + " compared to the current number of active autorisationer " + currentNumberOfValidAutorisationer + " in the database. " +
@@ -144,39 +578,129 @@ public class AutorisationParser implements Parser {
     }
 
     public Autorisationsregisterudtraek parse(File file, DateTime validFrom) throws IOException {
-        Autorisationsregisterudtraek dataset = new Autorisationsregisterudtraek(validFrom.toDate());
+	    Date validFromDate = validFrom.toDate();
+        final Autorisationsregisterudtraek dataset = new Autorisationsregisterudtraek(validFromDate);
 
-        LineIterator lineIterator = FileUtils.lineIterator(file, FILE_ENCODING);
+	    parse(file, validFromDate, new AutorisationHandler() {
+		    @Override
+		    public void handle(Autorisation autorisation) {
+			    dataset.add(autorisation);
+		    }
+	    });
 
-        while (lineIterator.hasNext()) {
-            String line = lineIterator.nextLine();
+        return dataset;
+    }
 
-	        Autorisation autorisation = new Autorisation();
+	/**
+	 * Parses the file into a {@link CompactRegister}, without keeping an Autorisation per row.
+	 */
+	public CompactRegister parseCompact(File file, DateTime validFrom) throws IOException {
+		Date validFromDate = validFrom.toDate();
+		final CompactRegister.Builder builder = new CompactRegister.Builder(validFromDate);
+
+		if (parserThreads > 1) {
+			parse(file, validFromDate, new AutorisationHandler() {
+				@Override
+				public void handle(Autorisation autorisation) {
+					try {
+						builder.add(autorisation.getAutorisationsnummer(), autorisation.getCpr(), autorisation.getEfternavn(),
+								autorisation.getFornavn(), autorisation.getUddannelsesKode());
+					} catch (IllegalArgumentException e) {
+						throw new ParserException("Unable to parse autorisation " + autorisation.getAutorisationsnummer(), e);
+					}
+				}
+			});
+			return builder.build();
+		}
+		return readCompact(file, validFromDate);
+	}
 
-	        try {
-		        StringTokenizer st = new StringTokenizer(line, ";");
+	/**
+	 * Parses the file into a {@link CompactRegister} on the calling thread.
+	 */
+	static CompactRegister readCompact(File file, Date validFrom) throws IOException {
+		CompactRegister.Builder builder = new CompactRegister.Builder(validFrom);
+		ReadableByteChannel input = RegisterInput.open(file);
+		try {
+			AutorisationLineReader reader = new AutorisationLineReader(input, FILE_CHARSET);
+			while (reader.next()) {
+				checkFieldCount(reader);
+				try {
+					builder.add(reader.field(0), reader.field(1), reader.field(2), reader.field(3), reader.field(4));
+				} catch (IllegalArgumentException e) {
+					throw new ParserException("Unable to parse line " + reader.line(), e);
+				}
+			}
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+		return builder.build();
+	}
 
-		        autorisation.setAutorisationnummer(st.nextToken());
-		        autorisation.setCpr(st.nextToken());
-		        autorisation.setEfternavn(st.nextToken());
-		        autorisation.setFornavn(st.nextToken());
-		        autorisation.setUddannelsesKode(st.nextToken());
-	        } catch (RuntimeException e) {
-		        throw new ParserException("Unable to parse line " + line, e);
-	        }
+	public void parse(File file, DateTime validFrom, AutorisationHandler handler) throws IOException {
+		parse(file, validFrom.toDate(), handler);
+	}
 
-	        autorisation.setValidFrom(validFrom.toDate());
-            autorisation.setValidTo(Dates.THE_END_OF_TIME);
+	private void parse(File file, Date validFrom, AutorisationHandler handler) throws IOException {
+		// a compressed file can only be decoded from the start, so it is always parsed on one thread
+		if (parserThreads > 1 && RegisterInput.compressionOf(file) == RegisterInput.Compression.NONE) {
+			new ParallelAutorisationParser(parserThreads, ParallelAutorisationParser.DEFAULT_MIN_RANGE_BYTES).parse(file, validFrom, handler);
+			return;
+		}
 
-            dataset.add(autorisation);
-        }
+		ReadableByteChannel input = RegisterInput.open(file);
+		try {
+			AutorisationLineReader reader = new AutorisationLineReader(input, FILE_CHARSET);
+			while (reader.next()) {
+				handler.handle(toAutorisation(reader, validFrom));
+			}
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
 
-        return dataset;
-    }
+	static Autorisation toAutorisation(AutorisationLineReader reader, Date validFrom) {
+		checkFieldCount(reader);
+
+		Autorisation autorisation = new Autorisation();
+		autorisation.setAutorisationnummer(reader.field(0));
+		autorisation.setCpr(reader.field(1));
+		autorisation.setEfternavn(reader.field(2));
+		autorisation.setFornavn(reader.field(3));
+		autorisation.setUddannelsesKode(reader.field(4));
+		// all rows share the Date instances of the dataset
+		autorisation.setValidFrom(validFrom);
+		autorisation.setValidTo(Dates.THE_END_OF_TIME);
+		return autorisation;
+	}
+
+	static void checkFieldCount(AutorisationLineReader reader) {
+		if (reader.fieldCount() < FIELDS_PER_LINE) {
+			throw fieldCountError(reader.line(), reader.lineNumber(), reader.fieldCount());
+		}
+	}
+
+	static ParserException fieldCountError(String line, int lineNumber, int fieldCount) {
+		return new ParserException("Unable to parse line " + line,
+				new NoSuchElementException("Line " + lineNumber + " has " + fieldCount + " fields, expected " + FIELDS_PER_LINE));
+	}
 
     @Override
     public String getHome() {
         return "autorisationimporter";
     }
 
+	private static class LedgerEntry {
+		final DateTime version;
+		final RegisterFingerprint fingerprint;
+		final boolean skipped;
+		final int validCount;
+
+		LedgerEntry(DateTime version, RegisterFingerprint fingerprint, boolean skipped, int validCount) {
+			this.version = version;
+			this.fingerprint = fingerprint;
+			this.skipped = skipped;
+			this.validCount = validCount;
+		}
+	}
 }
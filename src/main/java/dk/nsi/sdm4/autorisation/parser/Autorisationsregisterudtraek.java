@@ -35,9 +35,20 @@ import dk.nsi.sdm4.core.util.Dates;
 
 public class Autorisationsregisterudtraek extends CompleteDataset<Autorisation>
 {
+	private final Date version;
+
 	public Autorisationsregisterudtraek(Date validFrom)
 	{
 		super(Autorisation.class, validFrom, Dates.THE_END_OF_TIME);
+		this.version = validFrom;
+	}
+
+	/**
+	 * @return the date this version of the register is valid from
+	 */
+	public Date getVersion()
+	{
+		return version;
 	}
 
 	@Override
@@ -0,0 +1,122 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * The lines of a register as rows for LOAD DATA: the fields separated by tabs and the lines by newlines, with
+ * backslash, tab and newline escaped with a backslash, encoded in UTF-8.
+ * <p>
+ * The rows are produced as the driver reads the stream, a block of lines at a time, so the register is never held in
+ * memory or written to a temporary file.
+ */
+class BulkRowStream extends InputStream {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int BLOCK_CHARS = 64 * 1024;
+
+	private final AutorisationLineReader reader;
+	private final StringBuilder block = new StringBuilder(BLOCK_CHARS + 1024);
+	private byte[] bytes = new byte[0];
+	private int position = 0;
+	private int rows = 0;
+
+	BulkRowStream(AutorisationLineReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * @return the number of lines turned into rows so far
+	 */
+	int getRows() {
+		return rows;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		return bytes[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		int count = Math.min(len, bytes.length - position);
+		System.arraycopy(bytes, position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	private boolean fill() throws IOException {
+		if (position < bytes.length) {
+			return true;
+		}
+		block.setLength(0);
+		while (block.length() < BLOCK_CHARS && reader.next()) {
+			AutorisationParser.checkFieldCount(reader);
+			for (int i = 0; i < AutorisationParser.FIELDS_PER_LINE; i++) {
+				if (i > 0) {
+					block.append('\t');
+				}
+				appendEscaped(reader.field(i));
+			}
+			block.append('\n');
+			rows++;
+		}
+		bytes = block.toString().getBytes(UTF8);
+		position = 0;
+		return bytes.length > 0;
+	}
+
+	private void appendEscaped(String field) {
+		for (int i = 0; i < field.length(); i++) {
+			char c = field.charAt(i);
+			switch (c) {
+				case '\\':
+					block.append("\\\\");
+					break;
+				case '\t':
+					block.append("\\t");
+					break;
+				case '\n':
+					block.append("\\n");
+					break;
+				default:
+					block.append(c);
+			}
+		}
+	}
+}
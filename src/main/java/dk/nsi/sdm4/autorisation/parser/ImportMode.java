@@ -0,0 +1,65 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+/**
+ * How a parsed register file is written to the database.
+ */
+public enum ImportMode {
+	/**
+	 * The whole file is parsed into an {@link Autorisationsregisterudtraek} and handed to the {@link dk.nsi.sdm4.core.persistence.Persister}.
+	 */
+	COMPLETE,
+
+	/**
+	 * The file is parsed and written in bounded chunks, so memory use does not depend on the size of the file.
+	 */
+	STREAMING,
+
+	/**
+	 * Like {@link #STREAMING}, but only autorisationer that were added, changed or removed since the currently valid rows are written.
+	 */
+	DELTA,
+
+	/**
+	 * The file is copied into a staging table in chunks that are committed one at a time with a checkpoint, so a failed
+	 * import can be resumed. The staged register is then written like {@link #DELTA} in the import's transaction.
+	 */
+	CHUNKED,
+
+	/**
+	 * The file is streamed into a staging table with LOAD DATA LOCAL INFILE, and a few set-based statements close the
+	 * rows that were removed or changed and insert the new versions, all in the import's transaction.
+	 */
+	BULK,
+
+	/**
+	 * The file is parsed and partitioned on Autorisationsnummer, and the partitions are staged in parallel on their own
+	 * connections. The staged register is then published like {@link #BULK} in the import's transaction.
+	 */
+	PARALLEL
+}
@@ -0,0 +1,323 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.springframework.beans.factory.annotation.Value;
+
+import dk.nsi.sdm4.autorisation.model.CompactRegister;
+import dk.nsi.sdm4.core.parser.ParserException;
+
+/**
+ * Prepares register files as soon as they are delivered, instead of when the spooler gets round to importing them.
+ * <p>
+ * A WatchService follows spooler.autorisationimporter.watch.dir, the spooler's input directory, and the dataset
+ * directories delivered to it, but no deeper, so the directories the spooler moves files on to are not followed. Files
+ * that are already there at startup are left to be imported the usual way. A file that has not changed for
+ * spooler.autorisationimporter.watch.quiet.millis is taken to be completely written, and is validated and
+ * fingerprinted on the watcher's thread. In the import modes that use a parsed register it is also parsed into a
+ * {@link dk.nsi.sdm4.autorisation.model.CompactRegister}; BULK, CHUNKED and DELTA with a memory budget read the file
+ * themselves and only skip the prescan.
+ * <p>
+ * The result is kept by the content hash of the file, so {@link AutorisationParser#process} finds it wherever the
+ * spooler has moved the file to and only has the database work left. A file that has changed since it was prepared
+ * has another hash and is simply imported the usual way. Only the last {@value #MAX_PREPARED} prepared registers are
+ * kept, and each is taken out of the cache when used; a file with the content of one that has been taken is not
+ * prepared again.
+ */
+public class InputWatcher {
+	private static final Log log = LogFactory.getLog(InputWatcher.class);
+	static final int MAX_PREPARED = 2;
+	static final int MAX_TAKEN = 16;
+	private static final long POLL_MILLIS = 250;
+
+	@Value("${spooler.autorisationimporter.watch}")
+	private boolean enabled;
+
+	@Value("${spooler.autorisationimporter.watch.dir}")
+	private File directory;
+
+	@Value("${spooler.autorisationimporter.watch.quiet.millis}")
+	private long quietMillis;
+
+	@Value("${spooler.autorisationimporter.import.mode}")
+	private ImportMode importMode = ImportMode.COMPLETE;
+
+	@Value("${spooler.autorisationimporter.spill.budget.mb}")
+	private int spillBudgetMb;
+
+	private final Map<String, PreparedRegister> prepared = new LinkedHashMap<String, PreparedRegister>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedRegister> eldest) {
+			return size() > MAX_PREPARED;
+		}
+	};
+
+	// the content hashes of the registers taken by imports, guarded by prepared
+	private final Map<String, Boolean> taken = new LinkedHashMap<String, Boolean>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > MAX_TAKEN;
+		}
+	};
+
+	// the files that changed and when, only used by the watcher's thread
+	private final Map<Path, Long> changed = new HashMap<Path, Long>();
+	private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+	private WatchService watchService;
+	private Thread thread;
+
+	@PostConstruct
+	public void start() throws IOException {
+		if (!enabled) {
+			return;
+		}
+		FileUtils.forceMkdir(directory);
+		watchService = FileSystems.getDefault().newWatchService();
+		watchInput(false);
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "autorisation-input-watcher");
+		thread.setDaemon(true);
+		thread.start();
+		log.info("Preparing register files delivered to " + directory);
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (thread != null) {
+			thread.interrupt();
+		}
+		IOUtils.closeQuietly(watchService);
+	}
+
+	/**
+	 * Takes the prepared register with the same content as the file, if it was prepared for the same version.
+	 *
+	 * @return null if the file has not been prepared
+	 */
+	PreparedRegister takePrepared(File file, DateTime version) throws IOException {
+		synchronized (prepared) {
+			if (prepared.isEmpty()) {
+				// the file is only read to hash it when there is something to find
+				return null;
+			}
+		}
+		String contentHash = RegisterFingerprint.contentHash(file);
+		synchronized (prepared) {
+			PreparedRegister result = prepared.get(contentHash);
+			if (result == null || !result.getVersion().equals(version)) {
+				return null;
+			}
+			taken.put(contentHash, Boolean.TRUE);
+			return prepared.remove(contentHash);
+		}
+	}
+
+	/**
+	 * Validates, fingerprints and, if the import mode uses it, parses the file, unless a file with the same content has
+	 * already been prepared or taken.
+	 *
+	 * @return null if the file is not named like a register, or its content has already been taken by an import
+	 * @throws ParserException if the file is not a valid register, which the import of it will report
+	 */
+	PreparedRegister prepare(File file) throws IOException {
+		DateTime version;
+		try {
+			version = DateTimeFormat.forPattern(AutorisationParser.FILENAME_DATE_FORMAT).parseDateTime(RegisterInput.registerName(file).substring(0, 8));
+		} catch (IllegalArgumentException e) {
+			return null;
+		} catch (StringIndexOutOfBoundsException e) {
+			return null;
+		}
+
+		long start = System.currentTimeMillis();
+		RegisterValidator validator = new RegisterValidator();
+		RegisterFingerprint fingerprint = RegisterFingerprint.of(file, validator);
+		String contentHash = fingerprint.getContentHash();
+		synchronized (prepared) {
+			if (taken.containsKey(contentHash)) {
+				return null;
+			}
+			PreparedRegister existing = prepared.get(contentHash);
+			if (existing != null && existing.getVersion().equals(version)) {
+				return existing;
+			}
+		}
+		validator.throwIfInvalid(file.getName());
+
+		CompactRegister register = readsTheFileItself() ? null : AutorisationParser.readCompact(file, version.toDate());
+		PreparedRegister result = new PreparedRegister(version, fingerprint, register);
+		synchronized (prepared) {
+			prepared.put(contentHash, result);
+		}
+		log.info("Prepared " + file + " in " + (System.currentTimeMillis() - start) + " ms (" + fingerprint + ")");
+		return result;
+	}
+
+	/**
+	 * @return true if the import mode reads the file itself, so a parsed register would only take up the heap
+	 */
+	private boolean readsTheFileItself() {
+		return importMode == ImportMode.BULK || importMode == ImportMode.CHUNKED
+				|| (importMode == ImportMode.DELTA && spillBudgetMb > 0);
+	}
+
+	private void watch() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				WatchKey key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (key != null) {
+					handleEvents(key);
+				}
+				prepareQuietFiles();
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		} catch (ClosedWatchServiceException e) {
+			// stopped
+		}
+	}
+
+	private void handleEvents(WatchKey key) {
+		Path dir = directories.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				// events were lost, so any of the delivered files may have changed
+				watchInput(true);
+				continue;
+			}
+			Path child = dir.resolve((Path) event.context());
+			if (child.toFile().isDirectory()) {
+				if (event.kind() == ENTRY_CREATE && dir.equals(directory.toPath())) {
+					// a dataset directory may be moved in with its files already written
+					watch(child, true);
+				}
+			} else {
+				changed.put(child, System.currentTimeMillis());
+			}
+		}
+		if (!key.reset()) {
+			directories.remove(key);
+		}
+	}
+
+	private void prepareQuietFiles() {
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<Path, Long>> files = changed.entrySet().iterator();
+		while (files.hasNext()) {
+			Map.Entry<Path, Long> file = files.next();
+			if (now - file.getValue() < quietMillis) {
+				continue;
+			}
+			files.remove();
+			File register = file.getKey().toFile();
+			if (!register.isFile()) {
+				// moved on, e.g. by the spooler
+				continue;
+			}
+			try {
+				prepare(register);
+			} catch (ParserException e) {
+				log.warn("Not preparing " + register + ": " + e.getMessage());
+			} catch (IOException e) {
+				log.warn("Not preparing " + register, e);
+			} catch (RuntimeException e) {
+				log.warn("Not preparing " + register, e);
+			}
+		}
+	}
+
+	/**
+	 * Watches the input directory and the dataset directories in it.
+	 *
+	 * @param delivered whether the files already in them are treated as changed
+	 */
+	private void watchInput(boolean delivered) {
+		Path input = directory.toPath();
+		watch(input, delivered);
+		File[] children = directory.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				watch(child.toPath(), delivered);
+			}
+		}
+	}
+
+	private void watch(Path dir, boolean delivered) {
+		try {
+			directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY), dir);
+		} catch (IOException e) {
+			log.warn("Unable to watch " + dir, e);
+			return;
+		}
+		if (!delivered) {
+			return;
+		}
+		File[] children = dir.toFile().listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isFile()) {
+				changed.put(child.toPath(), System.currentTimeMillis());
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+/**
+ * A set of longs in one open-addressing table, so a register of a million autorisationer does not need a million
+ * boxed Longs to find its duplicates.
+ */
+class LongHashSet {
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final long EMPTY = 0;
+
+	private long[] keys = new long[INITIAL_CAPACITY];
+	private boolean containsEmpty;
+	private int size;
+
+	/**
+	 * @return true if the value was not in the set before
+	 */
+	boolean add(long value) {
+		if (value == EMPTY) {
+			boolean added = !containsEmpty;
+			containsEmpty = true;
+			return added;
+		}
+		if (2 * (size + 1) > keys.length) {
+			rehash(keys.length * 2);
+		}
+		if (!insert(keys, value)) {
+			return false;
+		}
+		size++;
+		return true;
+	}
+
+	boolean contains(long value) {
+		if (value == EMPTY) {
+			return containsEmpty;
+		}
+		int mask = keys.length - 1;
+		for (int i = slot(value, mask); keys[i] != EMPTY; i = (i + 1) & mask) {
+			if (keys[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	int size() {
+		return size + (containsEmpty ? 1 : 0);
+	}
+
+	private void rehash(int capacity) {
+		long[] rehashed = new long[capacity];
+		for (long key : keys) {
+			if (key != EMPTY) {
+				insert(rehashed, key);
+			}
+		}
+		keys = rehashed;
+	}
+
+	private static boolean insert(long[] table, long value) {
+		int mask = table.length - 1;
+		int i = slot(value, mask);
+		while (table[i] != EMPTY) {
+			if (table[i] == value) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		table[i] = value;
+		return true;
+	}
+
+	private static int slot(long value, int mask) {
+		// packed autorisationsnumre differ mostly in the low bytes, so mix all bits into the slot
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+}
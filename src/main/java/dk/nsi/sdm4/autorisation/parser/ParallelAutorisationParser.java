@@ -0,0 +1,260 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Preconditions;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+
+/**
+ * Parses a register file on several threads.
+ * <p>
+ * The file is split into byte ranges that start and end on line boundaries, and each range is parsed by its own
+ * {@link AutorisationLineReader} on a fork-join pool. The autorisationer are handed to the handler in file order as
+ * soon as the ranges before them are done, so the handler sees exactly what the sequential parser would give it,
+ * and a parse error is reported for the same line.
+ * <p>
+ * A range is at most {@link #MAX_RANGE_BYTES} long, and at most two ranges per thread are parsed ahead of the handler,
+ * so only those ranges are on the heap as Autorisation objects, whatever the size of the file.
+ */
+class ParallelAutorisationParser {
+	static final long DEFAULT_MIN_RANGE_BYTES = 1024 * 1024;
+	static final long MAX_RANGE_BYTES = 4 * 1024 * 1024;
+	private static final int RANGES_PER_THREAD = 4;
+	private static final int RANGES_AHEAD_PER_THREAD = 2;
+
+	private final int threads;
+	private final long minRangeBytes;
+
+	ParallelAutorisationParser(int threads, long minRangeBytes) {
+		Preconditions.checkArgument(threads > 0, "threads must be positive, was %s", threads);
+		this.threads = threads;
+		this.minRangeBytes = minRangeBytes;
+	}
+
+	void parse(File file, final Date validFrom, AutorisationHandler handler) throws IOException {
+		FileInputStream input = new FileInputStream(file);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			final FileChannel channel = input.getChannel();
+			long[] boundaries = lineAlignedBoundaries(channel);
+
+			Deque<Future<ParsedRange>> ranges = new ArrayDeque<Future<ParsedRange>>();
+			int submitted = 0;
+			int linesBefore = 0;
+			while (submitted < boundaries.length - 1 || !ranges.isEmpty()) {
+				while (submitted < boundaries.length - 1 && ranges.size() < threads * RANGES_AHEAD_PER_THREAD) {
+					final long start = boundaries[submitted];
+					final long end = boundaries[submitted + 1];
+					ranges.add(pool.submit(new Callable<ParsedRange>() {
+						@Override
+						public ParsedRange call() throws IOException {
+							return parseRange(channel, start, end, validFrom);
+						}
+					}));
+					submitted++;
+				}
+
+				ParsedRange range = result(ranges.remove());
+				for (Autorisation autorisation : range.autorisationer) {
+					handler.handle(autorisation);
+				}
+				if (range.invalidLine != null) {
+					// the range only knows its own line numbers
+					throw AutorisationParser.fieldCountError(range.invalidLine, linesBefore + range.lines, range.invalidFieldCount);
+				}
+				linesBefore += range.lines;
+			}
+		} finally {
+			pool.shutdownNow();
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	private ParsedRange parseRange(FileChannel channel, long start, long end, Date validFrom) throws IOException {
+		ParsedRange range = new ParsedRange();
+		AutorisationLineReader reader = new AutorisationLineReader(new RangeChannel(channel, start, end), AutorisationParser.FILE_CHARSET);
+		while (reader.next()) {
+			range.lines = reader.lineNumber();
+			if (reader.fieldCount() < AutorisationParser.FIELDS_PER_LINE) {
+				range.invalidLine = reader.line();
+				range.invalidFieldCount = reader.fieldCount();
+				break;
+			}
+			range.autorisationer.add(AutorisationParser.toAutorisation(reader, validFrom));
+		}
+		return range;
+	}
+
+	/**
+	 * @return the offsets where the ranges start, followed by the size of the file
+	 */
+	long[] lineAlignedBoundaries(FileChannel channel) throws IOException {
+		long size = channel.size();
+		long wanted = Math.max(threads * RANGES_PER_THREAD, (size + MAX_RANGE_BYTES - 1) / MAX_RANGE_BYTES);
+		int count = (int) Math.max(1, Math.min(wanted, size / Math.max(minRangeBytes, 1)));
+
+		List<Long> boundaries = new ArrayList<Long>();
+		boundaries.add(0L);
+		for (int i = 1; i < count; i++) {
+			long boundary = nextLineStart(channel, size * i / count, size);
+			if (boundary > boundaries.get(boundaries.size() - 1) && boundary < size) {
+				boundaries.add(boundary);
+			}
+		}
+		boundaries.add(size);
+
+		long[] result = new long[boundaries.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = boundaries.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the offset just after the first line terminator at or after position, counting "\r\n" as one terminator
+	 */
+	private long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+		long offset = position;
+		while (offset < size) {
+			buffer.clear();
+			int read = channel.read(buffer, offset);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				byte b = buffer.get(i);
+				if (b == '\n') {
+					return offset + i + 1;
+				}
+				if (b == '\r') {
+					if (i + 1 < read) {
+						return buffer.get(i + 1) == '\n' ? offset + i + 2 : offset + i + 1;
+					}
+					ByteBuffer next = ByteBuffer.allocate(1);
+					boolean lineFeedFollows = channel.read(next, offset + i + 1) == 1 && next.get(0) == '\n';
+					return lineFeedFollows ? offset + i + 2 : offset + i + 1;
+				}
+			}
+			offset += read;
+		}
+		return size;
+	}
+
+	private static <T> T result(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while parsing", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * The autorisationer of a range, up to the first line without enough fields.
+	 */
+	private static class ParsedRange {
+		final List<Autorisation> autorisationer = new ArrayList<Autorisation>();
+		/** the number of lines read, including the invalid line */
+		int lines;
+		String invalidLine;
+		int invalidFieldCount;
+	}
+
+	/**
+	 * Reads the bytes from start to end of a file channel that is shared with other threads.
+	 */
+	private static class RangeChannel implements ReadableByteChannel {
+		private final FileChannel channel;
+		private long position;
+		private final long end;
+
+		RangeChannel(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.position = start;
+			this.end = end;
+		}
+
+		@Override
+		public int read(ByteBuffer target) throws IOException {
+			if (position >= end) {
+				return -1;
+			}
+			int limit = target.limit();
+			if (target.remaining() > end - position) {
+				target.limit(target.position() + (int) (end - position));
+			}
+			try {
+				int read = channel.read(target, position);
+				if (read > 0) {
+					position += read;
+				}
+				return read;
+			} finally {
+				target.limit(limit);
+			}
+		}
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		@Override
+		public void close() {
+			// the channel is shared and closed by the parser
+		}
+	}
+}
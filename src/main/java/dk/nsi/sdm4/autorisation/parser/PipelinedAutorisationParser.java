@@ -0,0 +1,259 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import dk.nsi.sdm4.autorisation.metrics.ImportMetrics;
+import dk.nsi.sdm4.autorisation.metrics.StageMetrics;
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+
+/**
+ * Parses a register file in a pipeline of stages that run at the same time: reading blocks of whole lines and parsing
+ * them, each on its own thread, connected by bounded queues.
+ * <p>
+ * The values are not validated here: the prescan has already checked every line with a {@link RegisterValidator}
+ * before the import writes anything.
+ * <p>
+ * The handler, typically an {@link dk.nsi.sdm4.autorisation.persistence.AutorisationWriter}, is the last stage and
+ * runs on the calling thread, so it writes in the caller's transaction. A full queue makes the stage before it wait,
+ * so no more than a few blocks are held in memory, and the import takes about as long as its slowest stage rather
+ * than the sum of the stages. Each stage records its throughput and the depth of its input queue in the
+ * {@link ImportMetrics}.
+ */
+class PipelinedAutorisationParser {
+	static final int DEFAULT_BLOCK_BYTES = 256 * 1024;
+	private static final long POLL_MILLIS = 100;
+
+	static final String READ = "read";
+	static final String PARSE = "parse";
+	static final String WRITE = "write";
+
+	private static final byte[] END_OF_BLOCKS = new byte[0];
+	private static final List<Autorisation> END_OF_BATCHES = new ArrayList<Autorisation>(0);
+
+	private final int queueCapacity;
+	private final int blockBytes;
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	PipelinedAutorisationParser(int queueCapacity, int blockBytes) {
+		Preconditions.checkArgument(queueCapacity > 0, "queueCapacity must be positive, was %s", queueCapacity);
+		Preconditions.checkArgument(blockBytes > 0, "blockBytes must be positive, was %s", blockBytes);
+		this.queueCapacity = queueCapacity;
+		this.blockBytes = blockBytes;
+	}
+
+	void parse(final File file, final Date validFrom, AutorisationHandler handler, ImportMetrics metrics) throws IOException {
+		final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<byte[]>(queueCapacity);
+		final BlockingQueue<List<Autorisation>> parsed = new ArrayBlockingQueue<List<Autorisation>>(queueCapacity);
+		final StageMetrics readMetrics = metrics.stage(READ);
+		final StageMetrics parseMetrics = metrics.stage(PARSE);
+		StageMetrics writeMetrics = metrics.stage(WRITE);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("autorisation-pipeline-%d").build());
+		try {
+			executor.execute(new Stage() {
+				@Override
+				void process() throws Exception {
+					read(file, blocks, readMetrics);
+				}
+			});
+			executor.execute(new Stage() {
+				@Override
+				void process() throws Exception {
+					parse(blocks, validFrom, parsed, parseMetrics);
+				}
+			});
+
+			List<Autorisation> batch;
+			while ((batch = take(parsed)) != END_OF_BATCHES) {
+				long start = System.nanoTime();
+				for (Autorisation autorisation : batch) {
+					handler.handle(autorisation);
+				}
+				writeMetrics.batchHandled(batch.size(), 0, System.nanoTime() - start, parsed.size());
+			}
+		} finally {
+			// stops the stages if the handler failed
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads the file in blocks that end on a line boundary, so each block can be parsed on its own.
+	 */
+	private void read(File file, BlockingQueue<byte[]> blocks, StageMetrics metrics) throws IOException, InterruptedException {
+		ReadableByteChannel input = RegisterInput.open(file);
+		try {
+			byte[] buffer = new byte[blockBytes];
+			int length = 0;
+			while (true) {
+				long start = System.nanoTime();
+				int read = fill(input, buffer, length);
+				length += Math.max(read, 0);
+				boolean endOfInput = read < 0;
+				int end = endOfInput ? length : blockEnd(buffer, length);
+				if (end == 0 && !endOfInput) {
+					// a line longer than the block
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+					continue;
+				}
+				byte[] block = Arrays.copyOf(buffer, end);
+				System.arraycopy(buffer, end, buffer, 0, length - end);
+				length -= end;
+				metrics.batchHandled(0, block.length, System.nanoTime() - start, 0);
+				if (block.length > 0) {
+					blocks.put(block);
+				}
+				if (endOfInput) {
+					blocks.put(END_OF_BLOCKS);
+					return;
+				}
+			}
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	private void parse(BlockingQueue<byte[]> blocks, Date validFrom, BlockingQueue<List<Autorisation>> parsed, StageMetrics metrics) throws IOException, InterruptedException {
+		// the blocks are parsed in file order, so the lines of the blocks before give the line numbers in the file
+		int linesBefore = 0;
+		byte[] block;
+		while ((block = take(blocks)) != END_OF_BLOCKS) {
+			int queueDepth = blocks.size();
+			long start = System.nanoTime();
+			List<Autorisation> batch = new ArrayList<Autorisation>();
+			AutorisationLineReader reader = new AutorisationLineReader(Channels.newChannel(new ByteArrayInputStream(block)), AutorisationParser.FILE_CHARSET, block.length + 1);
+			while (reader.next()) {
+				if (reader.fieldCount() < AutorisationParser.FIELDS_PER_LINE) {
+					throw AutorisationParser.fieldCountError(reader.line(), linesBefore + reader.lineNumber(), reader.fieldCount());
+				}
+				batch.add(AutorisationParser.toAutorisation(reader, validFrom));
+			}
+			linesBefore += reader.lineNumber();
+			metrics.batchHandled(batch.size(), block.length, System.nanoTime() - start, queueDepth);
+			parsed.put(batch);
+		}
+		parsed.put(END_OF_BATCHES);
+	}
+
+	/**
+	 * @return the length of the whole lines at the start of the buffer, not counting a '\r' at the very end whose
+	 * '\n' may still be unread
+	 */
+	static int blockEnd(byte[] buffer, int length) {
+		if (length > 0 && buffer[length - 1] == '\n') {
+			return length;
+		}
+		for (int i = length - 2; i >= 0; i--) {
+			if (buffer[i] == '\n') {
+				return i + 1;
+			}
+			if (buffer[i] == '\r') {
+				return buffer[i + 1] == '\n' ? i + 2 : i + 1;
+			}
+		}
+		return 0;
+	}
+
+	private static int fill(ReadableByteChannel input, byte[] buffer, int length) throws IOException {
+		ByteBuffer target = ByteBuffer.wrap(buffer, length, buffer.length - length);
+		int total = 0;
+		while (target.hasRemaining()) {
+			int read = input.read(target);
+			if (read < 0) {
+				return total > 0 ? total : -1;
+			}
+			total += read;
+		}
+		return total;
+	}
+
+	private <T> T take(BlockingQueue<T> queue) throws IOException {
+		try {
+			T item;
+			while ((item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+				rethrowFailure();
+			}
+			return item;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the pipeline", e);
+		}
+	}
+
+	private void rethrowFailure() throws IOException {
+		Throwable cause = failure.get();
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof IOException) {
+			throw (IOException) cause;
+		}
+		if (cause != null) {
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * A stage running on its own thread. The first failure of any stage is reported by the calling thread.
+	 */
+	private abstract class Stage implements Runnable {
+		abstract void process() throws Exception;
+
+		@Override
+		public final void run() {
+			try {
+				process();
+			} catch (InterruptedException e) {
+				// the pipeline was shut down
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+			}
+		}
+	}
+}
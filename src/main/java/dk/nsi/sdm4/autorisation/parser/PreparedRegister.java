@@ -0,0 +1,62 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import org.joda.time.DateTime;
+
+import dk.nsi.sdm4.autorisation.model.CompactRegister;
+
+/**
+ * A register file that was validated, fingerprinted and parsed by the {@link InputWatcher} when it arrived, so an
+ * import of it only has the database work left.
+ */
+class PreparedRegister {
+	private final DateTime version;
+	private final RegisterFingerprint fingerprint;
+	private final CompactRegister register;
+
+	PreparedRegister(DateTime version, RegisterFingerprint fingerprint, CompactRegister register) {
+		this.version = version;
+		this.fingerprint = fingerprint;
+		this.register = register;
+	}
+
+	DateTime getVersion() {
+		return version;
+	}
+
+	RegisterFingerprint getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * @return null if the import mode reads the file itself
+	 */
+	CompactRegister getRegister() {
+		return register;
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * The fingerprint of a register file, used to recognise a file that has been imported before.
+ * <p>
+ * The content hash is the SHA-256 of the bytes in the file as delivered, i.e. before it is decompressed. The record digest is the SHA-256 of the fields of the
+ * records in file order, so it does not change when only line endings or separators do.
+ */
+public class RegisterFingerprint {
+	private static final String ALGORITHM = "SHA-256";
+	private static final Charset DIGEST_CHARSET = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final String contentHash;
+	private final String recordDigest;
+	private final int records;
+
+	public RegisterFingerprint(String contentHash, String recordDigest, int records) {
+		this.contentHash = contentHash;
+		this.recordDigest = recordDigest;
+		this.records = records;
+	}
+
+	/**
+	 * Reads the file once and computes both digests and the number of records.
+	 */
+	public static RegisterFingerprint of(File file) throws IOException {
+		return of(file, null);
+	}
+
+	/**
+	 * Like {@link #of(File)}, and hands each line to the validator in the same pass.
+	 */
+	static RegisterFingerprint of(File file, RegisterValidator validator) throws IOException {
+		MessageDigest content = newDigest();
+		MessageDigest record = newDigest();
+
+		DigestInputStream raw = new DigestInputStream(new FileInputStream(file), content);
+		InputStream input = raw;
+		try {
+			input = RegisterInput.decode(raw, RegisterInput.compressionOf(file), file);
+			AutorisationLineReader reader = new AutorisationLineReader(Channels.newChannel(input), AutorisationParser.FILE_CHARSET);
+			while (reader.next()) {
+				if (validator != null) {
+					validator.check(reader);
+				}
+				for (int i = 0; i < reader.fieldCount(); i++) {
+					if (i > 0) {
+						record.update((byte) ';');
+					}
+					record.update(reader.field(i).getBytes(DIGEST_CHARSET));
+				}
+				record.update((byte) '\n');
+			}
+			// the rest of a compressed file, e.g. the central directory of a zip, is part of the content too
+			IOUtils.copy(raw, new NullOutputStream());
+			return new RegisterFingerprint(hex(content.digest()), hex(record.digest()), reader.lineNumber());
+		} finally {
+			IOUtils.closeQuietly(input);
+			IOUtils.closeQuietly(raw);
+		}
+	}
+
+	/**
+	 * @return the content hash of the file, without decoding it
+	 */
+	static String contentHash(File file) throws IOException {
+		MessageDigest content = newDigest();
+		InputStream input = new DigestInputStream(new FileInputStream(file), content);
+		try {
+			IOUtils.copy(input, new NullOutputStream());
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+		return hex(content.digest());
+	}
+
+	public String getContentHash() {
+		return contentHash;
+	}
+
+	public String getRecordDigest() {
+		return recordDigest;
+	}
+
+	public int getRecords() {
+		return records;
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(ALGORITHM + " is required by the JRE", e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		char[] result = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			result[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+			result[2 * i + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(result);
+	}
+
+	@Override
+	public String toString() {
+		return "records=" + records + ", contentHash=" + contentHash + ", recordDigest=" + recordDigest;
+	}
+}
@@ -0,0 +1,212 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+import dk.nsi.sdm4.core.parser.ParserException;
+
+/**
+ * Opens a register file the way it was delivered: uncompressed, gzip, zip or zstd.
+ * <p>
+ * The compression is recognised by the magic bytes at the start of the file, not by its name, and the register is
+ * decoded as a stream while it is parsed, so a compressed delivery never has to be unpacked in the spool directory.
+ * A zip file is read from its first file entry.
+ */
+class RegisterInput {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int DATE_LENGTH = 8;
+
+	enum Compression {
+		NONE, GZIP, ZIP, ZSTD;
+
+		static Compression of(byte[] magic, int length) {
+			if (length >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B) {
+				return GZIP;
+			}
+			if (length >= 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4) {
+				return ZIP;
+			}
+			if (length >= 4 && (magic[0] & 0xFF) == 0x28 && (magic[1] & 0xFF) == 0xB5 && (magic[2] & 0xFF) == 0x2F && (magic[3] & 0xFF) == 0xFD) {
+				return ZSTD;
+			}
+			return NONE;
+		}
+	}
+
+	private RegisterInput() {
+	}
+
+	static Compression compressionOf(File file) throws IOException {
+		byte[] magic = new byte[4];
+		FileInputStream input = new FileInputStream(file);
+		try {
+			return Compression.of(magic, IOUtils.read(input, magic));
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	/**
+	 * @return a channel with the decoded register. An uncompressed file is read through its FileChannel.
+	 */
+	static ReadableByteChannel open(File file) throws IOException {
+		return open(file, 0);
+	}
+
+	/**
+	 * @param offset the number of bytes of the decoded register to skip, e.g. to resume from a checkpoint
+	 */
+	static ReadableByteChannel open(File file, long offset) throws IOException {
+		Compression compression = compressionOf(file);
+		FileInputStream input = new FileInputStream(file);
+		try {
+			if (compression == Compression.NONE) {
+				return input.getChannel().position(offset);
+			}
+			InputStream decoded = decode(input, compression, file);
+			IOUtils.skipFully(decoded, offset);
+			return Channels.newChannel(decoded);
+		} catch (IOException e) {
+			IOUtils.closeQuietly(input);
+			throw e;
+		}
+	}
+
+	/**
+	 * @param raw the bytes of the file as delivered
+	 * @return the decoded register, which closes {@code raw} when it is closed
+	 */
+	static InputStream decode(InputStream raw, Compression compression, File file) throws IOException {
+		switch (compression) {
+			case GZIP:
+				return new GZIPInputStream(raw, BUFFER_SIZE);
+			case ZIP:
+				ZipInputStream zip = new ZipInputStream(new BufferedInputStream(raw, BUFFER_SIZE));
+				if (nextFileEntry(zip) == null) {
+					throw new ParserException("Zip file " + file.getAbsolutePath() + " does not contain a register");
+				}
+				return zip;
+			case ZSTD:
+				return new ZstdInputStream(new BufferedInputStream(raw, BUFFER_SIZE));
+			default:
+				return raw;
+		}
+	}
+
+	/**
+	 * @return the name the version of the register is read from: the name of the file if it starts with a date,
+	 * and otherwise the name of the register inside it (the zip entry, or the original name in the gzip header).
+	 */
+	static String registerName(File file) throws IOException {
+		String name = file.getName();
+		if (startsWithDate(name)) {
+			return name;
+		}
+
+		String innerName = null;
+		switch (compressionOf(file)) {
+			case ZIP:
+				innerName = zipEntryName(file);
+				break;
+			case GZIP:
+				innerName = gzipOriginalName(file);
+				break;
+			default:
+				break;
+		}
+		return innerName != null ? innerName : name;
+	}
+
+	private static boolean startsWithDate(String name) {
+		if (name.length() < DATE_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < DATE_LENGTH; i++) {
+			if (!Character.isDigit(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static ZipEntry nextFileEntry(ZipInputStream zip) throws IOException {
+		ZipEntry entry = zip.getNextEntry();
+		while (entry != null && entry.isDirectory()) {
+			entry = zip.getNextEntry();
+		}
+		return entry;
+	}
+
+	private static String zipEntryName(File file) throws IOException {
+		ZipInputStream zip = new ZipInputStream(new FileInputStream(file));
+		try {
+			ZipEntry entry = nextFileEntry(zip);
+			return entry != null ? new File(entry.getName()).getName() : null;
+		} finally {
+			IOUtils.closeQuietly(zip);
+		}
+	}
+
+	private static String gzipOriginalName(File file) throws IOException {
+		// RFC 1952: ID1 ID2 CM FLG MTIME(4) XFL OS [XLEN EXTRA] [zero-terminated FNAME]
+		final int fextra = 0x04;
+		final int fname = 0x08;
+		InputStream input = new BufferedInputStream(new FileInputStream(file));
+		try {
+			byte[] header = new byte[10];
+			if (IOUtils.read(input, header) < header.length || (header[3] & fname) == 0) {
+				return null;
+			}
+			if ((header[3] & fextra) != 0) {
+				int extraLength = input.read() | input.read() << 8;
+				IOUtils.skipFully(input, extraLength);
+			}
+			StringBuilder originalName = new StringBuilder();
+			for (int b = input.read(); b > 0; b = input.read()) {
+				// the name is ISO 8859-1, so each byte is its own char
+				originalName.append((char) b);
+			}
+			return originalName.length() > 0 ? new File(originalName.toString()).getName() : null;
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.nsi.sdm4.autorisation.model.CompactRegister;
+import dk.nsi.sdm4.core.parser.ParserException;
+
+/**
+ * Checks the lines of a register against the columns of the Autorisation table before anything is written, so a bad
+ * file is rejected without a write phase and a rollback.
+ * <p>
+ * Every line is checked, and all the violations are reported together with their line numbers, so one delivery is
+ * enough to see what is wrong with a file.
+ */
+class RegisterValidator {
+	/** Fornavn and Efternavn are VARCHAR(100) */
+	static final int NAME_LENGTH = 100;
+	/** The violations kept for the report, the rest are only counted */
+	static final int MAX_REPORTED = 1000;
+
+	private final LongHashSet numre = new LongHashSet();
+	private final List<String> violations = new ArrayList<String>();
+	private int violationCount;
+
+	void check(AutorisationLineReader reader) {
+		if (reader.fieldCount() < AutorisationParser.FIELDS_PER_LINE) {
+			violation(reader, "has " + reader.fieldCount() + " fields, expected " + AutorisationParser.FIELDS_PER_LINE);
+			return;
+		}
+		checkNummer(reader, reader.field(0));
+		checkCpr(reader, reader.field(1));
+		checkName(reader, "Efternavn", reader.field(2));
+		checkName(reader, "Fornavn", reader.field(3));
+		checkUddannelsesKode(reader, reader.field(4));
+	}
+
+	private void checkNummer(AutorisationLineReader reader, String nummer) {
+		if (nummer.isEmpty() || nummer.length() > CompactRegister.MAX_NUMMER_LENGTH) {
+			violation(reader, "Autorisationsnummer '" + nummer + "' does not have 1 to " + CompactRegister.MAX_NUMMER_LENGTH + " characters");
+			return;
+		}
+		try {
+			if (!numre.add(CompactRegister.packNummer(nummer))) {
+				violation(reader, "Autorisationsnummer " + nummer + " occurs more than once");
+			}
+		} catch (IllegalArgumentException e) {
+			violation(reader, e.getMessage());
+		}
+	}
+
+	private void checkCpr(AutorisationLineReader reader, String cpr) {
+		try {
+			CompactRegister.parseCpr(cpr);
+		} catch (IllegalArgumentException e) {
+			violation(reader, e.getMessage());
+		}
+	}
+
+	private void checkName(AutorisationLineReader reader, String column, String name) {
+		if (name.length() > NAME_LENGTH) {
+			violation(reader, column + " is longer than " + NAME_LENGTH + " characters");
+		}
+	}
+
+	private void checkUddannelsesKode(AutorisationLineReader reader, String uddannelsesKode) {
+		try {
+			CompactRegister.parseUddannelsesKode(uddannelsesKode);
+		} catch (NumberFormatException e) {
+			violation(reader, "UddannelsesKode '" + uddannelsesKode + "' is not a number");
+		} catch (IllegalArgumentException e) {
+			violation(reader, e.getMessage());
+		}
+	}
+
+	private void violation(AutorisationLineReader reader, String message) {
+		violationCount++;
+		if (violations.size() < MAX_REPORTED) {
+			violations.add("line " + reader.lineNumber() + ": " + message);
+		}
+	}
+
+	/**
+	 * @return the reported violations, "line n: message", in file order
+	 */
+	List<String> getViolations() {
+		return violations;
+	}
+
+	int getViolationCount() {
+		return violationCount;
+	}
+
+	void throwIfInvalid(String fileName) {
+		if (violationCount == 0) {
+			return;
+		}
+		StringBuilder report = new StringBuilder();
+		report.append(fileName).append(" has ").append(violationCount).append(" invalid value(s)");
+		for (String violation : violations) {
+			report.append("\n  ").append(violation);
+		}
+		if (violationCount > violations.size()) {
+			report.append("\n  ... and ").append(violationCount - violations.size()).append(" more");
+		}
+		throw new ParserException(report.toString());
+	}
+}
@@ -0,0 +1,238 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+
+import com.google.common.base.Joiner;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+import dk.nsi.sdm4.core.util.Dates;
+
+/**
+ * Keeps the pending writes of an {@link AutorisationWriter} and writes them as JDBC batches of multi-row statements.
+ * <p>
+ * Rows are inserted {@value #ROWS_PER_STATEMENT} at a time with INSERT ... VALUES (...), (...), and rows are closed or
+ * touched with UPDATE ... WHERE AutorisationPID IN (...), so the number of statements sent does not depend on
+ * rewriteBatchedStatements being set on the datasource. The columns are bound by position, without reflection.
+ */
+abstract class AbstractAutorisationWriter implements AutorisationWriter {
+	static final int ROWS_PER_STATEMENT = 100;
+
+	private static final String INSERT_SQL_PREFIX = "INSERT INTO Autorisation (Autorisationsnummer, CPR, Fornavn, Efternavn, UddannelsesKode, " +
+			"CreatedDate, ModifiedDate, ValidFrom, ValidTo) VALUES ";
+	private static final String INSERT_SQL_ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	private static final String CLOSE_SQL_PREFIX = "UPDATE Autorisation SET ValidTo = ?, ModifiedDate = ? WHERE AutorisationPID IN ";
+	private static final String TOUCH_SQL_PREFIX = "UPDATE Autorisation SET ModifiedDate = ? WHERE AutorisationPID IN ";
+
+	private static final String FULL_INSERT_SQL = insertSql(ROWS_PER_STATEMENT);
+	private static final String FULL_CLOSE_SQL = CLOSE_SQL_PREFIX + pidList(ROWS_PER_STATEMENT);
+	private static final String FULL_TOUCH_SQL = TOUCH_SQL_PREFIX + pidList(ROWS_PER_STATEMENT);
+
+	private static final Timestamp THE_END_OF_TIME = new Timestamp(Dates.THE_END_OF_TIME.getTime());
+
+	protected final JdbcTemplate jdbcTemplate;
+	protected final Timestamp validFrom;
+	protected final Timestamp transactionTime;
+
+	private final List<Autorisation> pendingInserts = new ArrayList<Autorisation>();
+	private final PidList pendingCloses = new PidList();
+	private final PidList pendingTouches = new PidList();
+	private int insertedRows = 0;
+	private int closedRows = 0;
+
+	protected AbstractAutorisationWriter(JdbcTemplate jdbcTemplate, Date validFrom) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.validFrom = new Timestamp(validFrom.getTime());
+		// ModifiedDate is a DATETIME, so keep the transaction time in whole seconds to be able to compare with it
+		this.transactionTime = new Timestamp(System.currentTimeMillis() / 1000 * 1000);
+	}
+
+	/**
+	 * Adds a new row for the autorisation, valid from the version of the register.
+	 */
+	protected void insert(Autorisation autorisation) {
+		pendingInserts.add(autorisation);
+	}
+
+	/**
+	 * Ends the validity of a current row at the version of the register.
+	 */
+	protected void close(long autorisationPID) {
+		pendingCloses.add(autorisationPID);
+	}
+
+	/**
+	 * Sets ModifiedDate of a current row to the transaction time without changing its data.
+	 */
+	protected void touch(long autorisationPID) {
+		pendingTouches.add(autorisationPID);
+	}
+
+	@Override
+	public int getInsertedRows() {
+		return insertedRows;
+	}
+
+	@Override
+	public int getClosedRows() {
+		return closedRows;
+	}
+
+	protected int pendingCount() {
+		return pendingInserts.size() + pendingCloses.size + pendingTouches.size;
+	}
+
+	protected void writePending() {
+		insertedRows += pendingInserts.size();
+		closedRows += pendingCloses.size;
+
+		// close before inserting, so there is never more than one valid row for an Autorisationsnummer
+		writePids(pendingCloses, CLOSE_SQL_PREFIX, FULL_CLOSE_SQL, validFrom, transactionTime);
+		writePids(pendingTouches, TOUCH_SQL_PREFIX, FULL_TOUCH_SQL, transactionTime);
+		writeInserts();
+	}
+
+	private void writeInserts() {
+		final int fullStatements = pendingInserts.size() / ROWS_PER_STATEMENT;
+		if (fullStatements > 0) {
+			jdbcTemplate.batchUpdate(FULL_INSERT_SQL, new BatchPreparedStatementSetter() {
+				@Override
+				public void setValues(PreparedStatement ps, int i) throws SQLException {
+					bindInserts(ps, i * ROWS_PER_STATEMENT, ROWS_PER_STATEMENT);
+				}
+
+				@Override
+				public int getBatchSize() {
+					return fullStatements;
+				}
+			});
+		}
+
+		final int remaining = pendingInserts.size() % ROWS_PER_STATEMENT;
+		if (remaining > 0) {
+			jdbcTemplate.update(insertSql(remaining), new PreparedStatementSetter() {
+				@Override
+				public void setValues(PreparedStatement ps) throws SQLException {
+					bindInserts(ps, fullStatements * ROWS_PER_STATEMENT, remaining);
+				}
+			});
+		}
+
+		pendingInserts.clear();
+	}
+
+	private void bindInserts(PreparedStatement ps, int from, int count) throws SQLException {
+		int index = 1;
+		for (int i = from; i < from + count; i++) {
+			Autorisation autorisation = pendingInserts.get(i);
+			ps.setString(index++, autorisation.getAutorisationsnummer());
+			ps.setString(index++, autorisation.getCpr());
+			ps.setString(index++, autorisation.getFornavn());
+			ps.setString(index++, autorisation.getEfternavn());
+			ps.setString(index++, autorisation.getUddannelsesKode());
+			ps.setTimestamp(index++, transactionTime);
+			ps.setTimestamp(index++, transactionTime);
+			ps.setTimestamp(index++, validFrom);
+			ps.setTimestamp(index++, THE_END_OF_TIME);
+		}
+	}
+
+	private void writePids(final PidList pids, String sqlPrefix, String fullSql, final Timestamp... values) {
+		final int fullStatements = pids.size / ROWS_PER_STATEMENT;
+		if (fullStatements > 0) {
+			jdbcTemplate.batchUpdate(fullSql, new BatchPreparedStatementSetter() {
+				@Override
+				public void setValues(PreparedStatement ps, int i) throws SQLException {
+					bindPids(ps, values, pids, i * ROWS_PER_STATEMENT, ROWS_PER_STATEMENT);
+				}
+
+				@Override
+				public int getBatchSize() {
+					return fullStatements;
+				}
+			});
+		}
+
+		final int remaining = pids.size % ROWS_PER_STATEMENT;
+		if (remaining > 0) {
+			jdbcTemplate.update(sqlPrefix + pidList(remaining), new PreparedStatementSetter() {
+				@Override
+				public void setValues(PreparedStatement ps) throws SQLException {
+					bindPids(ps, values, pids, fullStatements * ROWS_PER_STATEMENT, remaining);
+				}
+			});
+		}
+
+		pids.clear();
+	}
+
+	private static void bindPids(PreparedStatement ps, Timestamp[] values, PidList pids, int from, int count) throws SQLException {
+		int index = 1;
+		for (Timestamp value : values) {
+			ps.setTimestamp(index++, value);
+		}
+		for (int i = from; i < from + count; i++) {
+			ps.setLong(index++, pids.pids[i]);
+		}
+	}
+
+	private static String insertSql(int rows) {
+		return INSERT_SQL_PREFIX + Joiner.on(", ").join(Collections.nCopies(rows, INSERT_SQL_ROW));
+	}
+
+	static String pidList(int pids) {
+		return "(" + Joiner.on(", ").join(Collections.nCopies(pids, "?")) + ")";
+	}
+
+	private static class PidList {
+		long[] pids = new long[ROWS_PER_STATEMENT];
+		int size = 0;
+
+		void add(long pid) {
+			if (size == pids.length) {
+				pids = Arrays.copyOf(pids, size * 2);
+			}
+			pids[size++] = pid;
+		}
+
+		void clear() {
+			size = 0;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.util.Date;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Moves the rows of Autorisation that were closed longer ago than spooler.autorisationimporter.archive.horizon.days
+ * into AutorisationHistory, so the Autorisation table holds the valid rows and the recent history only and the
+ * queries on the valid rows do not get slower with every import.
+ * <p>
+ * The rows keep their AutorisationPID. A horizon of 0 days turns archiving off.
+ */
+public class AutorisationArchiver {
+	private static final Log log = LogFactory.getLog(AutorisationArchiver.class);
+	static final String TABLE = "AutorisationHistory";
+	static final String COLUMNS = "AutorisationPID, Autorisationsnummer, CPR, Fornavn, Efternavn, UddannelsesKode, " +
+			"CreatedDate, ModifiedDate, ValidFrom, ValidTo";
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Value("${spooler.autorisationimporter.archive.horizon.days}")
+	private int horizonDays;
+
+	public boolean isEnabled() {
+		return horizonDays > 0;
+	}
+
+	/**
+	 * Archives the rows closed before the horizon, counted back from the version that was just imported.
+	 *
+	 * @return the number of archived rows
+	 */
+	public int archive(DateTime version) {
+		if (!isEnabled()) {
+			return 0;
+		}
+		Date closedBefore = version.minusDays(horizonDays).toDate();
+		// both statements run in the import's transaction, so the rows are either in one table or the other
+		int archived = jdbcTemplate.update("INSERT INTO " + TABLE + " (" + COLUMNS + ") SELECT " + COLUMNS +
+				" FROM Autorisation WHERE ValidTo < ?", closedBefore);
+		int deleted = jdbcTemplate.update("DELETE FROM Autorisation WHERE ValidTo < ?", closedBefore);
+		if (deleted != archived) {
+			throw new IllegalStateException("Archived " + archived + " rows closed before " + closedBefore + ", but deleted " + deleted);
+		}
+		if (archived > 0) {
+			log.info("Archived " + archived + " autorisationer closed before " + closedBefore + " to " + TABLE);
+		}
+		return archived;
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.sql.SQLException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+import dk.nsi.sdm4.autorisation.model.CompactRegister;
+import dk.nsi.sdm4.autorisation.parser.Autorisationsregisterudtraek;
+import dk.nsi.sdm4.core.domain.CompleteDataset;
+import dk.nsi.sdm4.core.domain.TemporalEntity;
+import dk.nsi.sdm4.core.persistence.AuditingPersister;
+
+/**
+ * A {@link dk.nsi.sdm4.core.persistence.Persister} that writes autorisationer with the batched multi-row statements of
+ * {@link StreamingAutorisationWriter} instead of reflectively through the entity annotations.
+ * The result in the database is the same as with {@link AuditingPersister}, which is still used for any other kind of dataset.
+ */
+public class AutorisationBatchPersister extends AuditingPersister implements CompactRegisterPersister {
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Value("${spooler.autorisationimporter.chunk.size}")
+	private int batchSize;
+
+	@Override
+	public void persistCompleteDataset(CompleteDataset<? extends TemporalEntity>... datasets) throws SQLException {
+		for (CompleteDataset<? extends TemporalEntity> dataset : datasets) {
+			if (dataset instanceof Autorisationsregisterudtraek) {
+				persistAutorisationer((Autorisationsregisterudtraek) dataset);
+			} else {
+				super.persistCompleteDataset(dataset);
+			}
+		}
+	}
+
+	private void persistAutorisationer(Autorisationsregisterudtraek dataset) {
+		StreamingAutorisationWriter writer = new StreamingAutorisationWriter(jdbcTemplate, dataset.getVersion(), batchSize);
+		for (Autorisation autorisation : dataset.getEntities()) {
+			writer.handle(autorisation);
+		}
+		writer.finish();
+	}
+
+	@Override
+	public void persistRegister(CompactRegister register) {
+		// the writer only keeps the Autorisation objects of the current chunk
+		StreamingAutorisationWriter writer = new StreamingAutorisationWriter(jdbcTemplate, register.getValidFrom(), batchSize);
+		for (int row = 0; row < register.size(); row++) {
+			writer.handle(register.toAutorisation(row));
+		}
+		writer.finish();
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import dk.nsi.sdm4.autorisation.parser.AutorisationHandler;
+
+/**
+ * Writes one complete register, handed over one autorisation at a time, to the Autorisation table.
+ * A writer handles exactly one register file and must not be reused.
+ */
+public interface AutorisationWriter extends AutorisationHandler {
+	/**
+	 * Writes whatever is still pending and closes the rows of the autorisationer that were not in the register.
+	 * @return the number of autorisationer handled
+	 */
+	int finish();
+
+	/**
+	 * @return the number of rows inserted into the Autorisation table so far
+	 */
+	int getInsertedRows();
+
+	/**
+	 * @return the number of current rows whose validity has been ended so far
+	 */
+	int getClosedRows();
+}
@@ -0,0 +1,68 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The net changes to the valid autorisationer made by one or more {@link DeltaAutorisationWriter}s, which is what
+ * {@link AutregUpdater#update(AutregChanges)} applies to autreg.
+ * <p>
+ * A row that is inserted and closed again within the same run, e.g. by two versions in a catch-up, never reaches
+ * autreg, so only the rows valid before the run are removed and only the rows valid after it are added.
+ */
+public class AutregChanges {
+	private final Map<String, CurrentAutorisation> removed = new LinkedHashMap<String, CurrentAutorisation>();
+	private final Map<String, CurrentAutorisation> added = new LinkedHashMap<String, CurrentAutorisation>();
+
+	void closed(CurrentAutorisation row) {
+		if (added.remove(row.autorisationsnummer) == null) {
+			removed.put(row.autorisationsnummer, row);
+		}
+	}
+
+	void inserted(CurrentAutorisation row) {
+		added.put(row.autorisationsnummer, row);
+	}
+
+	Collection<CurrentAutorisation> getRemoved() {
+		return removed.values();
+	}
+
+	Collection<CurrentAutorisation> getAdded() {
+		return added.values();
+	}
+
+	/**
+	 * @return the number of autreg rows the changes delete or insert
+	 */
+	public int size() {
+		return removed.size() + added.size();
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import dk.nsi.sdm4.autorisation.parser.AutorisationParser;
+
+/**
+ * Maintains the autreg table, which holds the currently valid autorisationer for the STS.
+ * <p>
+ * A rebuild deletes and inserts all rows with DML in the import's transaction. It does not use TRUNCATE or a swap
+ * with RENAME TABLE, as MySQL commits the open transaction before any DDL statement, which would make the rows written
+ * so far permanent even if the import fails later. Until the import commits, the STS keeps reading the previous
+ * contents of autreg, so it never sees an empty or half-filled table.
+ * <p>
+ * With spooler.autorisationimporter.autreg.incremental a delta import does not rebuild autreg, but {@link #update(AutregChanges)}
+ * deletes and inserts only the rows of the autorisationer that changed, in the import's transaction. Every
+ * spooler.autorisationimporter.autreg.reconcile.interval updates, {@link #reconcile()} compares autreg with the
+ * valid autorisationer and rebuilds it if they have drifted apart.
+ */
+public class AutregUpdater {
+	private static final Log log = LogFactory.getLog(AutregUpdater.class);
+	static final String TABLE = "autreg";
+	static final int ROWS_PER_BATCH = 1000;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Value("${spooler.autorisationimporter.autreg.incremental}")
+	private boolean incremental;
+
+	@Value("${spooler.autorisationimporter.autreg.reconcile.interval}")
+	private int reconcileInterval;
+
+	private int updatesSinceReconcile = 0;
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * @return the number of rows in the new autreg, which is the number of valid autorisationer
+	 */
+	public int rebuild() {
+		// not TRUNCATE, which would commit the import's transaction
+		jdbcTemplate.update("DELETE FROM " + TABLE);
+		return jdbcTemplate.update("INSERT INTO " + TABLE + " (cpr, given_name, surname, aut_id, edu_id) " +
+				"SELECT cpr, Fornavn, Efternavn, Autorisationsnummer, UddannelsesKode " + AutorisationParser.FROMCLAUSE_VALID_AUTORISATIONER);
+	}
+
+	/**
+	 * Deletes the autreg rows of the autorisationer that were closed and inserts the rows of those that were inserted.
+	 *
+	 * @return the number of autreg rows that were deleted or inserted, including the rows of a rebuild if a reconcile found drift
+	 */
+	public int update(AutregChanges changes) {
+		List<Object[]> deletes = new ArrayList<Object[]>(changes.getRemoved().size());
+		for (CurrentAutorisation row : changes.getRemoved()) {
+			deletes.add(new Object[] {row.cpr, row.autorisationsnummer});
+		}
+		List<Object[]> inserts = new ArrayList<Object[]>(changes.getAdded().size());
+		for (CurrentAutorisation row : changes.getAdded()) {
+			inserts.add(new Object[] {row.cpr, row.fornavn, row.efternavn, row.autorisationsnummer, String.valueOf(row.uddannelsesKode)});
+		}
+
+		int touched = batchUpdate("DELETE FROM " + TABLE + " WHERE cpr = ? AND aut_id = ?", deletes)
+				+ batchUpdate("INSERT INTO " + TABLE + " (cpr, given_name, surname, aut_id, edu_id) VALUES (?, ?, ?, ?, ?)", inserts);
+
+		updatesSinceReconcile++;
+		if (reconcileInterval > 0 && updatesSinceReconcile >= reconcileInterval) {
+			touched += reconcile();
+		}
+		return touched;
+	}
+
+	/**
+	 * Compares autreg with the valid autorisationer and rebuilds it if a row is missing, stale or duplicated.
+	 *
+	 * @return the number of rows rebuilt, 0 if autreg was in sync
+	 */
+	public int reconcile() {
+		updatesSinceReconcile = 0;
+		// FROMCLAUSE_VALID_AUTORISATIONER ends with a semicolon, so the predicate is repeated in the join
+		int stale = jdbcTemplate.queryForInt("SELECT COUNT(*) FROM " + TABLE + " a LEFT JOIN Autorisation au " +
+				"ON au.Autorisationsnummer = a.aut_id AND au.CPR = a.cpr AND au.Fornavn = a.given_name AND au.Efternavn = a.surname " +
+				"AND au.UddannelsesKode = a.edu_id AND au.ValidFrom <= NOW() AND au.ValidTo > NOW() " +
+				"WHERE au.AutorisationPID IS NULL");
+		int rows = jdbcTemplate.queryForInt("SELECT COUNT(*) FROM " + TABLE);
+		int valid = jdbcTemplate.queryForInt("SELECT COUNT(AutorisationPID) " + AutorisationParser.FROMCLAUSE_VALID_AUTORISATIONER);
+		int missing = valid - (rows - stale);
+		if (stale == 0 && missing == 0) {
+			return 0;
+		}
+		log.warn("autreg has drifted from Autorisation: it has " + rows + " rows, " + stale + " of them stale, for " + valid
+				+ " valid autorisationer. Rebuilding autreg");
+		return rebuild();
+	}
+
+	private int batchUpdate(String sql, List<Object[]> args) {
+		int rows = 0;
+		for (int from = 0; from < args.size(); from += ROWS_PER_BATCH) {
+			for (int count : jdbcTemplate.batchUpdate(sql, args.subList(from, Math.min(from + ROWS_PER_BATCH, args.size())))) {
+				// a driver that rewrites the batch does not report the rows of each statement
+				rows += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+			}
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import dk.nsi.sdm4.core.util.Dates;
+
+/**
+ * Writes a register to the Autorisation table with set-based SQL instead of row by row.
+ * <p>
+ * {@link #load(InputStream)} streams the register into autorisationimporterBulk with LOAD DATA LOCAL INFILE, and
+ * {@link #merge()} closes the valid rows that are no longer in the register or whose data changed, and inserts a new
+ * row for every autorisation that has no valid row, like {@link DeltaAutorisationWriter} does. Both run in the
+ * caller's transaction, so the staged rows are never seen by others. {@link ParallelAutorisationWriter} stages the
+ * rows itself and only uses {@link #merge()}.
+ * <p>
+ * LOAD DATA LOCAL INFILE needs local_infile=1 on the MySQL server and allowLoadLocalInfile=true on the connection URL of
+ * the datasource. The driver belongs to the container, so it is reached by reflection, through the module dependency in
+ * jboss-deployment-structure.xml; without it {@link #load(InputStream)} fails with an explanation rather than a
+ * NoClassDefFoundError.
+ */
+public class BulkAutorisationLoader {
+	static final String BULK_TABLE = "autorisationimporterBulk";
+	private static final String BULK_COLUMNS = "Autorisationsnummer, CPR, Efternavn, Fornavn, UddannelsesKode";
+
+	// the default FIELDS and LINES options: tab separated, newline terminated, special characters escaped with a backslash
+	private static final String LOAD_SQL = "LOAD DATA LOCAL INFILE 'autorisationer.tsv' INTO TABLE " + BULK_TABLE +
+			" CHARACTER SET utf8 (" + BULK_COLUMNS + ")";
+
+	private static final String CLOSE_SQL = "UPDATE Autorisation a LEFT JOIN " + BULK_TABLE + " b ON b.Autorisationsnummer = a.Autorisationsnummer " +
+			"SET a.ValidTo = ?, a.ModifiedDate = ? WHERE a.ValidFrom < ? AND a.ValidTo > ? " +
+			"AND (b.Autorisationsnummer IS NULL OR b.CPR <> a.CPR OR b.Fornavn <> a.Fornavn OR b.Efternavn <> a.Efternavn " +
+			"OR b.UddannelsesKode <> a.UddannelsesKode)";
+
+	private static final String INSERT_SQL = "INSERT INTO Autorisation (Autorisationsnummer, CPR, Fornavn, Efternavn, UddannelsesKode, " +
+			"CreatedDate, ModifiedDate, ValidFrom, ValidTo) " +
+			"SELECT b.Autorisationsnummer, b.CPR, b.Fornavn, b.Efternavn, b.UddannelsesKode, ?, ?, ?, ? FROM " + BULK_TABLE + " b " +
+			"LEFT JOIN Autorisation a ON a.Autorisationsnummer = b.Autorisationsnummer AND a.ValidFrom < ? AND a.ValidTo > ? " +
+			"WHERE a.AutorisationPID IS NULL";
+
+	// the statement interfaces of Connector/J 5.1 and 8
+	private static final String[] DRIVER_STATEMENTS = {"com.mysql.jdbc.Statement", "com.mysql.cj.jdbc.JdbcStatement"};
+
+	private static final Timestamp THE_END_OF_TIME = new Timestamp(Dates.THE_END_OF_TIME.getTime());
+
+	private final JdbcTemplate jdbcTemplate;
+	private final Timestamp validFrom;
+	private final Timestamp transactionTime;
+
+	private int loadedRows = 0;
+	private int insertedRows = 0;
+	private int closedRows = 0;
+
+	public BulkAutorisationLoader(JdbcTemplate jdbcTemplate, Date validFrom) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.validFrom = new Timestamp(validFrom.getTime());
+		// ModifiedDate is a DATETIME, so keep the transaction time in whole seconds like the writers do
+		this.transactionTime = new Timestamp(System.currentTimeMillis() / 1000 * 1000);
+	}
+
+	/**
+	 * Replaces the staged rows with the rows of the stream, which are the columns Autorisationsnummer, CPR, Efternavn,
+	 * Fornavn and UddannelsesKode of the register in the format of LOAD DATA, encoded in UTF-8.
+	 *
+	 * @return the number of loaded rows
+	 */
+	public int load(final InputStream rows) {
+		// not TRUNCATE, which would commit the import's transaction
+		jdbcTemplate.update("DELETE FROM " + BULK_TABLE);
+		loadedRows = jdbcTemplate.execute(new ConnectionCallback<Integer>() {
+			@Override
+			public Integer doInConnection(Connection connection) throws SQLException, DataAccessException {
+				Statement statement = connection.createStatement();
+				try {
+					// the driver reads the rows from the stream instead of from the named file
+					setLocalInfileInputStream(statement, rows);
+					return statement.executeUpdate(LOAD_SQL);
+				} finally {
+					JdbcUtils.closeStatement(statement);
+				}
+			}
+		});
+		return loadedRows;
+	}
+
+	static void setLocalInfileInputStream(Statement statement, InputStream rows) throws SQLException {
+		for (String name : DRIVER_STATEMENTS) {
+			Class<?> driverStatement;
+			try {
+				driverStatement = Class.forName(name, false, BulkAutorisationLoader.class.getClassLoader());
+			} catch (ClassNotFoundException e) {
+				continue;
+			}
+			if (!statement.isWrapperFor(driverStatement)) {
+				continue;
+			}
+			try {
+				driverStatement.getMethod("setLocalInfileInputStream", InputStream.class).invoke(statement.unwrap(driverStatement), rows);
+				return;
+			} catch (InvocationTargetException e) {
+				if (e.getCause() instanceof SQLException) {
+					throw (SQLException) e.getCause();
+				}
+				throw new IllegalStateException("Unable to stream to LOAD DATA LOCAL INFILE", e.getCause());
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("Unable to stream to LOAD DATA LOCAL INFILE with " + name, e);
+			}
+		}
+		throw new IllegalStateException("BULK import needs MySQL Connector/J to stream to LOAD DATA LOCAL INFILE, but the statement is a "
+				+ statement.getClass().getName() + ". Check that the driver's module is a dependency in jboss-deployment-structure.xml");
+	}
+
+	/**
+	 * Makes the loaded rows the valid rows of Autorisation from the version of the register. Rows whose data did not
+	 * change are not touched, so they keep their ModifiedDate.
+	 */
+	public void merge() {
+		// close before inserting, so the changed autorisationer get a new row and there is never more than one valid row.
+		// Both statements lock the staged rows they read, so they also see rows committed by other connections after
+		// this transaction took its snapshot, as the writers of ParallelAutorisationWriter do
+		closedRows = jdbcTemplate.update(CLOSE_SQL, validFrom, transactionTime, validFrom, validFrom);
+		insertedRows = jdbcTemplate.update(INSERT_SQL, transactionTime, transactionTime, validFrom, THE_END_OF_TIME, validFrom, validFrom);
+		jdbcTemplate.update("DELETE FROM " + BULK_TABLE);
+	}
+
+	public int getLoadedRows() {
+		return loadedRows;
+	}
+
+	public int getInsertedRows() {
+		return insertedRows;
+	}
+
+	public int getClosedRows() {
+		return closedRows;
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.util.Date;
+
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * An autorisation that was added, removed or modified by a register version, with its values before and after.
+ */
+public class ChangeEvent {
+	public enum Type {
+		ADDED, REMOVED, MODIFIED
+	}
+
+	private static final DateTimeFormatter VERSION_FORMAT = DateTimeFormat.forPattern("yyyyMMdd");
+
+	private final Date version;
+	private final Type type;
+	private final String autorisationsnummer;
+	private final CurrentAutorisation before;
+	private final CurrentAutorisation after;
+	private final long sequence;
+
+	ChangeEvent(Date version, Type type, String autorisationsnummer, CurrentAutorisation before, CurrentAutorisation after) {
+		this(version, type, autorisationsnummer, before, after, 0);
+	}
+
+	ChangeEvent(Date version, Type type, String autorisationsnummer, CurrentAutorisation before, CurrentAutorisation after, long sequence) {
+		this.version = version;
+		this.type = type;
+		this.autorisationsnummer = autorisationsnummer;
+		this.before = before;
+		this.after = after;
+		this.sequence = sequence;
+	}
+
+	static ChangeEvent added(Date version, CurrentAutorisation after) {
+		return new ChangeEvent(version, Type.ADDED, after.autorisationsnummer, null, after);
+	}
+
+	static ChangeEvent removed(Date version, CurrentAutorisation before) {
+		return new ChangeEvent(version, Type.REMOVED, before.autorisationsnummer, before, null);
+	}
+
+	static ChangeEvent modified(Date version, CurrentAutorisation before, CurrentAutorisation after) {
+		return new ChangeEvent(version, Type.MODIFIED, after.autorisationsnummer, before, after);
+	}
+
+	public Date getVersion() {
+		return version;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getAutorisationsnummer() {
+		return autorisationsnummer;
+	}
+
+	/**
+	 * @return the position of the event in the outbox, or 0 if it has not been read from the outbox
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	CurrentAutorisation getBefore() {
+		return before;
+	}
+
+	CurrentAutorisation getAfter() {
+		return after;
+	}
+
+	/**
+	 * @return version;type;autorisationsnummer followed by CPR;efternavn;fornavn;uddannelseskode before and after the
+	 * change, where the fields of a missing side are empty
+	 */
+	public String format() {
+		StringBuilder result = new StringBuilder();
+		result.append(VERSION_FORMAT.print(version.getTime())).append(';').append(type).append(';').append(autorisationsnummer);
+		append(result, before);
+		append(result, after);
+		return result.toString();
+	}
+
+	private static void append(StringBuilder result, CurrentAutorisation values) {
+		if (values == null) {
+			result.append(";;;;");
+		} else {
+			result.append(';').append(values.cpr).append(';').append(values.efternavn).append(';').append(values.fornavn)
+					.append(';').append(values.uddannelsesKode);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return format();
+	}
+}
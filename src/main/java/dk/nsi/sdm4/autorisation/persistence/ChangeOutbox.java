@@ -0,0 +1,161 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * The change feed of the autorisationer added, removed and modified by each imported version, so consumers can read the
+ * changes instead of scanning Autorisation on ModifiedDate.
+ * <p>
+ * With spooler.autorisationimporter.outbox the events of a delta import are written to autorisationimporterOutbox in the
+ * import's transaction, so they are visible exactly when the version is. If spooler.autorisationimporter.outbox.file is
+ * set, the events are also appended to that file, one {@link ChangeEvent#format()} line each, when the transaction has
+ * committed. The table is the complete feed; the file misses the events of an import whose append failed.
+ * <p>
+ * Only DELTA, CHUNKED and catch-up imports know which autorisationer changed, so the parser refuses to import in the
+ * other modes while the outbox is enabled, rather than leave their changes out of the feed. The same goes for DELTA
+ * import with a memory budget, whose changes could be as large as the register.
+ */
+public class ChangeOutbox {
+	private static final Log log = LogFactory.getLog(ChangeOutbox.class);
+	static final String TABLE = "autorisationimporterOutbox";
+	static final int ROWS_PER_BATCH = 1000;
+	private static final String FILE_CHARSET = "UTF-8";
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Value("${spooler.autorisationimporter.outbox}")
+	private boolean enabled;
+
+	@Value("${spooler.autorisationimporter.outbox.file}")
+	private String file;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void record(List<ChangeEvent> events) {
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		for (int from = 0; from < events.size(); from += ROWS_PER_BATCH) {
+			List<Object[]> batch = new ArrayList<Object[]>(ROWS_PER_BATCH);
+			for (ChangeEvent event : events.subList(from, Math.min(from + ROWS_PER_BATCH, events.size()))) {
+				batch.add(values(event, now));
+			}
+			jdbcTemplate.batchUpdate("INSERT INTO " + TABLE + " (Version, ChangeType, Autorisationsnummer, " +
+					"BeforeCPR, BeforeFornavn, BeforeEfternavn, BeforeUddannelsesKode, " +
+					"AfterCPR, AfterFornavn, AfterEfternavn, AfterUddannelsesKode, CreatedDate) " +
+					"VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", batch);
+		}
+
+		if (!file.isEmpty() && !events.isEmpty()) {
+			appendAfterCommit(events);
+		}
+	}
+
+	/**
+	 * Reads a page of the events of the versions after the given one, in the order they were written. The next page
+	 * starts after the {@link ChangeEvent#getSequence()} of the last event of this one.
+	 *
+	 * @param afterSequence 0 for the first page
+	 * @return at most limit events
+	 */
+	public List<ChangeEvent> eventsAfter(Date version, long afterSequence, int limit) {
+		return jdbcTemplate.query("SELECT * FROM " + TABLE + " WHERE Version > ? AND Sequence > ? ORDER BY Sequence LIMIT ?", new RowMapper<ChangeEvent>() {
+			@Override
+			public ChangeEvent mapRow(ResultSet rs, int rowNum) throws SQLException {
+				String nummer = rs.getString("Autorisationsnummer");
+				return new ChangeEvent(rs.getTimestamp("Version"), ChangeEvent.Type.valueOf(rs.getString("ChangeType")), nummer,
+						values(rs, "Before", nummer), values(rs, "After", nummer), rs.getLong("Sequence"));
+			}
+		}, version, afterSequence, limit);
+	}
+
+	private void appendAfterCommit(final List<ChangeEvent> events) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					append(events);
+				}
+			});
+		} else {
+			append(events);
+		}
+	}
+
+	void append(List<ChangeEvent> events) {
+		List<String> lines = new ArrayList<String>(events.size());
+		for (ChangeEvent event : events) {
+			lines.add(event.format());
+		}
+		try {
+			FileUtils.writeLines(new File(file), FILE_CHARSET, lines, true);
+		} catch (IOException e) {
+			// the transaction has committed, so the events are in the table even if the file misses them
+			log.error("Unable to append " + events.size() + " change events to " + file, e);
+		}
+	}
+
+	private static Object[] values(ChangeEvent event, Timestamp now) {
+		CurrentAutorisation before = event.getBefore();
+		CurrentAutorisation after = event.getAfter();
+		return new Object[] {event.getVersion(), event.getType().name(), event.getAutorisationsnummer(),
+				before != null ? before.cpr : null, before != null ? before.fornavn : null,
+				before != null ? before.efternavn : null, before != null ? before.uddannelsesKode : null,
+				after != null ? after.cpr : null, after != null ? after.fornavn : null,
+				after != null ? after.efternavn : null, after != null ? after.uddannelsesKode : null,
+				now};
+	}
+
+	private static CurrentAutorisation values(ResultSet rs, String side, String nummer) throws SQLException {
+		String cpr = rs.getString(side + "CPR");
+		if (cpr == null) {
+			return null;
+		}
+		return new CurrentAutorisation(CurrentAutorisation.UNKNOWN_PID, nummer, cpr, rs.getString(side + "Fornavn"),
+				rs.getString(side + "Efternavn"), rs.getInt(side + "UddannelsesKode"));
+	}
+}
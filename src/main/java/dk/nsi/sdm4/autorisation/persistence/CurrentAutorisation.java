@@ -0,0 +1,108 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+
+/**
+ * A row in the Autorisation table that is valid at the time a new register version takes effect.
+ */
+class CurrentAutorisation {
+	static final String COLUMNS = "AutorisationPID, Autorisationsnummer, CPR, Fornavn, Efternavn, UddannelsesKode";
+
+	static final RowMapper<CurrentAutorisation> ROW_MAPPER = new RowMapper<CurrentAutorisation>() {
+		@Override
+		public CurrentAutorisation mapRow(ResultSet rs, int rowNum) throws SQLException {
+			return new CurrentAutorisation(rs.getLong("AutorisationPID"), rs.getString("Autorisationsnummer"), rs.getString("CPR"),
+					rs.getString("Fornavn"), rs.getString("Efternavn"), rs.getInt("UddannelsesKode"));
+		}
+	};
+
+	static final long UNKNOWN_PID = -1;
+
+	final long pid;
+	final String autorisationsnummer;
+	final String cpr;
+	final String fornavn;
+	final String efternavn;
+	final int uddannelsesKode;
+
+	CurrentAutorisation(long pid, String autorisationsnummer, String cpr, String fornavn, String efternavn, int uddannelsesKode) {
+		this.pid = pid;
+		this.autorisationsnummer = autorisationsnummer;
+		this.cpr = cpr;
+		this.fornavn = fornavn;
+		this.efternavn = efternavn;
+		this.uddannelsesKode = uddannelsesKode;
+	}
+
+	/**
+	 * @return the row an inserted autorisation becomes, before its PID has been read back.
+	 */
+	static CurrentAutorisation of(Autorisation autorisation) {
+		return new CurrentAutorisation(UNKNOWN_PID, autorisation.getAutorisationsnummer(), autorisation.getCpr(),
+				autorisation.getFornavn(), autorisation.getEfternavn(), asInt(autorisation.getUddannelsesKode()));
+	}
+
+	CurrentAutorisation withPid(long pid) {
+		return new CurrentAutorisation(pid, autorisationsnummer, cpr, fornavn, efternavn, uddannelsesKode);
+	}
+
+	/**
+	 * @return true if the autorisation from the register carries the same data as this row,
+	 * i.e. no new version of the row is needed.
+	 */
+	boolean hasSameContentAs(Autorisation autorisation) {
+		return cpr.equals(autorisation.getCpr())
+				&& fornavn.equals(autorisation.getFornavn())
+				&& efternavn.equals(autorisation.getEfternavn())
+				&& sameUddannelsesKode(autorisation.getUddannelsesKode());
+	}
+
+	private boolean sameUddannelsesKode(String value) {
+		// the column is an INT, so "0170" and "170" are stored as the same value
+		try {
+			return uddannelsesKode == Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private static int asInt(String uddannelsesKode) {
+		try {
+			return Integer.parseInt(uddannelsesKode.trim());
+		} catch (NumberFormatException e) {
+			// never equal to a value from the register, so the next version writes the row again
+			return Integer.MIN_VALUE;
+		}
+	}
+}
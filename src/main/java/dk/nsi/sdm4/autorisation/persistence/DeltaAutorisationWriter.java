@@ -0,0 +1,245 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.google.common.base.Preconditions;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+
+/**
+ * Writes only the differences between a register and the rows that are valid in the Autorisation table.
+ * <p>
+ * The currently valid rows are read up front, keyed on Autorisationsnummer. An autorisation from the register whose data is
+ * unchanged is not written at all, a changed autorisation gets its current row closed and a new row inserted, and a new
+ * autorisation is inserted. The rows that are left when the whole register has been handled are the autorisationer that
+ * are no longer in the register, and they are closed by {@link #finish()}.
+ * <p>
+ * Unlike {@link StreamingAutorisationWriter} and the {@link dk.nsi.sdm4.core.persistence.Persister}, unchanged rows keep
+ * their ModifiedDate, so consumers copying on ModifiedDate only see the rows that actually changed.
+ * <p>
+ * When several register versions are imported in one run, {@link #nextVersion(Date)} hands the rows that are valid after
+ * this version on to the writer for the next one, so only the rows inserted by this version are read back.
+ * <p>
+ * The closed and inserted rows are collected in {@link #getAutregChanges()}, so autreg can be updated with just those.
+ * After {@link #collectChangeEvents()} the changes of this version are also collected as {@link ChangeEvent}s for the
+ * {@link ChangeOutbox}.
+ */
+public class DeltaAutorisationWriter extends AbstractAutorisationWriter {
+	private final int batchSize;
+	private final Map<String, CurrentAutorisation> currentRows;
+	private final Map<String, CurrentAutorisation> nextRows;
+	private final List<String> insertedNumre = new ArrayList<String>();
+	private final AutregChanges autregChanges;
+	private List<ChangeEvent> changeEvents;
+
+	private boolean finished = false;
+	private int handled = 0;
+	private int added = 0;
+	private int changed = 0;
+	private int removed = 0;
+
+	public DeltaAutorisationWriter(JdbcTemplate jdbcTemplate, Date validFrom, int batchSize) {
+		super(jdbcTemplate, validFrom);
+		Preconditions.checkArgument(batchSize > 0, "batchSize must be positive, was %s", batchSize);
+		this.batchSize = batchSize;
+		this.currentRows = fetchCurrentRows();
+		this.nextRows = new HashMap<String, CurrentAutorisation>(currentRows.size() * 2);
+		this.autregChanges = new AutregChanges();
+	}
+
+	private DeltaAutorisationWriter(JdbcTemplate jdbcTemplate, Date validFrom, int batchSize, Map<String, CurrentAutorisation> currentRows,
+	                                AutregChanges autregChanges) {
+		super(jdbcTemplate, validFrom);
+		this.batchSize = batchSize;
+		this.currentRows = currentRows;
+		this.nextRows = new HashMap<String, CurrentAutorisation>(currentRows.size() * 2);
+		this.autregChanges = autregChanges;
+	}
+
+	@Override
+	public void handle(Autorisation autorisation) {
+		handled++;
+
+		String nummer = autorisation.getAutorisationsnummer();
+		CurrentAutorisation current = currentRows.remove(nummer);
+		if (current == null) {
+			insert(autorisation);
+			CurrentAutorisation row = inserted(autorisation);
+			event(ChangeEvent.added(validFrom, row));
+			added++;
+		} else if (!current.hasSameContentAs(autorisation)) {
+			close(current.pid);
+			autregChanges.closed(current);
+			insert(autorisation);
+			CurrentAutorisation row = inserted(autorisation);
+			event(ChangeEvent.modified(validFrom, current, row));
+			changed++;
+		} else {
+			nextRows.put(nummer, current);
+		}
+
+		if (pendingCount() >= batchSize) {
+			writePending();
+		}
+	}
+
+	@Override
+	public int finish() {
+		for (CurrentAutorisation notInRegister : currentRows.values()) {
+			close(notInRegister.pid);
+			autregChanges.closed(notInRegister);
+			event(ChangeEvent.removed(validFrom, notInRegister));
+			removed++;
+
+			if (pendingCount() >= batchSize) {
+				writePending();
+			}
+		}
+		currentRows.clear();
+		writePending();
+		finished = true;
+
+		return handled;
+	}
+
+	/**
+	 * @return a writer for the register version that takes effect at {@code nextValidFrom}, which diffs against the rows
+	 * that are valid after this version instead of reading them from the database.
+	 */
+	public DeltaAutorisationWriter nextVersion(Date nextValidFrom) {
+		Preconditions.checkState(finished, "finish() must be called before moving on to the next version");
+		Preconditions.checkArgument(nextValidFrom.after(validFrom), "The next version %s must be after %s", nextValidFrom, validFrom);
+		fetchInsertedPids();
+		DeltaAutorisationWriter next = new DeltaAutorisationWriter(jdbcTemplate, nextValidFrom, batchSize, nextRows, autregChanges);
+		return changeEvents != null ? next.collectChangeEvents() : next;
+	}
+
+	/**
+	 * @return the number of autorisationer that are valid after this version, once {@link #finish()} has been called.
+	 */
+	public int getValidCount() {
+		Preconditions.checkState(finished, "finish() must be called before the valid count is known");
+		return nextRows.size();
+	}
+
+	/**
+	 * @return the net changes to the valid autorisationer made by this writer and the writers of the versions before it
+	 */
+	public AutregChanges getAutregChanges() {
+		return autregChanges;
+	}
+
+	/**
+	 * Makes this writer, and the writers for the versions after it, collect the changes they write as {@link ChangeEvent}s.
+	 */
+	public DeltaAutorisationWriter collectChangeEvents() {
+		Preconditions.checkState(handled == 0, "Change events must be collected from the first autorisation");
+		changeEvents = new ArrayList<ChangeEvent>();
+		return this;
+	}
+
+	/**
+	 * @return the changes written by this version, in the order they were written
+	 */
+	public List<ChangeEvent> getChangeEvents() {
+		Preconditions.checkState(changeEvents != null, "collectChangeEvents() was not called");
+		return changeEvents;
+	}
+
+	public int getHandled() {
+		return handled;
+	}
+
+	public int getAdded() {
+		return added;
+	}
+
+	public int getChanged() {
+		return changed;
+	}
+
+	public int getRemoved() {
+		return removed;
+	}
+
+	private CurrentAutorisation inserted(Autorisation autorisation) {
+		// the PID is assigned by the database, so it is only read back if a next version needs it
+		CurrentAutorisation row = CurrentAutorisation.of(autorisation);
+		nextRows.put(autorisation.getAutorisationsnummer(), row);
+		autregChanges.inserted(row);
+		insertedNumre.add(autorisation.getAutorisationsnummer());
+		return row;
+	}
+
+	private void event(ChangeEvent event) {
+		if (changeEvents != null) {
+			changeEvents.add(event);
+		}
+	}
+
+	private void fetchInsertedPids() {
+		for (int from = 0; from < insertedNumre.size(); from += ROWS_PER_STATEMENT) {
+			List<String> numre = insertedNumre.subList(from, Math.min(from + ROWS_PER_STATEMENT, insertedNumre.size()));
+			List<Object> args = new ArrayList<Object>(numre.size() + 2);
+			args.add(validFrom);
+			args.add(validFrom);
+			args.addAll(numre);
+			jdbcTemplate.query("SELECT AutorisationPID, Autorisationsnummer FROM Autorisation WHERE ValidFrom = ? AND ValidTo > ? " +
+					"AND Autorisationsnummer IN " + pidList(numre.size()), args.toArray(), new RowCallbackHandler() {
+				@Override
+				public void processRow(ResultSet rs) throws SQLException {
+					String nummer = rs.getString("Autorisationsnummer");
+					nextRows.put(nummer, nextRows.get(nummer).withPid(rs.getLong("AutorisationPID")));
+				}
+			});
+		}
+		insertedNumre.clear();
+	}
+
+	private Map<String, CurrentAutorisation> fetchCurrentRows() {
+		List<CurrentAutorisation> rows = jdbcTemplate.query("SELECT " + CurrentAutorisation.COLUMNS + " FROM Autorisation " +
+				"WHERE ValidFrom < ? AND ValidTo > ?", CurrentAutorisation.ROW_MAPPER, validFrom, validFrom);
+
+		Map<String, CurrentAutorisation> result = new HashMap<String, CurrentAutorisation>(rows.size() * 2);
+		for (CurrentAutorisation row : rows) {
+			result.put(row.autorisationsnummer, row);
+		}
+		return result;
+	}
+}
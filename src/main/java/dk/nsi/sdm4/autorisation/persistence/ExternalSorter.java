@@ -0,0 +1,334 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Sorts more records than fit in a heap budget.
+ * <p>
+ * Records are kept in memory until their estimated size exceeds the budget. The buffered records are then sorted and
+ * spilled to a run file in the spill directory. {@link #sorted()} merges the runs, at most {@link #MAX_FAN_IN} at a
+ * time: more runs are first merged in passes into fewer, longer runs. Memory use is thereby the budget plus at most
+ * {@link #MAX_FAN_IN} read buffers, and as many files are open. Without any spill the records are sorted in memory and
+ * no files are written.
+ * <p>
+ * The run files are deleted by {@link #close()}.
+ */
+public class ExternalSorter<T> implements Closeable {
+	static final int MAX_FAN_IN = 16;
+	private static final int RUN_BUFFER_BYTES = 64 * 1024;
+
+	/**
+	 * Writes and reads the records of a run file and estimates their size on the heap.
+	 */
+	public interface Codec<T> {
+		void write(T record, DataOutputStream out) throws IOException;
+
+		T read(DataInputStream in) throws IOException;
+
+		long heapBytes(T record);
+	}
+
+	/**
+	 * The sorted records, one at a time. Both methods return null after the last record.
+	 */
+	public interface Cursor<T> {
+		T peek();
+
+		T next();
+	}
+
+	private final File directory;
+	private final long budgetBytes;
+	private final Comparator<? super T> order;
+	private final Codec<T> codec;
+	private final int maxFanIn;
+
+	private final List<T> buffer = new ArrayList<T>();
+	private long bufferedBytes = 0;
+	private final List<File> files = new ArrayList<File>();
+	private List<File> runs = new ArrayList<File>();
+	private final List<RunCursor> openRuns = new ArrayList<RunCursor>();
+	private int spilledRuns = 0;
+	private int size = 0;
+	private boolean sorted = false;
+
+	public ExternalSorter(File directory, long budgetBytes, Comparator<? super T> order, Codec<T> codec) {
+		this(directory, budgetBytes, order, codec, MAX_FAN_IN);
+	}
+
+	ExternalSorter(File directory, long budgetBytes, Comparator<? super T> order, Codec<T> codec, int maxFanIn) {
+		Preconditions.checkArgument(budgetBytes > 0, "budgetBytes must be positive, was %s", budgetBytes);
+		Preconditions.checkArgument(maxFanIn > 1, "maxFanIn must be at least 2, was %s", maxFanIn);
+		this.directory = directory;
+		this.budgetBytes = budgetBytes;
+		this.order = order;
+		this.codec = codec;
+		this.maxFanIn = maxFanIn;
+	}
+
+	public void add(T record) throws IOException {
+		Preconditions.checkState(!sorted, "Records cannot be added once sorted() has been called");
+		buffer.add(record);
+		size++;
+		bufferedBytes += codec.heapBytes(record);
+		if (bufferedBytes > budgetBytes) {
+			spill();
+		}
+	}
+
+	/**
+	 * @return all the added records in order. Records that compare equal come out next to each other.
+	 */
+	public Cursor<T> sorted() throws IOException {
+		Preconditions.checkState(!sorted, "sorted() can only be called once");
+		sorted = true;
+		if (runs.isEmpty()) {
+			Collections.sort(buffer, order);
+			return new ListCursor();
+		}
+		if (!buffer.isEmpty()) {
+			spill();
+		}
+		while (runs.size() > maxFanIn) {
+			mergePass();
+		}
+		for (File run : runs) {
+			openRuns.add(new RunCursor(run));
+		}
+		return openRuns.size() == 1 ? openRuns.get(0) : new MergeCursor(openRuns);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of run files the records were spilled to, not counting the runs merged from them
+	 */
+	public int getRuns() {
+		return spilledRuns;
+	}
+
+	@Override
+	public void close() {
+		for (RunCursor run : openRuns) {
+			IOUtils.closeQuietly(run.in);
+		}
+		for (File file : files) {
+			FileUtils.deleteQuietly(file);
+		}
+		buffer.clear();
+	}
+
+	private void spill() throws IOException {
+		Collections.sort(buffer, order);
+		File run = createRun();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), RUN_BUFFER_BYTES));
+		try {
+			out.writeInt(buffer.size());
+			for (T record : buffer) {
+				codec.write(record, out);
+			}
+		} finally {
+			out.close();
+		}
+		runs.add(run);
+		spilledRuns++;
+		buffer.clear();
+		bufferedBytes = 0;
+	}
+
+	/**
+	 * Merges the runs in groups of at most maxFanIn, so there are fewer runs to merge next time.
+	 */
+	private void mergePass() throws IOException {
+		List<File> merged = new ArrayList<File>();
+		for (int from = 0; from < runs.size(); from += maxFanIn) {
+			List<File> group = runs.subList(from, Math.min(from + maxFanIn, runs.size()));
+			merged.add(group.size() == 1 ? group.get(0) : merge(group));
+		}
+		runs = merged;
+	}
+
+	private File merge(List<File> group) throws IOException {
+		List<RunCursor> cursors = new ArrayList<RunCursor>(group.size());
+		try {
+			int count = 0;
+			for (File run : group) {
+				RunCursor cursor = new RunCursor(run);
+				cursors.add(cursor);
+				count += cursor.size;
+			}
+			File run = createRun();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), RUN_BUFFER_BYTES));
+			try {
+				out.writeInt(count);
+				MergeCursor merged = new MergeCursor(cursors);
+				for (T record = merged.next(); record != null; record = merged.next()) {
+					codec.write(record, out);
+				}
+			} finally {
+				out.close();
+			}
+			for (File input : group) {
+				FileUtils.deleteQuietly(input);
+			}
+			return run;
+		} finally {
+			for (RunCursor cursor : cursors) {
+				IOUtils.closeQuietly(cursor.in);
+			}
+		}
+	}
+
+	private File createRun() throws IOException {
+		FileUtils.forceMkdir(directory);
+		File run = File.createTempFile("autorisationimporter-run-", ".bin", directory);
+		files.add(run);
+		return run;
+	}
+
+	private class ListCursor implements Cursor<T> {
+		private int position = 0;
+
+		@Override
+		public T peek() {
+			return position < buffer.size() ? buffer.get(position) : null;
+		}
+
+		@Override
+		public T next() {
+			T record = peek();
+			if (record != null) {
+				// the record is handed over, so the buffer does not keep it alive
+				buffer.set(position++, null);
+			}
+			return record;
+		}
+	}
+
+	private class RunCursor implements Cursor<T> {
+		private final File file;
+		private final DataInputStream in;
+		private final int size;
+		private int remaining;
+		private T head;
+
+		RunCursor(File file) throws IOException {
+			this.file = file;
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), RUN_BUFFER_BYTES));
+			this.size = in.readInt();
+			this.remaining = size;
+			advance();
+		}
+
+		@Override
+		public T peek() {
+			return head;
+		}
+
+		@Override
+		public T next() {
+			T record = head;
+			if (record != null) {
+				advance();
+			}
+			return record;
+		}
+
+		private void advance() {
+			if (remaining == 0) {
+				head = null;
+				IOUtils.closeQuietly(in);
+				return;
+			}
+			try {
+				head = codec.read(in);
+				remaining--;
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to read run file " + file, e);
+			}
+		}
+	}
+
+	private class MergeCursor implements Cursor<T> {
+		private final PriorityQueue<RunCursor> heads;
+
+		MergeCursor(List<RunCursor> runs) {
+			heads = new PriorityQueue<RunCursor>(runs.size(), new Comparator<RunCursor>() {
+				@Override
+				public int compare(RunCursor a, RunCursor b) {
+					return order.compare(a.peek(), b.peek());
+				}
+			});
+			for (RunCursor run : runs) {
+				if (run.peek() != null) {
+					heads.add(run);
+				}
+			}
+		}
+
+		@Override
+		public T peek() {
+			RunCursor run = heads.peek();
+			return run == null ? null : run.peek();
+		}
+
+		@Override
+		public T next() {
+			RunCursor run = heads.poll();
+			if (run == null) {
+				return null;
+			}
+			T record = run.next();
+			if (run.peek() != null) {
+				heads.add(run);
+			}
+			return record;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+
+import dk.nsi.sdm4.autorisation.parser.RegisterFingerprint;
+
+/**
+ * Keeps the version and fingerprint of each successful import in autorisationimporterImportStatus.
+ * <p>
+ * The status row for the running import is written by the ParserExecutor before the parser is called. The fingerprint
+ * is added to that row at the end of a successful import, in the import's transaction, so a failed import leaves no
+ * fingerprint behind.
+ */
+public class ImportFingerprints {
+	static final String TABLE = "autorisationimporterImportStatus";
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	/**
+	 * @return the record digest of the last successful import, or null if no import has been fingerprinted
+	 */
+	public String lastRecordDigest() {
+		List<String> digests = jdbcTemplate.query("SELECT RecordDigest FROM " + TABLE + " WHERE RecordDigest IS NOT NULL ORDER BY Id DESC LIMIT 1",
+				new SingleColumnRowMapper<String>(String.class));
+		return digests.isEmpty() ? null : digests.get(0);
+	}
+
+	/**
+	 * @return the newest version that has been imported, also when it was skipped because its content was unchanged
+	 */
+	public Timestamp lastVersion() {
+		return jdbcTemplate.queryForObject("SELECT MAX(Version) FROM " + TABLE, Timestamp.class);
+	}
+
+	public void recordImported(DateTime version, RegisterFingerprint fingerprint) {
+		// MySQL cannot update a table that it selects from in a subquery, unless the subquery is materialised like this
+		int updated = jdbcTemplate.update("UPDATE " + TABLE + " SET Version = ?, ContentHash = ?, RecordDigest = ?, Records = ? " +
+				"WHERE Id = (SELECT Id FROM (SELECT MAX(Id) AS Id FROM " + TABLE + ") AS Newest) AND EndTime IS NULL",
+				version.toDate(), fingerprint.getContentHash(), fingerprint.getRecordDigest(), fingerprint.getRecords());
+		if (updated == 0) {
+			throw new IllegalStateException("There is no open row in " + TABLE + " to record the import of version " + version
+					+ " in. The ParserExecutor writes it before calling the parser");
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import dk.nsi.sdm4.autorisation.metrics.ImportMetrics;
+import dk.nsi.sdm4.autorisation.metrics.ImportPhase;
+import dk.nsi.sdm4.autorisation.parser.AutorisationParser;
+import dk.nsi.sdm4.autorisation.parser.ImportMode;
+import dk.nsi.sdm4.autorisation.parser.RegisterFingerprint;
+
+/**
+ * The autorisationimporterLedger table, with a row for each imported version: the number of valid autorisationer
+ * after the import, the fingerprint of the file and the timings.
+ * <p>
+ * The version check and the reduction guard read the newest row through the primary key instead of running
+ * MAX(ValidFrom) and COUNT over the Autorisation table, which get slower as the history grows. Until the first
+ * import has been recorded, the aggregates are used. With spooler.autorisationimporter.ledger.reconcile the ledger
+ * is compared with the aggregates on every read; on a mismatch the aggregates win and a warning is logged.
+ */
+public class ImportLedger {
+	private static final Log log = LogFactory.getLog(ImportLedger.class);
+	static final String TABLE = "autorisationimporterLedger";
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	ImportFingerprints importFingerprints;
+
+	@Value("${spooler.autorisationimporter.ledger.reconcile}")
+	private boolean reconcile;
+
+	/**
+	 * @return the newest imported version, or null if nothing has been imported
+	 */
+	public Date lastVersion() {
+		Entry latest = latest();
+		if (latest == null || reconcile) {
+			Date actual = versionFromTables();
+			if (latest != null && !sameVersion(latest.version, actual)) {
+				log.warn("Ledger says version " + latest.version + ", but the tables say " + actual + ". Using " + actual);
+			}
+			return actual;
+		}
+		return latest.version;
+	}
+
+	/**
+	 * @return the number of currently valid autorisationer
+	 */
+	public int validCount() {
+		Entry latest = latest();
+		if (latest == null || reconcile) {
+			int actual = jdbcTemplate.queryForInt("SELECT COUNT(AutorisationPID) " + AutorisationParser.FROMCLAUSE_VALID_AUTORISATIONER);
+			if (latest != null && latest.validCount != actual) {
+				log.warn("Ledger says " + latest.validCount + " valid autorisationer, but Autorisation has " + actual + ". Using " + actual);
+			}
+			return actual;
+		}
+		return latest.validCount;
+	}
+
+	/**
+	 * Adds the row for an import that has written the register, in the import's transaction. The end time is the time
+	 * the metrics ended, or now if they are still running.
+	 *
+	 * @param skipped true if the file was not written because its content was the same as the previous version's
+	 */
+	public void record(DateTime version, int validCount, RegisterFingerprint fingerprint, ImportMode importMode, boolean skipped, ImportMetrics metrics) {
+		StringBuilder phases = new StringBuilder();
+		for (Map.Entry<ImportPhase, Long> phase : metrics.getPhaseMillis().entrySet()) {
+			phases.append(phases.length() > 0 ? "," : "").append(phase.getKey().name().toLowerCase()).append('=').append(phase.getValue());
+		}
+		jdbcTemplate.update("INSERT INTO " + TABLE + " (Version, ValidCount, Records, ContentHash, RecordDigest, ImportMode, Skipped, StartTime, EndTime, Phases) " +
+				"VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+				version.toDate(), validCount, fingerprint.getRecords(), fingerprint.getContentHash(), fingerprint.getRecordDigest(),
+				importMode.name(), skipped, metrics.getStartTime().toDate(), metrics.getEndTime() != null ? metrics.getEndTime().toDate() : new Date(), phases.toString());
+	}
+
+	private Entry latest() {
+		List<Entry> entries = jdbcTemplate.query("SELECT Version, ValidCount FROM " + TABLE + " ORDER BY Version DESC LIMIT 1", new RowMapper<Entry>() {
+			@Override
+			public Entry mapRow(ResultSet rs, int rowNum) throws SQLException {
+				return new Entry(rs.getTimestamp("Version"), rs.getInt("ValidCount"));
+			}
+		});
+		return entries == null || entries.isEmpty() ? null : entries.get(0);
+	}
+
+	private Date versionFromTables() {
+		Timestamp version;
+		try {
+			version = jdbcTemplate.queryForObject("SELECT MAX(ValidFrom) as version FROM Autorisation", Timestamp.class);
+		} catch (EmptyResultDataAccessException e) {
+			version = null;
+		}
+		// a file with unchanged content only advances the version in the import status
+		Timestamp lastImportedVersion = importFingerprints.lastVersion();
+		if (lastImportedVersion != null && (version == null || lastImportedVersion.after(version))) {
+			version = lastImportedVersion;
+		}
+		return version;
+	}
+
+	private static boolean sameVersion(Date ledger, Date actual) {
+		return actual != null && ledger.getTime() == actual.getTime();
+	}
+
+	private static class Entry {
+		private final Date version;
+		private final int validCount;
+
+		Entry(Date version, int validCount) {
+			this.version = version;
+			this.validCount = validCount;
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+import dk.nsi.sdm4.autorisation.parser.AutorisationHandler;
+import dk.nsi.sdm4.core.util.Dates;
+
+/**
+ * The staging area of a CHUNKED import: the register is copied into autorisationimporterStaging a chunk at a time,
+ * and each chunk is committed in its own transaction together with a checkpoint in autorisationimporterCheckpoint.
+ * <p>
+ * An import that fails is resumed from the last checkpoint, as long as it is retried with a file with the same
+ * content. The staged rows are only published to the Autorisation table by {@link #publish(AutorisationHandler)}
+ * in the import's own transaction, so consumers see all of the new version or nothing.
+ */
+public class ImportStaging {
+	private static final Log log = LogFactory.getLog(ImportStaging.class);
+	static final String STAGING_TABLE = "autorisationimporterStaging";
+	static final String CHECKPOINT_TABLE = "autorisationimporterCheckpoint";
+	private static final int ROWS_PER_PAGE = 10000;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	/**
+	 * @return the checkpoint to continue from. If the staged rows are for another version or another file, they are
+	 * thrown away and staging starts from the beginning.
+	 */
+	public Checkpoint resume(final DateTime version, final String contentHash) {
+		return newTransaction().execute(new TransactionCallback<Checkpoint>() {
+			@Override
+			public Checkpoint doInTransaction(TransactionStatus status) {
+				List<Checkpoint> checkpoints = jdbcTemplate.query("SELECT Version, ContentHash, ByteOffset, StagedRows FROM " + CHECKPOINT_TABLE,
+						Checkpoint.ROW_MAPPER);
+				for (Checkpoint checkpoint : checkpoints) {
+					if (checkpoint.isFor(version, contentHash)) {
+						return checkpoint;
+					}
+				}
+				if (!checkpoints.isEmpty()) {
+					log.info("Discarding staged rows of " + checkpoints + ", they are not for version " + version + " with content " + contentHash);
+				}
+				deleteStagedRows();
+				return new Checkpoint(version, contentHash, 0, 0);
+			}
+		});
+	}
+
+	/**
+	 * Stages the autorisationer on the lines after the checkpoint and commits them with the next checkpoint.
+	 *
+	 * @param nextOffset the offset in the register of the line after the chunk
+	 */
+	public Checkpoint stageChunk(final Checkpoint from, final List<Autorisation> chunk, long nextOffset) {
+		final Checkpoint next = new Checkpoint(from.version, from.contentHash, nextOffset, from.stagedRows + chunk.size());
+		newTransaction().execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				insertStagedRows(from.stagedRows + 1, chunk);
+				jdbcTemplate.update("INSERT INTO " + CHECKPOINT_TABLE + " (Version, ContentHash, ByteOffset, StagedRows, ModifiedDate) VALUES (?, ?, ?, ?, NOW()) " +
+						"ON DUPLICATE KEY UPDATE ContentHash = VALUES(ContentHash), ByteOffset = VALUES(ByteOffset), StagedRows = VALUES(StagedRows), ModifiedDate = NOW()",
+						next.version.toDate(), next.contentHash, next.byteOffset, next.stagedRows);
+			}
+		});
+		return next;
+	}
+
+	/**
+	 * Hands the staged autorisationer to the handler in line order, in the caller's transaction.
+	 */
+	public void publish(DateTime version, final AutorisationHandler handler) {
+		final Date validFrom = version.toDate();
+		final int[] lastLine = {0};
+		int pageStart;
+		do {
+			pageStart = lastLine[0];
+			// the rows were committed by other transactions, possibly after this one took its snapshot,
+			// and a locking read sees the latest committed rows
+			jdbcTemplate.query("SELECT Line, Autorisationsnummer, CPR, Fornavn, Efternavn, UddannelsesKode FROM " + STAGING_TABLE +
+					" WHERE Line > ? ORDER BY Line LIMIT " + ROWS_PER_PAGE + " LOCK IN SHARE MODE", new Object[]{pageStart}, new RowCallbackHandler() {
+				@Override
+				public void processRow(ResultSet rs) throws SQLException {
+					Autorisation autorisation = new Autorisation();
+					autorisation.setAutorisationnummer(rs.getString("Autorisationsnummer"));
+					autorisation.setCpr(rs.getString("CPR"));
+					autorisation.setFornavn(rs.getString("Fornavn"));
+					autorisation.setEfternavn(rs.getString("Efternavn"));
+					autorisation.setUddannelsesKode(rs.getString("UddannelsesKode"));
+					autorisation.setValidFrom(validFrom);
+					autorisation.setValidTo(Dates.THE_END_OF_TIME);
+					handler.handle(autorisation);
+					lastLine[0] = rs.getInt("Line");
+				}
+			});
+		} while (lastLine[0] - pageStart == ROWS_PER_PAGE);
+	}
+
+	/**
+	 * Removes the staged rows and the checkpoint, in the caller's transaction, once they have been published.
+	 */
+	public void clear() {
+		deleteStagedRows();
+	}
+
+	private void insertStagedRows(final int firstLine, final List<Autorisation> chunk) {
+		if (chunk.isEmpty()) {
+			// the register ended on a chunk boundary, so only the checkpoint moves
+			return;
+		}
+		jdbcTemplate.batchUpdate("INSERT INTO " + STAGING_TABLE + " (Line, Autorisationsnummer, CPR, Fornavn, Efternavn, UddannelsesKode) " +
+				"VALUES (?, ?, ?, ?, ?, ?)", new BatchPreparedStatementSetter() {
+			@Override
+			public void setValues(PreparedStatement ps, int i) throws SQLException {
+				Autorisation autorisation = chunk.get(i);
+				ps.setInt(1, firstLine + i);
+				ps.setString(2, autorisation.getAutorisationsnummer());
+				ps.setString(3, autorisation.getCpr());
+				ps.setString(4, autorisation.getFornavn());
+				ps.setString(5, autorisation.getEfternavn());
+				ps.setString(6, autorisation.getUddannelsesKode());
+			}
+
+			@Override
+			public int getBatchSize() {
+				return chunk.size();
+			}
+		});
+	}
+
+	private void deleteStagedRows() {
+		jdbcTemplate.update("DELETE FROM " + STAGING_TABLE);
+		jdbcTemplate.update("DELETE FROM " + CHECKPOINT_TABLE);
+	}
+
+	private TransactionTemplate newTransaction() {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		return transactionTemplate;
+	}
+
+	/**
+	 * How much of a register file has been staged: the rows, and the offset of the line after them.
+	 */
+	public static class Checkpoint {
+		static final RowMapper<Checkpoint> ROW_MAPPER = new RowMapper<Checkpoint>() {
+			@Override
+			public Checkpoint mapRow(ResultSet rs, int rowNum) throws SQLException {
+				return new Checkpoint(new DateTime(rs.getTimestamp("Version")), rs.getString("ContentHash"), rs.getLong("ByteOffset"), rs.getInt("StagedRows"));
+			}
+		};
+
+		private final DateTime version;
+		private final String contentHash;
+		private final long byteOffset;
+		private final int stagedRows;
+
+		public Checkpoint(DateTime version, String contentHash, long byteOffset, int stagedRows) {
+			this.version = version;
+			this.contentHash = contentHash;
+			this.byteOffset = byteOffset;
+			this.stagedRows = stagedRows;
+		}
+
+		boolean isFor(DateTime version, String contentHash) {
+			return this.version.isEqual(version) && this.contentHash.equals(contentHash);
+		}
+
+		public long getByteOffset() {
+			return byteOffset;
+		}
+
+		public int getStagedRows() {
+			return stagedRows;
+		}
+
+		@Override
+		public String toString() {
+			return "version=" + version + ", contentHash=" + contentHash + ", byteOffset=" + byteOffset + ", stagedRows=" + stagedRows;
+		}
+	}
+}
@@ -0,0 +1,329 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.io.Closeable;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+
+/**
+ * Writes a register on several connections at once, and publishes it in two phases so consumers still see the
+ * import as a whole.
+ * <p>
+ * The autorisationer are partitioned on a hash of their Autorisationsnummer. Each partition has a writer thread that
+ * inserts it into autorisationimporterBulk, in batches of multi-row statements on its own pooled connection and in
+ * its own transaction, which commits when the partition is complete. Only when every writer has committed does
+ * {@link #finish()} publish the staged rows to Autorisation with the set-based merge of {@link BulkAutorisationLoader},
+ * in the import's transaction. If a writer fails, the others are interrupted and roll back, and nothing is published.
+ * <p>
+ * The writers hold their connections while the import's transaction holds its own, so the datasource pool must have a
+ * connection for every writer besides the import's. The constructor fails if the writers have not all got one within
+ * {@link #CONNECTION_TIMEOUT_MILLIS}, rather than have the import wait forever for a writer that cannot start.
+ */
+public class ParallelAutorisationWriter implements AutorisationWriter, Closeable {
+	static final long CONNECTION_TIMEOUT_MILLIS = 60 * 1000;
+	private static final int QUEUED_BATCHES_PER_WRITER = 4;
+	private static final String INSERT_SQL_PREFIX = "INSERT INTO " + BulkAutorisationLoader.BULK_TABLE +
+			" (Autorisationsnummer, CPR, Fornavn, Efternavn, UddannelsesKode) VALUES ";
+	private static final String INSERT_SQL_ROW = "(?, ?, ?, ?, ?)";
+	private static final String FULL_INSERT_SQL = insertSql(AbstractAutorisationWriter.ROWS_PER_STATEMENT);
+
+	// tells a writer that its partition is complete
+	private static final List<Autorisation> END = new ArrayList<Autorisation>(0);
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final BulkAutorisationLoader loader;
+	private final int batchSize;
+	private final List<List<Autorisation>> pending = new ArrayList<List<Autorisation>>();
+	private final List<BlockingQueue<List<Autorisation>>> queues = new ArrayList<BlockingQueue<List<Autorisation>>>();
+	private final List<Future<Integer>> writers = new ArrayList<Future<Integer>>();
+	private final ExecutorService executor;
+	private final CountDownLatch connected;
+
+	private int handled = 0;
+
+	public ParallelAutorisationWriter(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager, Date validFrom, int batchSize, int writerCount) {
+		this(jdbcTemplate, transactionManager, validFrom, batchSize, writerCount, CONNECTION_TIMEOUT_MILLIS);
+	}
+
+	ParallelAutorisationWriter(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager, Date validFrom, int batchSize, int writerCount,
+			long connectionTimeoutMillis) {
+		Preconditions.checkArgument(batchSize > 0, "batchSize must be positive, was %s", batchSize);
+		Preconditions.checkArgument(writerCount > 0, "writerCount must be positive, was %s", writerCount);
+		this.jdbcTemplate = jdbcTemplate;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		this.loader = new BulkAutorisationLoader(jdbcTemplate, validFrom);
+		this.batchSize = batchSize;
+
+		// rows left by an import that failed after some writers committed; deleted before the writers insert their own
+		transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				ParallelAutorisationWriter.this.jdbcTemplate.update("DELETE FROM " + BulkAutorisationLoader.BULK_TABLE);
+			}
+		});
+
+		connected = new CountDownLatch(writerCount);
+		executor = Executors.newFixedThreadPool(writerCount, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("autorisation-writer-%d").build());
+		for (int i = 0; i < writerCount; i++) {
+			BlockingQueue<List<Autorisation>> queue = new ArrayBlockingQueue<List<Autorisation>>(QUEUED_BATCHES_PER_WRITER);
+			pending.add(new ArrayList<Autorisation>(batchSize));
+			queues.add(queue);
+			writers.add(executor.submit(new PartitionWriter(queue)));
+		}
+		awaitConnections(connectionTimeoutMillis);
+	}
+
+	static int partitionOf(String autorisationsnummer, int partitions) {
+		return (autorisationsnummer.hashCode() & Integer.MAX_VALUE) % partitions;
+	}
+
+	@Override
+	public void handle(Autorisation autorisation) {
+		handled++;
+		int partition = partitionOf(autorisation.getAutorisationsnummer(), pending.size());
+		List<Autorisation> batch = pending.get(partition);
+		batch.add(autorisation);
+		if (batch.size() >= batchSize) {
+			submit(partition, batch);
+			pending.set(partition, new ArrayList<Autorisation>(batchSize));
+		}
+	}
+
+	/**
+	 * Waits for all the writers to commit their partitions, and then publishes the staged rows in the caller's transaction.
+	 */
+	@Override
+	public int finish() {
+		for (int partition = 0; partition < pending.size(); partition++) {
+			if (!pending.get(partition).isEmpty()) {
+				submit(partition, pending.get(partition));
+			}
+			submit(partition, END);
+		}
+		int staged = 0;
+		for (Future<Integer> writer : writers) {
+			staged += result(writer);
+		}
+		executor.shutdown();
+		if (staged != handled) {
+			throw new IllegalStateException("The writers staged " + staged + " of " + handled + " autorisationer");
+		}
+
+		loader.merge();
+		return handled;
+	}
+
+	/**
+	 * Stops the writers that are still running, e.g. when parsing failed, which rolls back what they have not committed.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	@Override
+	public int getInsertedRows() {
+		return loader.getInsertedRows();
+	}
+
+	@Override
+	public int getClosedRows() {
+		return loader.getClosedRows();
+	}
+
+	public int getWriterCount() {
+		return writers.size();
+	}
+
+	/**
+	 * Waits until every writer has begun its transaction, and so holds its connection.
+	 */
+	private void awaitConnections(long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		try {
+			while (!connected.await(100, TimeUnit.MILLISECONDS)) {
+				for (Future<Integer> writer : writers) {
+					if (writer.isDone()) {
+						close();
+						result(writer);
+					}
+				}
+				if (System.currentTimeMillis() >= deadline) {
+					close();
+					int writerCount = writers.size();
+					throw new IllegalStateException("Only " + (writerCount - connected.getCount()) + " of " + writerCount
+							+ " writers got a connection within " + timeoutMillis + " ms. The datasource pool needs a connection for each of the "
+							+ "spooler.autorisationimporter.parallel.writers besides the import's own");
+				}
+			}
+		} catch (InterruptedException e) {
+			close();
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the writers to connect", e);
+		}
+	}
+
+	private void submit(int partition, List<Autorisation> batch) {
+		try {
+			while (!queues.get(partition).offer(batch, 100, TimeUnit.MILLISECONDS)) {
+				Future<Integer> writer = writers.get(partition);
+				if (writer.isDone()) {
+					result(writer);
+					throw new IllegalStateException("Writer " + partition + " stopped before its partition was complete");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while handing autorisationer to writer " + partition, e);
+		}
+	}
+
+	private static int result(Future<Integer> writer) {
+		try {
+			return writer.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the writers", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	private static String insertSql(int rows) {
+		return INSERT_SQL_PREFIX + Joiner.on(", ").join(Collections.nCopies(rows, INSERT_SQL_ROW));
+	}
+
+	private class PartitionWriter implements Callable<Integer> {
+		private final BlockingQueue<List<Autorisation>> queue;
+
+		PartitionWriter(BlockingQueue<List<Autorisation>> queue) {
+			this.queue = queue;
+		}
+
+		@Override
+		public Integer call() {
+			// one transaction, and so one connection, for the whole partition
+			return transactionTemplate.execute(new TransactionCallback<Integer>() {
+				@Override
+				public Integer doInTransaction(TransactionStatus status) {
+					connected.countDown();
+					int staged = 0;
+					while (true) {
+						List<Autorisation> batch;
+						try {
+							batch = queue.take();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new IllegalStateException("Interrupted while staging", e);
+						}
+						if (batch == END) {
+							return staged;
+						}
+						insert(batch);
+						staged += batch.size();
+					}
+				}
+			});
+		}
+
+		private void insert(final List<Autorisation> batch) {
+			final int rowsPerStatement = AbstractAutorisationWriter.ROWS_PER_STATEMENT;
+			final int fullStatements = batch.size() / rowsPerStatement;
+			if (fullStatements > 0) {
+				jdbcTemplate.batchUpdate(FULL_INSERT_SQL, new BatchPreparedStatementSetter() {
+					@Override
+					public void setValues(PreparedStatement ps, int i) throws SQLException {
+						bind(ps, batch, i * rowsPerStatement, rowsPerStatement);
+					}
+
+					@Override
+					public int getBatchSize() {
+						return fullStatements;
+					}
+				});
+			}
+
+			final int remaining = batch.size() % rowsPerStatement;
+			if (remaining > 0) {
+				jdbcTemplate.update(insertSql(remaining), new PreparedStatementSetter() {
+					@Override
+					public void setValues(PreparedStatement ps) throws SQLException {
+						bind(ps, batch, fullStatements * rowsPerStatement, remaining);
+					}
+				});
+			}
+		}
+
+		private void bind(PreparedStatement ps, List<Autorisation> batch, int from, int count) throws SQLException {
+			int index = 1;
+			for (int i = from; i < from + count; i++) {
+				Autorisation autorisation = batch.get(i);
+				ps.setString(index++, autorisation.getAutorisationsnummer());
+				ps.setString(index++, autorisation.getCpr());
+				ps.setString(index++, autorisation.getFornavn());
+				ps.setString(index++, autorisation.getEfternavn());
+				ps.setString(index++, autorisation.getUddannelsesKode());
+			}
+		}
+	}
+}
@@ -0,0 +1,294 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.Date;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import com.google.common.base.Preconditions;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+import dk.nsi.sdm4.core.util.Dates;
+
+/**
+ * Writes the differences between a register and the valid rows of the Autorisation table like
+ * {@link DeltaAutorisationWriter}, but within a fixed heap budget.
+ * <p>
+ * The valid rows are read with a forward-only, streaming ResultSet into an {@link ExternalSorter}, which spills them
+ * to run files when they exceed the budget, and the register must be handed over in Autorisationsnummer order. The two
+ * sorted sequences are then merged one row at a time: a valid row that sorts before the next autorisation in the
+ * register is no longer in it and is closed. An Autorisationsnummer that comes twice is rejected.
+ * <p>
+ * autreg is not maintained incrementally from this writer, and it collects no {@link ChangeEvent}s, because the net
+ * changes could be as large as the register.
+ */
+public class SortedDeltaAutorisationWriter extends AbstractAutorisationWriter implements Closeable {
+	private static final Comparator<Autorisation> BY_AUTORISATIONSNUMMER = new Comparator<Autorisation>() {
+		@Override
+		public int compare(Autorisation a, Autorisation b) {
+			return a.getAutorisationsnummer().compareTo(b.getAutorisationsnummer());
+		}
+	};
+
+	private static final Comparator<CurrentAutorisation> CURRENT_BY_AUTORISATIONSNUMMER = new Comparator<CurrentAutorisation>() {
+		@Override
+		public int compare(CurrentAutorisation a, CurrentAutorisation b) {
+			return a.autorisationsnummer.compareTo(b.autorisationsnummer);
+		}
+	};
+
+	private static final ExternalSorter.Codec<CurrentAutorisation> CURRENT_CODEC = new ExternalSorter.Codec<CurrentAutorisation>() {
+		@Override
+		public void write(CurrentAutorisation row, DataOutputStream out) throws IOException {
+			out.writeLong(row.pid);
+			out.writeUTF(row.autorisationsnummer);
+			out.writeUTF(row.cpr);
+			out.writeUTF(row.fornavn);
+			out.writeUTF(row.efternavn);
+			out.writeInt(row.uddannelsesKode);
+		}
+
+		@Override
+		public CurrentAutorisation read(DataInputStream in) throws IOException {
+			return new CurrentAutorisation(in.readLong(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readInt());
+		}
+
+		@Override
+		public long heapBytes(CurrentAutorisation row) {
+			return 40 + stringBytes(row.autorisationsnummer) + stringBytes(row.cpr) + stringBytes(row.fornavn) + stringBytes(row.efternavn);
+		}
+	};
+
+	private final int batchSize;
+	private final ExternalSorter<CurrentAutorisation> currentSorter;
+	private final ExternalSorter.Cursor<CurrentAutorisation> currentRows;
+	private String lastAutorisationsnummer;
+
+	private boolean finished = false;
+	private int handled = 0;
+	private int added = 0;
+	private int changed = 0;
+	private int removed = 0;
+	private int validCount = 0;
+
+	/**
+	 * Reads and sorts the rows that are valid at {@code validFrom}.
+	 *
+	 * @param budgetBytes the heap the valid rows may take before they are spilled to {@code spillDirectory}
+	 */
+	public SortedDeltaAutorisationWriter(JdbcTemplate jdbcTemplate, Date validFrom, int batchSize, File spillDirectory, long budgetBytes) throws IOException {
+		super(jdbcTemplate, validFrom);
+		Preconditions.checkArgument(batchSize > 0, "batchSize must be positive, was %s", batchSize);
+		this.batchSize = batchSize;
+		this.currentSorter = new ExternalSorter<CurrentAutorisation>(spillDirectory, budgetBytes, CURRENT_BY_AUTORISATIONSNUMMER, CURRENT_CODEC);
+		try {
+			fetchCurrentRows();
+			this.currentRows = currentSorter.sorted();
+		} catch (IOException e) {
+			currentSorter.close();
+			throw e;
+		} catch (RuntimeException e) {
+			currentSorter.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return a sorter that puts the autorisationer of a register in the order {@link #handle(Autorisation)} needs them
+	 */
+	public static ExternalSorter<Autorisation> registerSorter(File spillDirectory, long budgetBytes, final Date validFrom) {
+		return new ExternalSorter<Autorisation>(spillDirectory, budgetBytes, BY_AUTORISATIONSNUMMER, new ExternalSorter.Codec<Autorisation>() {
+			@Override
+			public void write(Autorisation autorisation, DataOutputStream out) throws IOException {
+				out.writeUTF(autorisation.getAutorisationsnummer());
+				out.writeUTF(autorisation.getCpr());
+				out.writeUTF(autorisation.getFornavn());
+				out.writeUTF(autorisation.getEfternavn());
+				out.writeUTF(autorisation.getUddannelsesKode());
+			}
+
+			@Override
+			public Autorisation read(DataInputStream in) throws IOException {
+				Autorisation autorisation = new Autorisation();
+				autorisation.setAutorisationnummer(in.readUTF());
+				autorisation.setCpr(in.readUTF());
+				autorisation.setFornavn(in.readUTF());
+				autorisation.setEfternavn(in.readUTF());
+				autorisation.setUddannelsesKode(in.readUTF());
+				autorisation.setValidFrom(validFrom);
+				autorisation.setValidTo(Dates.THE_END_OF_TIME);
+				return autorisation;
+			}
+
+			@Override
+			public long heapBytes(Autorisation autorisation) {
+				// the validity dates are shared by all the rows
+				return 48 + stringBytes(autorisation.getAutorisationsnummer()) + stringBytes(autorisation.getCpr())
+						+ stringBytes(autorisation.getFornavn()) + stringBytes(autorisation.getEfternavn())
+						+ stringBytes(autorisation.getUddannelsesKode());
+			}
+		});
+	}
+
+	/**
+	 * Estimates the heap taken by a String, including its char array.
+	 */
+	private static long stringBytes(String value) {
+		return 40 + 2L * value.length();
+	}
+
+	@Override
+	public void handle(Autorisation autorisation) {
+		handled++;
+
+		String nummer = autorisation.getAutorisationsnummer();
+		if (lastAutorisationsnummer != null) {
+			int order = nummer.compareTo(lastAutorisationsnummer);
+			Preconditions.checkArgument(order != 0, "Autorisationsnummer %s occurs more than once", nummer);
+			Preconditions.checkArgument(order > 0, "Autorisationsnummer %s comes after %s, but the register must be sorted", nummer, lastAutorisationsnummer);
+		}
+		lastAutorisationsnummer = nummer;
+
+		closeRowsBefore(nummer);
+		CurrentAutorisation next = currentRows.peek();
+		CurrentAutorisation current = next != null && next.autorisationsnummer.equals(nummer) ? currentRows.next() : null;
+		if (current == null) {
+			insert(autorisation);
+			added++;
+		} else if (!current.hasSameContentAs(autorisation)) {
+			close(current.pid);
+			insert(autorisation);
+			changed++;
+		}
+		validCount++;
+
+		if (pendingCount() >= batchSize) {
+			writePending();
+		}
+	}
+
+	@Override
+	public int finish() {
+		closeRowsBefore(null);
+		writePending();
+		finished = true;
+		return handled;
+	}
+
+	/**
+	 * Deletes the run files of the valid rows.
+	 */
+	@Override
+	public void close() {
+		currentSorter.close();
+	}
+
+	/**
+	 * @return the number of autorisationer that are valid after the register, once {@link #finish()} has been called.
+	 */
+	public int getValidCount() {
+		Preconditions.checkState(finished, "finish() must be called before the valid count is known");
+		return validCount;
+	}
+
+	/**
+	 * @return the number of run files the valid rows were spilled to
+	 */
+	public int getSpilledRuns() {
+		return currentSorter.getRuns();
+	}
+
+	public int getHandled() {
+		return handled;
+	}
+
+	public int getAdded() {
+		return added;
+	}
+
+	public int getChanged() {
+		return changed;
+	}
+
+	public int getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * Closes the valid rows that sort before the Autorisationsnummer, or all the remaining ones if it is null.
+	 */
+	private void closeRowsBefore(String nummer) {
+		CurrentAutorisation next;
+		while ((next = currentRows.peek()) != null && (nummer == null || next.autorisationsnummer.compareTo(nummer) < 0)) {
+			currentRows.next();
+			close(next.pid);
+			removed++;
+
+			if (pendingCount() >= batchSize) {
+				writePending();
+			}
+		}
+	}
+
+	private void fetchCurrentRows() {
+		jdbcTemplate.query(new PreparedStatementCreator() {
+			@Override
+			public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+				PreparedStatement statement = connection.prepareStatement("SELECT " + CurrentAutorisation.COLUMNS + " FROM Autorisation " +
+						"WHERE ValidFrom < ? AND ValidTo > ?", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				// makes Connector/J hand over the rows as they arrive instead of reading the whole result first
+				statement.setFetchSize(Integer.MIN_VALUE);
+				statement.setTimestamp(1, validFrom);
+				statement.setTimestamp(2, validFrom);
+				return statement;
+			}
+		}, new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				// only the sorter is written to while the rows stream, as the connection cannot run other statements
+				try {
+					currentSorter.add(CurrentAutorisation.ROW_MAPPER.mapRow(rs, 0));
+				} catch (IOException e) {
+					throw new IllegalStateException("Unable to spill the valid autorisationer", e);
+				}
+			}
+		});
+	}
+}
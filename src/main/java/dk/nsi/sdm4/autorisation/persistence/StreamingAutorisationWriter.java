@@ -0,0 +1,124 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+
+/**
+ * Writes a complete register to the Autorisation table a chunk at a time, so only one chunk of the register
+ * is held in memory.
+ * <p>
+ * The semantics are those of {@link dk.nsi.sdm4.core.persistence.Persister#persistCompleteDataset}: autorisationer
+ * whose data is unchanged get their ModifiedDate updated, changed autorisationer get their current row closed and
+ * a new row inserted, and new autorisationer are inserted. When the whole register has been handled,
+ * {@link #finish()} closes every row that was valid but was not touched by this import, i.e. the autorisationer that are
+ * no longer in the register.
+ */
+public class StreamingAutorisationWriter extends AbstractAutorisationWriter {
+	private final int chunkSize;
+
+	private final List<Autorisation> chunk;
+	private int handled = 0;
+
+	public StreamingAutorisationWriter(JdbcTemplate jdbcTemplate, Date validFrom, int chunkSize) {
+		super(jdbcTemplate, validFrom);
+		Preconditions.checkArgument(chunkSize > 0, "chunkSize must be positive, was %s", chunkSize);
+		this.chunkSize = chunkSize;
+		this.chunk = new ArrayList<Autorisation>(chunkSize);
+	}
+
+	@Override
+	public void handle(Autorisation autorisation) {
+		chunk.add(autorisation);
+		handled++;
+		if (chunk.size() >= chunkSize) {
+			flush();
+		}
+	}
+
+	@Override
+	public int finish() {
+		flush();
+		jdbcTemplate.update("UPDATE Autorisation SET ValidTo = ?, ModifiedDate = ? WHERE ValidFrom < ? AND ValidTo > ? AND ModifiedDate < ?",
+				validFrom, transactionTime, validFrom, validFrom, transactionTime);
+		return handled;
+	}
+
+	private void flush() {
+		if (chunk.isEmpty()) {
+			return;
+		}
+
+		Map<String, CurrentAutorisation> currentRows = fetchCurrentRows();
+
+		for (Autorisation autorisation : chunk) {
+			CurrentAutorisation current = currentRows.get(autorisation.getAutorisationsnummer());
+			if (current != null && current.hasSameContentAs(autorisation)) {
+				touch(current.pid);
+			} else {
+				if (current != null) {
+					close(current.pid);
+				}
+				insert(autorisation);
+			}
+		}
+
+		writePending();
+
+		chunk.clear();
+	}
+
+	private Map<String, CurrentAutorisation> fetchCurrentRows() {
+		List<Object> args = new ArrayList<Object>(chunk.size() + 1);
+		for (Autorisation autorisation : chunk) {
+			args.add(autorisation.getAutorisationsnummer());
+		}
+		args.add(validFrom);
+
+		String placeholders = Joiner.on(", ").join(Collections.nCopies(chunk.size(), "?"));
+		List<CurrentAutorisation> rows = jdbcTemplate.query("SELECT " + CurrentAutorisation.COLUMNS + " FROM Autorisation " +
+				"WHERE Autorisationsnummer IN (" + placeholders + ") AND ValidTo > ?", CurrentAutorisation.ROW_MAPPER, args.toArray());
+
+		Map<String, CurrentAutorisation> result = new HashMap<String, CurrentAutorisation>();
+		for (CurrentAutorisation row : rows) {
+			result.put(row.autorisationsnummer, row);
+		}
+		return result;
+	}
+}
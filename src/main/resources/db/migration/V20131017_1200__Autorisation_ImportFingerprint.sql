@@ -0,0 +1,7 @@
+ALTER TABLE autorisationimporterImportStatus
+    ADD COLUMN Version DATETIME NULL,
+    ADD COLUMN ContentHash CHAR(64) NULL,
+    ADD COLUMN RecordDigest CHAR(64) NULL,
+    ADD COLUMN Records INT NULL,
+
+    ADD INDEX (Version);
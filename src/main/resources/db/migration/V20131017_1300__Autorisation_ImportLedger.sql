@@ -0,0 +1,12 @@
+CREATE TABLE IF NOT EXISTS autorisationimporterLedger (
+    Version DATETIME NOT NULL PRIMARY KEY,
+    ValidCount INT NOT NULL,
+    Records INT NOT NULL,
+    ContentHash CHAR(64) NOT NULL,
+    RecordDigest CHAR(64) NOT NULL,
+    ImportMode VARCHAR(20) NOT NULL,
+    Skipped TINYINT NOT NULL,
+    StartTime DATETIME NOT NULL,
+    EndTime DATETIME NOT NULL,
+    Phases VARCHAR(500)
+) ENGINE=InnoDB COLLATE=utf8_bin;
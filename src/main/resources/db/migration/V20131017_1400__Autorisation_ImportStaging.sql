@@ -0,0 +1,19 @@
+-- Holds the register being imported in CHUNKED mode until all of it has been staged and it is published
+CREATE TABLE IF NOT EXISTS autorisationimporterStaging (
+    Line INT NOT NULL PRIMARY KEY,
+
+    Autorisationsnummer CHAR(5) NOT NULL,
+    CPR CHAR(10) NOT NULL,
+    Fornavn VARCHAR(100) NOT NULL,
+    Efternavn VARCHAR(100) NOT NULL,
+    UddannelsesKode INT(4) NOT NULL
+) ENGINE=InnoDB COLLATE=utf8_bin;
+
+-- How far the staging of the version with the given file content has come
+CREATE TABLE IF NOT EXISTS autorisationimporterCheckpoint (
+    Version DATETIME NOT NULL PRIMARY KEY,
+    ContentHash CHAR(64) NOT NULL,
+    ByteOffset BIGINT NOT NULL,
+    StagedRows INT NOT NULL,
+    ModifiedDate DATETIME NOT NULL
+) ENGINE=InnoDB COLLATE=utf8_bin;
@@ -0,0 +1,38 @@
+-- Rows of Autorisation that were closed longer ago than spooler.autorisationimporter.archive.horizon.days.
+-- They keep their AutorisationPID, so a row has the same PID in both tables
+CREATE TABLE IF NOT EXISTS AutorisationHistory (
+    AutorisationPID BIGINT(15) NOT NULL PRIMARY KEY,
+
+    Autorisationsnummer CHAR(5) NOT NULL,
+
+    CPR CHAR(10) NOT NULL,
+    Fornavn VARCHAR(100) NOT NULL,
+    Efternavn VARCHAR(100) NOT NULL,
+    UddannelsesKode INT(4) NOT NULL,
+
+    CreatedDate DATETIME NOT NULL,
+    ModifiedDate DATETIME NOT NULL,
+    ValidFrom DATETIME NOT NULL,
+    ValidTo DATETIME NOT NULL,
+
+    INDEX (AutorisationPID, ModifiedDate),
+    INDEX (Autorisationsnummer, ValidTo, ValidFrom)
+) ENGINE=InnoDB COLLATE=utf8_bin;
+
+-- Lets the archiving find the closed rows without scanning Autorisation
+ALTER TABLE Autorisation ADD INDEX Autorisation_ValidTo (ValidTo);
+
+-- The archived rows are still available through the copy register, as their own datatype.
+-- The autorisation datatype is unchanged and keeps reading Autorisation
+INSERT IGNORE INTO SKRSViewMapping (register, datatype, version, tableName, createdDate)
+  VALUES ('autorisationsregisteret', 'autorisationhistory', 1, 'AutorisationHistory', NOW());
+INSERT IGNORE INTO SKRSColumns (viewMap, isPID, tableColumnName, feedColumnName, feedPosition, dataType, maxLength) VALUES
+((SELECT idSKRSViewMapping FROM SKRSViewMapping WHERE register='autorisationsregisteret' AND datatype='autorisationhistory' AND version=1), 1, 'AutorisationPID',                       NULL, 0,  -5, NULL),
+((SELECT idSKRSViewMapping FROM SKRSViewMapping WHERE register='autorisationsregisteret' AND datatype='autorisationhistory' AND version=1), 0, 'Autorisationsnummer',  'autorisationsnummer', 1,  12, NULL),
+((SELECT idSKRSViewMapping FROM SKRSViewMapping WHERE register='autorisationsregisteret' AND datatype='autorisationhistory' AND version=1), 0, 'CPR',                                  'cpr', 2,  12, NULL),
+((SELECT idSKRSViewMapping FROM SKRSViewMapping WHERE register='autorisationsregisteret' AND datatype='autorisationhistory' AND version=1), 0, 'Fornavn',                          'fornavn', 3,  12, NULL),
+((SELECT idSKRSViewMapping FROM SKRSViewMapping WHERE register='autorisationsregisteret' AND datatype='autorisationhistory' AND version=1), 0, 'Efternavn',                      'efternavn', 4,  12, NULL),
+((SELECT idSKRSViewMapping FROM SKRSViewMapping WHERE register='autorisationsregisteret' AND datatype='autorisationhistory' AND version=1), 0, 'UddannelsesKode',          'uddannelseskode', 5,  4,  NULL),
+((SELECT idSKRSViewMapping FROM SKRSViewMapping WHERE register='autorisationsregisteret' AND datatype='autorisationhistory' AND version=1), 0, 'ModifiedDate',                          NULL, 0,  93, NULL),
+((SELECT idSKRSViewMapping FROM SKRSViewMapping WHERE register='autorisationsregisteret' AND datatype='autorisationhistory' AND version=1), 0, 'ValidFrom',                      'validFrom', 6,  93, NULL),
+((SELECT idSKRSViewMapping FROM SKRSViewMapping WHERE register='autorisationsregisteret' AND datatype='autorisationhistory' AND version=1), 0, 'ValidTo',                          'validTo', 7,  93, NULL);
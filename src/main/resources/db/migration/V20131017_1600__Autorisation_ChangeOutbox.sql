@@ -0,0 +1,22 @@
+-- The autorisationer added, removed and modified by each imported version, in the order they were written.
+-- Before* is empty for an added autorisation and After* for a removed one
+CREATE TABLE IF NOT EXISTS autorisationimporterOutbox (
+    Sequence BIGINT AUTO_INCREMENT NOT NULL PRIMARY KEY,
+    Version DATETIME NOT NULL,
+    ChangeType VARCHAR(8) NOT NULL,
+    Autorisationsnummer CHAR(5) NOT NULL,
+
+    BeforeCPR CHAR(10),
+    BeforeFornavn VARCHAR(100),
+    BeforeEfternavn VARCHAR(100),
+    BeforeUddannelsesKode INT(4),
+
+    AfterCPR CHAR(10),
+    AfterFornavn VARCHAR(100),
+    AfterEfternavn VARCHAR(100),
+    AfterUddannelsesKode INT(4),
+
+    CreatedDate DATETIME NOT NULL,
+
+    INDEX (Version, Sequence)
+) ENGINE=InnoDB COLLATE=utf8_bin;
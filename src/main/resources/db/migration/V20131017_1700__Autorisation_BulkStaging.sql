@@ -0,0 +1,8 @@
+-- Holds the register being imported in BULK mode while it is merged into Autorisation, in the import's transaction
+CREATE TABLE IF NOT EXISTS autorisationimporterBulk (
+    Autorisationsnummer CHAR(5) NOT NULL PRIMARY KEY,
+    CPR CHAR(10) NOT NULL,
+    Fornavn VARCHAR(100) NOT NULL,
+    Efternavn VARCHAR(100) NOT NULL,
+    UddannelsesKode INT(4) NOT NULL
+) ENGINE=InnoDB COLLATE=utf8_bin;
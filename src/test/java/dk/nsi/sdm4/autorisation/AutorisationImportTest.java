@@ -26,27 +26,58 @@
  */
 package dk.nsi.sdm4.autorisation;
 
+import dk.nsi.sdm4.autorisation.lookup.AutorisationLookup;
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+import dk.nsi.sdm4.autorisation.parser.AutorisationParser;
+import dk.nsi.sdm4.autorisation.parser.ImportMode;
+import dk.nsi.sdm4.autorisation.parser.RegisterFingerprint;
+import dk.nsi.sdm4.autorisation.persistence.AutorisationArchiver;
+import dk.nsi.sdm4.autorisation.persistence.AutregUpdater;
+import dk.nsi.sdm4.autorisation.persistence.ChangeEvent;
+import dk.nsi.sdm4.autorisation.persistence.ChangeOutbox;
+import dk.nsi.sdm4.autorisation.persistence.ImportStaging;
 import dk.nsi.sdm4.core.parser.Parser;
+import dk.nsi.sdm4.core.parser.ParserException;
 import dk.nsi.sdm4.testutils.TestDbConfiguration;
 import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.File;
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 import static org.apache.commons.io.FileUtils.toFile;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @Transactional
@@ -62,10 +93,314 @@ public class AutorisationImportTest {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private AutorisationLookup autorisationLookup;
+
+    @Autowired
+    private AutorisationParser autorisationParser;
+
+    @Autowired
+    private ImportStaging importStaging;
+
+    @Autowired
+    private AutorisationArchiver autorisationArchiver;
+
+    @Autowired
+    private AutregUpdater autregUpdater;
+
+    @Autowired
+    private ChangeOutbox changeOutbox;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @Test
     public void testCanImport() throws IOException, InterruptedException {
+        assertCanImportTwoVersions();
+
+        // the test transaction never commits, so the index is loaded from what this transaction sees
+        assertEquals(5, autorisationLookup.getIndex().size());
+        assertEquals("0101280063", autorisationLookup.findByAutorisationsnummer("0013H").get(0).getCpr());
+    }
+
+    @Test
+    public void testCanImportStreaming() throws IOException, InterruptedException {
+        ReflectionTestUtils.setField(parser, "importMode", ImportMode.STREAMING);
+        try {
+            assertCanImportTwoVersions();
+        } finally {
+            ReflectionTestUtils.setField(parser, "importMode", ImportMode.COMPLETE);
+        }
+    }
+
+    @Test
+    public void testCanImportDelta() throws IOException, InterruptedException {
+        ReflectionTestUtils.setField(parser, "importMode", ImportMode.DELTA);
+        try {
+            assertCanImportTwoVersions();
+
+            // 0013H is the same in both files, so its row must not have been touched by the second import
+            Timestamp unchanged = jdbcTemplate.queryForObject("SELECT ModifiedDate FROM Autorisation WHERE Autorisationsnummer = '0013H'", Timestamp.class);
+            Timestamp added = jdbcTemplate.queryForObject("SELECT ModifiedDate FROM Autorisation WHERE Autorisationsnummer = '0013L'", Timestamp.class);
+            assertTrue(unchanged.before(added));
+        } finally {
+            ReflectionTestUtils.setField(parser, "importMode", ImportMode.COMPLETE);
+        }
+    }
+
+    @Test
+    public void testCanImportDeltaWithinAMemoryBudget() throws IOException, InterruptedException {
+        ReflectionTestUtils.setField(parser, "importMode", ImportMode.DELTA);
+        ReflectionTestUtils.setField(parser, "spillBudgetMb", 1);
+        try {
+            assertCanImportTwoVersions();
+        } finally {
+            ReflectionTestUtils.setField(parser, "importMode", ImportMode.COMPLETE);
+            ReflectionTestUtils.setField(parser, "spillBudgetMb", 0);
+        }
+    }
+
+    @Test
+    public void testCanImportChunked() throws IOException, InterruptedException {
+        ReflectionTestUtils.setField(parser, "importMode", ImportMode.CHUNKED);
+        try {
+            assertCanImportTwoVersions();
+            assertEquals(0, jdbcTemplate.queryForLong("SELECT count(1) FROM autorisationimporterStaging"));
+        } finally {
+            ReflectionTestUtils.setField(parser, "importMode", ImportMode.COMPLETE);
+        }
+    }
+
+    @Test
+    public void testCanImportBulk() throws IOException, InterruptedException {
+        ReflectionTestUtils.setField(parser, "importMode", ImportMode.BULK);
+        try {
+            assertCanImportTwoVersions();
+
+            // like a delta, 0013H is the same in both files and its row is not touched by the second import
+            Timestamp unchanged = jdbcTemplate.queryForObject("SELECT ModifiedDate FROM Autorisation WHERE Autorisationsnummer = '0013H'", Timestamp.class);
+            Timestamp added = jdbcTemplate.queryForObject("SELECT ModifiedDate FROM Autorisation WHERE Autorisationsnummer = '0013L'", Timestamp.class);
+            assertTrue(unchanged.before(added));
+            assertEquals(0, jdbcTemplate.queryForLong("SELECT count(1) FROM autorisationimporterBulk"));
+        } finally {
+            ReflectionTestUtils.setField(parser, "importMode", ImportMode.COMPLETE);
+        }
+    }
+
+    // The writers stage and commit on their own connections, which would wait for the locks a test transaction around
+    // both imports keeps on autorisationimporterBulk. Each import commits in its own transaction, like in the spooler.
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void testCanImportParallel() throws IOException {
+        ReflectionTestUtils.setField(parser, "importMode", ImportMode.PARALLEL);
+        try {
+            importCommitted("data/aut/valid/20090915AutDK.csv");
+            importCommitted("data/aut/valid/20090918AutDK.csv");
+
+            // the merge in the import's transaction sees the rows the writers committed
+            assertEquals(6, jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation"));
+            assertEquals(5, jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation WHERE ValidTo > NOW()"));
+            assertEquals(5, jdbcTemplate.queryForLong("SELECT count(1) FROM autreg"));
+            assertEquals(0, jdbcTemplate.queryForLong("SELECT count(1) FROM autorisationimporterBulk"));
+        } finally {
+            ReflectionTestUtils.setField(parser, "importMode", ImportMode.COMPLETE);
+            deleteCommittedImports();
+        }
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void aFailedParallelWriterPublishesNothing() throws IOException {
+        JdbcTemplate failingWriter = spy(jdbcTemplate);
+        // the first writer to stage its rows fails, the others commit theirs
+        doAnswer(new Answer<Integer>() {
+            private final AtomicBoolean failed = new AtomicBoolean();
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                if (failed.compareAndSet(false, true)) {
+                    throw new DataIntegrityViolationException("Duplicate entry");
+                }
+                return (Integer) invocation.callRealMethod();
+            }
+        }).when(failingWriter).update(startsWith("INSERT INTO autorisationimporterBulk"), any(PreparedStatementSetter.class));
+
+        ReflectionTestUtils.setField(parser, "importMode", ImportMode.PARALLEL);
+        try {
+            importCommitted("data/aut/valid/20090915AutDK.csv");
+            ReflectionTestUtils.setField(parser, "jdbcTemplate", failingWriter);
+            try {
+                importCommitted("data/aut/valid/20090918AutDK.csv");
+                fail("Expected the import to fail with the writer");
+            } catch (ParserException e) {
+                // expected
+            }
+
+            assertEquals(4, jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation"));
+            assertEquals(0, jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation WHERE Autorisationsnummer = '0013L'"));
+            assertEquals(4, jdbcTemplate.queryForLong("SELECT count(1) FROM autreg"));
+            assertEquals(new DateTime(2009, 9, 15, 0, 0).toDate().getTime(),
+                    jdbcTemplate.queryForObject("SELECT MAX(Version) FROM autorisationimporterLedger", Timestamp.class).getTime());
+        } finally {
+            ReflectionTestUtils.setField(parser, "jdbcTemplate", jdbcTemplate);
+            ReflectionTestUtils.setField(parser, "importMode", ImportMode.COMPLETE);
+            deleteCommittedImports();
+        }
+    }
+
+    @Test
+    public void chunkedImportResumesFromTheLastCheckpoint() throws IOException {
+        File file = getFile("data/aut/valid/20090915AutDK.csv");
+        DateTime version = new DateTime(2009, 9, 15, 0, 0);
+        String contentHash = RegisterFingerprint.of(file).getContentHash();
+        // a previous attempt committed the first chunk and then failed; 0013F is the first line of the file
+        Autorisation first = autorisationParser.parse(file, version).getEntityById("0013F");
+        ImportStaging.Checkpoint checkpoint = importStaging.resume(version, contentHash);
+        importStaging.stageChunk(checkpoint, Collections.singletonList(first), FileUtils.readLines(file, "ISO8859-15").get(0).length() + 1);
+
+        ReflectionTestUtils.setField(parser, "importMode", ImportMode.CHUNKED);
+        try {
+            process(createTestDataset("data/aut/valid/20090915AutDK.csv"));
+        } finally {
+            ReflectionTestUtils.setField(parser, "importMode", ImportMode.COMPLETE);
+        }
+
+        assertEquals(4, jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation"));
+        assertEquals(1, jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation WHERE Autorisationsnummer = '0013F'"));
+        assertEquals(0, jdbcTemplate.queryForLong("SELECT count(1) FROM autorisationimporterCheckpoint"));
+    }
+
+    @Test
+    public void fileWithUnchangedContentOnlyAdvancesTheVersion() throws IOException, InterruptedException {
+        process(createTestDataset("data/aut/valid/20090915AutDK.csv"));
+        Timestamp modifiedDate = jdbcTemplate.queryForObject("SELECT MAX(ModifiedDate) FROM Autorisation", Timestamp.class);
+        Thread.sleep(1000);
+
+        process(createTestDataset("data/aut/unchanged/20090916AutDK.csv"));
+
+        assertEquals(4, jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation"));
+        assertEquals(modifiedDate, jdbcTemplate.queryForObject("SELECT MAX(ModifiedDate) FROM Autorisation", Timestamp.class));
+        assertEquals(4, jdbcTemplate.queryForLong("SELECT count(1) FROM autreg"));
+
+        // the version was advanced, so the first file is now out of order
+        try {
+            process(createTestDataset("data/aut/valid/20090915AutDK.csv"));
+            fail("Expected the import of an older version to fail");
+        } catch (ParserException e) {
+            assertTrue(e.getMessage().contains("out of order"));
+        }
+    }
+
+    @Test
+    public void catchUpAppliesSeveralVersionsInOneRun() throws IOException {
+        ReflectionTestUtils.setField(parser, "catchUp", true);
+        try {
+            // 0013L is inserted by the second version and changed by the third, so its row is closed by the catch-up state
+            process(createTestDataset("data/aut/catchup/20090920AutDK.csv", "data/aut/valid/20090918AutDK.csv",
+                    "data/aut/valid/20090915AutDK.csv"));
+        } finally {
+            ReflectionTestUtils.setField(parser, "catchUp", false);
+        }
+
+        assertEquals(7, jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation"));
+        assertEquals(5, jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation WHERE ValidTo > NOW()"));
+        assertEquals(5, jdbcTemplate.queryForLong("SELECT count(1) FROM autreg"));
+        assertEquals(new DateTime(2009, 9, 18, 0, 0).toDate().getTime(), jdbcTemplate.queryForObject(
+                "SELECT ValidTo FROM Autorisation WHERE Autorisationsnummer = '0013F'", Timestamp.class).getTime());
+        assertEquals(new DateTime(2009, 9, 20, 0, 0).toDate().getTime(), jdbcTemplate.queryForObject(
+                "SELECT ValidTo FROM Autorisation WHERE Autorisationsnummer = '0013L' AND Fornavn = 'Eli'", Timestamp.class).getTime());
+        assertEquals(1, jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation WHERE Autorisationsnummer = '0013H'"));
+        assertEquals(3, jdbcTemplate.queryForLong("SELECT count(1) FROM autorisationimporterLedger"));
+        assertEquals(4, jdbcTemplate.queryForInt("SELECT ValidCount FROM autorisationimporterLedger WHERE Version = '2009-09-15'"));
+    }
+
+    @Test
+    public void catchUpWithinAMemoryBudgetAppliesSeveralVersionsInOneRun() throws IOException {
+        ReflectionTestUtils.setField(parser, "catchUp", true);
+        ReflectionTestUtils.setField(parser, "spillBudgetMb", 1);
+        try {
+            process(createTestDataset("data/aut/catchup/20090920AutDK.csv", "data/aut/valid/20090918AutDK.csv",
+                    "data/aut/valid/20090915AutDK.csv"));
+        } finally {
+            ReflectionTestUtils.setField(parser, "catchUp", false);
+            ReflectionTestUtils.setField(parser, "spillBudgetMb", 0);
+        }
+
+        // the same rows as when the versions are diffed in memory
+        assertEquals(7, jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation"));
+        assertEquals(5, jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation WHERE ValidTo > NOW()"));
+        assertEquals(5, jdbcTemplate.queryForLong("SELECT count(1) FROM autreg"));
+        assertEquals(new DateTime(2009, 9, 20, 0, 0).toDate().getTime(), jdbcTemplate.queryForObject(
+                "SELECT ValidTo FROM Autorisation WHERE Autorisationsnummer = '0013L' AND Fornavn = 'Eli'", Timestamp.class).getTime());
+        assertEquals(4, jdbcTemplate.queryForInt("SELECT ValidCount FROM autorisationimporterLedger WHERE Version = '2009-09-15'"));
+    }
+
+    @Test
+    public void reconcileRepairsAutregAfterIncrementalUpdates() throws IOException, InterruptedException {
+        ReflectionTestUtils.setField(parser, "importMode", ImportMode.DELTA);
+        try {
+            // the second import updates autreg incrementally
+            assertCanImportTwoVersions();
+        } finally {
+            ReflectionTestUtils.setField(parser, "importMode", ImportMode.COMPLETE);
+        }
+        assertEquals(0, autregUpdater.reconcile());
+
+        jdbcTemplate.update("DELETE FROM autreg WHERE aut_id = '0013H'");
+        jdbcTemplate.update("UPDATE autreg SET surname = 'Forkert' WHERE aut_id = '0013J'");
+
+        assertEquals(5, autregUpdater.reconcile());
+        assertEquals(5, jdbcTemplate.queryForLong("SELECT count(1) FROM autreg"));
+        assertEquals(0, jdbcTemplate.queryForLong("SELECT count(1) FROM autreg WHERE surname = 'Forkert'"));
+    }
+
+    @Test
+    public void deltaImportWritesTheChangesToTheOutbox() throws IOException, InterruptedException {
+        ReflectionTestUtils.setField(parser, "importMode", ImportMode.DELTA);
+        ReflectionTestUtils.setField(changeOutbox, "enabled", true);
+        try {
+            assertCanImportTwoVersions();
+        } finally {
+            ReflectionTestUtils.setField(parser, "importMode", ImportMode.COMPLETE);
+            ReflectionTestUtils.setField(changeOutbox, "enabled", false);
+        }
+
+        assertEquals(4 + 3, changeOutbox.eventsAfter(new DateTime(2009, 9, 14, 0, 0).toDate(), 0, 100).size());
+
+        // replaying from the first version gives the changes of the second
+        List<ChangeEvent> events = changeOutbox.eventsAfter(new DateTime(2009, 9, 15, 0, 0).toDate(), 0, 100);
+        assertEquals(3, events.size());
+        // the next page starts after the last event of this one
+        List<ChangeEvent> page = changeOutbox.eventsAfter(new DateTime(2009, 9, 15, 0, 0).toDate(), events.get(0).getSequence(), 1);
+        assertEquals(1, page.size());
+        assertEquals(events.get(1).format(), page.get(0).format());
+        assertEquals("20090918;ADDED;0013L;;;;;0101290565;Heering;Eli;7170", events.get(0).format());
+        assertEquals(ChangeEvent.Type.REMOVED, events.get(2).getType());
+        assertEquals("0013F", events.get(2).getAutorisationsnummer());
+    }
+
+    @Test
+    public void archivesRowsClosedBeforeTheHorizon() throws IOException, InterruptedException {
+        assertCanImportTwoVersions();
+
+        ReflectionTestUtils.setField(autorisationArchiver, "horizonDays", 1);
+        try {
+            // 0013F was closed on the 18th, which is before the horizon of the 20th, 0013L/Eli is closed on the 20th
+            process(createTestDataset("data/aut/catchup/20090920AutDK.csv"));
+        } finally {
+            ReflectionTestUtils.setField(autorisationArchiver, "horizonDays", 0);
+        }
+
+        assertEquals(6, jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation"));
+        assertEquals(0, jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation WHERE Autorisationsnummer = '0013F'"));
+        assertEquals(1, jdbcTemplate.queryForLong("SELECT count(1) FROM AutorisationHistory WHERE Autorisationsnummer = '0013F'"));
+        assertEquals(1, jdbcTemplate.queryForLong("SELECT count(1) FROM AutorisationHistory"));
+        assertEquals(5, jdbcTemplate.queryForLong("SELECT count(1) FROM autreg"));
+    }
+
+    private void assertCanImportTwoVersions() throws IOException, InterruptedException {
         File dataset = createTestDataset("data/aut/valid/20090915AutDK.csv");
-        parser.process(dataset, "id");
+        process(dataset);
         long cnt = jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation");
         assertEquals(4, cnt);
         Thread.sleep(1000);
@@ -76,11 +411,12 @@ public class AutorisationImportTest {
 
         // Import another file and check validTo is set correctly and modified date is updated
         dataset = createTestDataset("data/aut/valid/20090918AutDK.csv");
-        parser.process(dataset, "id");
+        process(dataset);
         cnt = jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation");
         assertEquals(6, cnt);
         cnt = jdbcTemplate.queryForLong("SELECT count(1) FROM Autorisation WHERE ValidTo>=?", new Timestamp(now.getTime()));
         assertEquals(5, cnt);
+        assertEquals(5, jdbcTemplate.queryForLong("SELECT count(1) FROM autreg"));
 
         Timestamp modifiedDate2 =
                 jdbcTemplate.queryForObject("SELECT ModifiedDate FROM Autorisation ORDER BY ModifiedDate DESC LIMIT 1", Timestamp.class);
@@ -88,9 +424,37 @@ public class AutorisationImportTest {
         assertFalse(modifiedDate1.equals(modifiedDate2));
     }
 
-    private File createTestDataset(String filename) throws IOException {
+    private void importCommitted(String filename) throws IOException {
+        final File dataset = createTestDataset(filename);
+        new TransactionTemplate(transactionManager).execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                process(dataset);
+            }
+        });
+    }
+
+    private void deleteCommittedImports() {
+        for (String table : new String[] {"Autorisation", "AutorisationHistory", "autreg", "autorisationimporterLedger",
+                "autorisationimporterImportStatus", "autorisationimporterBulk", "autorisationimporterOutbox"}) {
+            jdbcTemplate.update("DELETE FROM " + table);
+        }
+    }
+
+    /**
+     * Imports like the ParserExecutor, which opens a status row before it calls the parser and closes it afterwards.
+     */
+    private void process(File dataset) {
+        jdbcTemplate.update("INSERT INTO autorisationimporterImportStatus (StartTime) VALUES (NOW())");
+        parser.process(dataset, "id");
+        jdbcTemplate.update("UPDATE autorisationimporterImportStatus SET EndTime = NOW(), Outcome = 'SUCCESS' WHERE EndTime IS NULL");
+    }
+
+    private File createTestDataset(String... filenames) throws IOException {
         File dataset = temp.newFolder();
-        FileUtils.copyFileToDirectory(getFile(filename), dataset);
+        for (String filename : filenames) {
+            FileUtils.copyFileToDirectory(getFile(filename), dataset);
+        }
         return dataset;
     }
 
@@ -26,7 +26,16 @@
  */
 package dk.nsi.sdm4.autorisation;
 
+import dk.nsi.sdm4.autorisation.lookup.AutorisationLookup;
+import dk.nsi.sdm4.autorisation.metrics.ImportStatistics;
 import dk.nsi.sdm4.autorisation.parser.AutorisationParser;
+import dk.nsi.sdm4.autorisation.parser.InputWatcher;
+import dk.nsi.sdm4.autorisation.persistence.AutorisationArchiver;
+import dk.nsi.sdm4.autorisation.persistence.AutregUpdater;
+import dk.nsi.sdm4.autorisation.persistence.ChangeOutbox;
+import dk.nsi.sdm4.autorisation.persistence.ImportFingerprints;
+import dk.nsi.sdm4.autorisation.persistence.ImportLedger;
+import dk.nsi.sdm4.autorisation.persistence.ImportStaging;
 import dk.nsi.sdm4.core.parser.Parser;
 import dk.nsi.sdm4.core.persistence.AuditingPersister;
 import dk.nsi.sdm4.core.persistence.Persister;
@@ -51,6 +60,51 @@ public class AutorisationParserTestConfig {
         return new AuditingPersister();
     }
 
+    @Bean
+    public AutregUpdater autregUpdater() {
+        return new AutregUpdater();
+    }
+
+    @Bean
+    public ImportFingerprints importFingerprints() {
+        return new ImportFingerprints();
+    }
+
+    @Bean
+    public AutorisationLookup autorisationLookup() {
+        return new AutorisationLookup();
+    }
+
+    @Bean
+    public ImportLedger importLedger() {
+        return new ImportLedger();
+    }
+
+    @Bean
+    public ImportStaging importStaging() {
+        return new ImportStaging();
+    }
+
+    @Bean
+    public AutorisationArchiver autorisationArchiver() {
+        return new AutorisationArchiver();
+    }
+
+    @Bean
+    public ChangeOutbox changeOutbox() {
+        return new ChangeOutbox();
+    }
+
+    @Bean
+    public InputWatcher inputWatcher() {
+        return new InputWatcher();
+    }
+
+    @Bean
+    public ImportStatistics importStatistics() {
+        return new ImportStatistics();
+    }
+
     @Bean
     public SLALogger slaLogger() {
         return new SLALoggerDummyImpl();
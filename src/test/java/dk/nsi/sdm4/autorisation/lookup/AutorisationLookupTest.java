@@ -0,0 +1,133 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.lookup;
+
+import dk.nsi.sdm4.autorisation.model.CompactRegister;
+import dk.nsi.sdm4.autorisation.persistence.ImportLedger;
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AutorisationLookupTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void servesThePublishedIndexFromTheSnapshotAfterARestart() {
+		File snapshot = new File(folder.getRoot(), "lookup.snapshot");
+		Date version = new DateTime(2009, 9, 15, 0, 0).toDate();
+		AutorisationLookup beforeRestart = lookup(snapshot);
+		beforeRestart.publish(new HeapAutorisationIndex(new CompactRegister.Builder(version)
+				.add("0013H", "0101280063", "Johnsen", "Tage Søgaard", "7170")
+				.build()), version);
+		assertTrue(snapshot.exists());
+
+		// no JdbcTemplate, so the lookup can only be answered from the snapshot
+		AutorisationLookup afterRestart = lookup(snapshot);
+		when(afterRestart.importLedger.lastVersion()).thenReturn(new Timestamp(version.getTime()));
+		afterRestart.mapSnapshot();
+
+		assertTrue(afterRestart.getIndex() instanceof MappedAutorisationIndex);
+		assertEquals("Tage Søgaard", afterRestart.findByCpr("0101280063").get(0).getFornavn());
+	}
+
+	@Test
+	public void loadsTheIndexFromTheDatabaseWhenTheSnapshotIsOutdated() {
+		File snapshot = new File(folder.getRoot(), "lookup.snapshot");
+		Date version = new DateTime(2009, 9, 15, 0, 0).toDate();
+		lookup(snapshot).publish(new HeapAutorisationIndex(new CompactRegister.Builder(version)
+				.add("0013H", "0101280063", "Johnsen", "Tage Søgaard", "7170")
+				.build()), version);
+
+		// a later import was committed, but its snapshot was not written
+		AutorisationLookup afterRestart = lookup(snapshot);
+		afterRestart.jdbcTemplate = mock(JdbcTemplate.class);
+		when(afterRestart.importLedger.lastVersion()).thenReturn(new DateTime(2009, 9, 16, 0, 0).toDate());
+		afterRestart.mapSnapshot();
+
+		assertTrue(afterRestart.getIndex() instanceof HeapAutorisationIndex);
+		verify(afterRestart.jdbcTemplate).query(anyString(), any(RowCallbackHandler.class));
+	}
+
+	@Test
+	public void leavesRowsThatCannotBeIndexedOutOfTheIndex() throws SQLException {
+		final ResultSet rs = mock(ResultSet.class);
+		when(rs.getString(1)).thenReturn("0013H", "0013J");
+		// a legacy row with a CPR the compact register cannot pack
+		when(rs.getString(2)).thenReturn("0101280063", "01012800");
+		when(rs.getString(3)).thenReturn("Johnsen", "Jensen");
+		when(rs.getString(4)).thenReturn("Tage", "Ib");
+		when(rs.getString(5)).thenReturn("7170", "7170");
+		JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				RowCallbackHandler handler = (RowCallbackHandler) invocation.getArguments()[1];
+				handler.processRow(rs);
+				handler.processRow(rs);
+				return null;
+			}
+		}).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class));
+
+		AutorisationLookup lookup = lookup(new File(folder.getRoot(), "lookup.snapshot"));
+		lookup.jdbcTemplate = jdbcTemplate;
+		DateTime version = new DateTime(2009, 9, 15, 0, 0);
+		lookup.rebuild(version);
+
+		assertEquals(1, lookup.getIndex().size());
+		// the index carries the version it was published for
+		assertEquals(version.toDate(), lookup.findByCpr("0101280063").get(0).getValidFrom());
+	}
+
+	private AutorisationLookup lookup(File snapshot) {
+		AutorisationLookup lookup = new AutorisationLookup();
+		lookup.importLedger = mock(ImportLedger.class);
+		ReflectionTestUtils.setField(lookup, "snapshotFile", snapshot);
+		return lookup;
+	}
+}
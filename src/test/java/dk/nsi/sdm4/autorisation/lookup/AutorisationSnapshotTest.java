@@ -0,0 +1,114 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.lookup;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+import dk.nsi.sdm4.autorisation.model.CompactRegister;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AutorisationSnapshotTest {
+	private static final Date VERSION = new Date(1253052000000L);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final HeapAutorisationIndex heap = new HeapAutorisationIndex(new CompactRegister.Builder(VERSION)
+			.add("0013H", "0101280063", "Johnsen", "Tage Søgaard", "7170")
+			.add("0013F", "0101251489", "Bondo", "Jørgen", "7170")
+			.add("ÅÆØ12", "0101251489", "Bondo", "Jørgen", "5166")
+			.add("0013J", "0101280551", "Bertelsen", "Svend Christian", "7170")
+			.build());
+
+	@Test
+	public void mappedSnapshotAnswersLikeTheIndexItWasWrittenFrom() throws IOException {
+		File file = new File(folder.getRoot(), "lookup.snapshot");
+		AutorisationSnapshot.write(heap, VERSION, file);
+
+		MappedAutorisationIndex mapped = AutorisationSnapshot.map(file);
+
+		assertEquals(VERSION, mapped.getVersion());
+		assertEquals(4, mapped.size());
+		assertSame(heap.findByCpr("0101251489"), mapped.findByCpr("0101251489"));
+		assertSame(heap.findByCpr("0101280551"), mapped.findByCpr("0101280551"));
+		assertSame(heap.findByAutorisationsnummer("ÅÆØ12"), mapped.findByAutorisationsnummer("ÅÆØ12"));
+		assertSame(heap.findByAutorisationsnummer("0013H"), mapped.findByAutorisationsnummer("0013H"));
+		assertTrue(mapped.findByCpr("0101280064").isEmpty());
+		assertTrue(mapped.findByAutorisationsnummer("0013G").isEmpty());
+	}
+
+	@Test
+	public void rejectsACorruptSnapshot() throws IOException {
+		File file = new File(folder.getRoot(), "lookup.snapshot");
+		AutorisationSnapshot.write(heap, VERSION, file);
+		RandomAccessFile corrupt = new RandomAccessFile(file, "rw");
+		try {
+			corrupt.seek(file.length() - 1);
+			corrupt.write('x');
+		} finally {
+			corrupt.close();
+		}
+
+		try {
+			AutorisationSnapshot.map(file);
+			fail("Expected the checksum to be wrong");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("checksum"));
+		}
+	}
+
+	@Test
+	public void snapshotOfAnEmptyRegisterCanBeMapped() throws IOException {
+		File file = new File(folder.getRoot(), "lookup.snapshot");
+		AutorisationSnapshot.write(new HeapAutorisationIndex(new CompactRegister.Builder(VERSION).build()), VERSION, file);
+
+		assertEquals(0, AutorisationSnapshot.map(file).size());
+		assertTrue(AutorisationSnapshot.map(file).findByCpr("0101280063").isEmpty());
+	}
+
+	private void assertSame(List<Autorisation> expected, List<Autorisation> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getAutorisationsnummer(), actual.get(i).getAutorisationsnummer());
+			assertEquals(expected.get(i).getCpr(), actual.get(i).getCpr());
+			assertEquals(expected.get(i).getEfternavn(), actual.get(i).getEfternavn());
+			assertEquals(expected.get(i).getFornavn(), actual.get(i).getFornavn());
+			assertEquals(expected.get(i).getUddannelsesKode(), actual.get(i).getUddannelsesKode());
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.lookup;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+import dk.nsi.sdm4.autorisation.model.CompactRegister;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HeapAutorisationIndexTest {
+	private final AutorisationIndex index = new HeapAutorisationIndex(new CompactRegister.Builder(new Date())
+			.add("0013H", "0101280063", "Johnsen", "Tage Søgaard", "7170")
+			.add("0013F", "0101251489", "Bondo", "Jørgen", "7170")
+			.add("ÅÆØ12", "0101251489", "Bondo", "Jørgen", "5166")
+			.add("0013J", "0101280551", "Bertelsen", "Svend Christian", "7170")
+			.build());
+
+	@Test
+	public void findsAllAutorisationerForACpr() {
+		List<Autorisation> found = index.findByCpr("0101251489");
+
+		assertEquals(2, found.size());
+		assertEquals("Bondo", found.get(0).getEfternavn());
+		assertTrue(found.get(0).getAutorisationsnummer().equals("0013F") || found.get(1).getAutorisationsnummer().equals("0013F"));
+		assertTrue(found.get(0).getAutorisationsnummer().equals("ÅÆØ12") || found.get(1).getAutorisationsnummer().equals("ÅÆØ12"));
+	}
+
+	@Test
+	public void findsByAutorisationsnummer() {
+		assertEquals("0101280063", index.findByAutorisationsnummer("0013H").get(0).getCpr());
+		assertEquals("5166", index.findByAutorisationsnummer("ÅÆØ12").get(0).getUddannelsesKode());
+	}
+
+	@Test
+	public void findsNothingForUnknownOrMalformedKeys() {
+		assertTrue(index.findByCpr("0101280064").isEmpty());
+		assertTrue(index.findByCpr("not a cpr").isEmpty());
+		assertTrue(index.findByAutorisationsnummer("0013G").isEmpty());
+		assertTrue(index.findByAutorisationsnummer("0013HHHHHHH").isEmpty());
+	}
+}
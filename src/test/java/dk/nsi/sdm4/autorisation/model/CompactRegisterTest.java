@@ -0,0 +1,133 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.model;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompactRegisterTest {
+	private final Date validFrom = new Date();
+
+	@Test
+	public void givesBackTheValuesOfEachRow() {
+		CompactRegister register = new CompactRegister.Builder(validFrom)
+				.add("0013F", "0101251489", "Bondo", "Jørgen", "7170")
+				.add("ZZ9", "0000000001", "Johnsen", "Tage Søgaard", "42")
+				.build();
+
+		assertEquals(2, register.size());
+		assertEquals("0013F", register.getAutorisationsnummer(0));
+		assertEquals("0101251489", register.getCpr(0));
+		assertEquals(101251489L, register.getCprAsLong(0));
+		assertEquals("Bondo", register.getEfternavn(0));
+		assertEquals("Jørgen", register.getFornavn(0));
+		assertEquals("7170", register.getUddannelsesKode(0));
+
+		assertEquals("ZZ9", register.getAutorisationsnummer(1));
+		assertEquals("0000000001", register.getCpr(1));
+		assertEquals("Tage Søgaard", register.getFornavn(1));
+		assertEquals((short) 42, register.getUddannelsesKodeAsShort(1));
+	}
+
+	@Test
+	public void rowsShareTheValidityInterval() {
+		CompactRegister register = new CompactRegister.Builder(validFrom).add("0013F", "0101251489", "Bondo", "Jørgen", "7170").build();
+
+		Autorisation autorisation = register.toAutorisation(0);
+		assertEquals("0013F", autorisation.getAutorisationsnummer());
+		assertSame(validFrom, autorisation.getValidFrom());
+		assertSame(register.getValidTo(), autorisation.getValidTo());
+	}
+
+	@Test
+	public void storesEachNameOnce() {
+		CompactRegister register = new CompactRegister.Builder(validFrom)
+				.add("00001", "0101251489", "Hansen", "Jens", "7170")
+				.add("00002", "0101251490", "Jensen", "Hans", "7170")
+				.add("00003", "0101251491", "Hansen", "Hans", "7170")
+				.build();
+
+		assertEquals(4, register.getDistinctNames());
+	}
+
+	@Test
+	public void findsDuplicateAutorisationsnumre() {
+		CompactRegister.Builder builder = new CompactRegister.Builder(validFrom)
+				.add("00001", "0101251489", "Hansen", "Jens", "7170")
+				.add("00002", "0101251490", "Jensen", "Hans", "7170");
+		assertFalse(builder.build().hasDuplicateAutorisationsnummer());
+
+		builder.add("00001", "0101251491", "Hansen", "Hans", "7170");
+		assertTrue(builder.build().hasDuplicateAutorisationsnummer());
+	}
+
+	@Test
+	public void growsBeyondTheInitialCapacity() {
+		CompactRegister.Builder builder = new CompactRegister.Builder(validFrom);
+		for (int i = 0; i < 5000; i++) {
+			builder.add(String.format("%05d", i), String.format("%010d", i), "Efternavn", "Fornavn", "7170");
+		}
+		CompactRegister register = builder.build();
+
+		assertEquals(5000, register.size());
+		assertEquals("04999", register.getAutorisationsnummer(4999));
+		assertEquals("0000004999", register.getCpr(4999));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsCprWithoutTenDigits() {
+		new CompactRegister.Builder(validFrom).add("0013F", "010125148X", "Bondo", "Jørgen", "7170");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTooLongAutorisationsnummer() {
+		// longer than the CHAR(5) column and the 40 bits the lookup index keys on
+		new CompactRegister.Builder(validFrom).add("0013FF", "0101251489", "Bondo", "Jørgen", "7170");
+	}
+
+	@Test
+	public void trimsTheUddannelsesKode() {
+		assertEquals(7170, CompactRegister.parseUddannelsesKode(" 7170 "));
+	}
+
+	@Test
+	public void saysWhyAnUddannelsesKodeAboveTheShortRangeIsRejected() {
+		try {
+			CompactRegister.parseUddannelsesKode("40000");
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			assertEquals("UddannelsesKode 40000 is not between 0 and 32767, which the parsed register holds as a short", e.getMessage());
+		}
+	}
+}
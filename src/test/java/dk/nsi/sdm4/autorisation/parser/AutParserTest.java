@@ -26,17 +26,36 @@
  */
 package dk.nsi.sdm4.autorisation.parser;
 
+import dk.nsi.sdm4.autorisation.lookup.AutorisationLookup;
+import dk.nsi.sdm4.autorisation.metrics.ImportMetrics;
+import dk.nsi.sdm4.autorisation.metrics.ImportPhase;
+import dk.nsi.sdm4.autorisation.metrics.ImportStatistics;
 import dk.nsi.sdm4.autorisation.model.Autorisation;
+import dk.nsi.sdm4.autorisation.model.CompactRegister;
+import dk.nsi.sdm4.autorisation.persistence.AutorisationArchiver;
+import dk.nsi.sdm4.autorisation.persistence.AutregChanges;
+import dk.nsi.sdm4.autorisation.persistence.AutregUpdater;
+import dk.nsi.sdm4.autorisation.persistence.ChangeOutbox;
+import dk.nsi.sdm4.autorisation.persistence.ImportFingerprints;
+import dk.nsi.sdm4.autorisation.persistence.ImportLedger;
+import dk.nsi.sdm4.autorisation.persistence.ImportStaging;
 import dk.nsi.sdm4.core.parser.Parser;
 import dk.nsi.sdm4.core.parser.ParserException;
+import dk.nsi.sdm4.core.domain.CompleteDataset;
+import dk.nsi.sdm4.core.domain.TemporalEntity;
 import dk.nsi.sdm4.core.persistence.Persister;
 import dk.sdsd.nsp.slalog.api.SLALogger;
 import dk.sdsd.nsp.slalog.impl.SLALoggerDummyImpl;
 import org.apache.commons.io.FileUtils;
 import org.joda.time.DateTime;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Matchers;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -46,15 +65,27 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.support.AnnotationConfigContextLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
 
 import static org.junit.Assert.*;
 import static org.junit.matchers.JUnitMatchers.containsString;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -78,11 +109,61 @@ public class AutParserTest {
 			return mock(Persister.class);
 		}
 
+		@Bean
+		public AutregUpdater autregUpdater() {
+			return mock(AutregUpdater.class);
+		}
+
+		@Bean
+		public ImportFingerprints importFingerprints() {
+			return mock(ImportFingerprints.class);
+		}
+
+		@Bean
+		public AutorisationLookup autorisationLookup() {
+			return mock(AutorisationLookup.class);
+		}
+
+		@Bean
+		public ImportLedger importLedger() {
+			return new ImportLedger();
+		}
+
+		@Bean
+		public ImportStaging importStaging() {
+			return mock(ImportStaging.class);
+		}
+
+		@Bean
+		public AutorisationArchiver autorisationArchiver() {
+			return new AutorisationArchiver();
+		}
+
+		@Bean
+		public ChangeOutbox changeOutbox() {
+			return new ChangeOutbox();
+		}
+
+		@Bean
+		public InputWatcher inputWatcher() {
+			return mock(InputWatcher.class);
+		}
+
+		@Bean
+		public ImportStatistics importStatistics() {
+			return new ImportStatistics();
+		}
+
 		@Bean
 		public JdbcTemplate jdbcTemplate() {
 			return mock(JdbcTemplate.class);
 		}
 
+		@Bean
+		public PlatformTransactionManager transactionManager() {
+			return mock(PlatformTransactionManager.class);
+		}
+
 		@Bean
 		public static PropertySourcesPlaceholderConfigurer properties(){
 			return new PropertySourcesPlaceholderConfigurer();
@@ -95,6 +176,33 @@ public class AutParserTest {
 	@Autowired
 	JdbcTemplate jdbcTemplate;
 
+	@Autowired
+	ImportStatistics importStatistics;
+
+	@Autowired
+	Persister persister;
+
+	@Autowired
+	AutregUpdater autregUpdater;
+
+	@Autowired
+	ImportFingerprints importFingerprints;
+
+	@Autowired
+	ImportStaging importStaging;
+
+	@Autowired
+	InputWatcher inputWatcher;
+
+	@Autowired
+	AutorisationLookup autorisationLookup;
+
+	@Autowired
+	ChangeOutbox changeOutbox;
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
     public static File valid;
     public static File invalid;
 	private File validWith3Removed;
@@ -131,6 +239,130 @@ public class AutParserTest {
 		}
 	}
 
+	@Test
+	public void recordsThePhasesOfAnImport() throws IOException {
+		when(jdbcTemplate.queryForInt(any(String.class))).thenReturn(5);
+
+		try {
+			parser.process(validWith3Removed.getParentFile(), "phases");
+			fail("Expected exception from parser because number of autorisationer decreased too much");
+		} catch (ParserException e) {
+			ImportMetrics metrics = importStatistics.getImports().get(0);
+			assertEquals(EnumSet.of(ImportPhase.VERSION_CHECK, ImportPhase.PRESCAN, ImportPhase.PARSE, ImportPhase.REDUCTION_GUARD), metrics.getPhaseMillis().keySet());
+			assertThat(metrics.toString(), containsString("outcome=ERROR"));
+		}
+	}
+
+	@Test
+	public void rejectsAnInvalidFileBeforeWritingAnything() throws Exception {
+		try {
+			parser.process(invalid.getParentFile(), "invalid");
+			fail("Expected exception from parser because the file is invalid");
+		} catch (ParserException e) {
+			assertThat(e.getMessage(), containsString("line 1: has 4 fields, expected 5"));
+			ImportMetrics metrics = importStatistics.getImports().get(0);
+			assertEquals(EnumSet.of(ImportPhase.VERSION_CHECK, ImportPhase.PRESCAN), metrics.getPhaseMillis().keySet());
+			verify(persister, never()).persistCompleteDataset(Matchers.<CompleteDataset<? extends TemporalEntity>>anyVararg());
+		}
+	}
+
+	@Test
+	public void skipsAFileWithTheSameContentAsTheLastImport() throws Exception {
+		RegisterFingerprint fingerprint = RegisterFingerprint.of(validWith3Removed);
+		when(importFingerprints.lastRecordDigest()).thenReturn(fingerprint.getRecordDigest());
+		when(jdbcTemplate.queryForInt(any(String.class))).thenReturn(5); // the reduction guard would have stopped the import
+
+		try {
+			parser.process(validWith3Removed.getParentFile(), "unchanged");
+
+			verify(persister, never()).persistCompleteDataset(Matchers.<CompleteDataset<? extends TemporalEntity>>anyVararg());
+			verify(autregUpdater, never()).rebuild();
+			verify(importFingerprints).recordImported(eq(new DateTime(2009, 9, 19, 0, 0)), any(RegisterFingerprint.class));
+		} finally {
+			reset(importFingerprints, persister, autregUpdater);
+		}
+	}
+
+	@Test
+	public void recordsTheLedgerRowRightAfterTheRegisterIsWritten() throws Exception {
+		reset(autregUpdater, autorisationLookup);
+
+		try {
+			parser.process(createDataset(valid), "ledger");
+
+			// the steps after the ledger row cannot leave a committed version without one
+			InOrder order = inOrder(autregUpdater, jdbcTemplate, autorisationLookup);
+			order.verify(autregUpdater).rebuild();
+			order.verify(jdbcTemplate).update(startsWith("INSERT INTO autorisationimporterLedger"), Matchers.<Object>anyVararg());
+			order.verify(autorisationLookup).rebuild(new DateTime(2009, 9, 15, 0, 0));
+		} finally {
+			reset(importFingerprints, persister, autregUpdater, autorisationLookup);
+		}
+	}
+
+	@Test
+	public void refusesAnImportModeThatCannotFeedTheEnabledOutbox() throws Exception {
+		ReflectionTestUtils.setField(changeOutbox, "enabled", true);
+
+		try {
+			parser.process(createDataset(valid), "outbox");
+			fail("Expected exception from parser because a COMPLETE import writes no change events");
+		} catch (ParserException e) {
+			assertThat(e.getMessage(), containsString("COMPLETE import mode does not feed it"));
+			verify(persister, never()).persistCompleteDataset(Matchers.<CompleteDataset<? extends TemporalEntity>>anyVararg());
+		} finally {
+			ReflectionTestUtils.setField(changeOutbox, "enabled", false);
+		}
+	}
+
+	@Test
+	public void streamingImportAlsoGuardsAgainstTooLargeReduction() throws IOException {
+		when(jdbcTemplate.queryForInt(any(String.class))).thenReturn(5);
+		ReflectionTestUtils.setField(parser, "importMode", ImportMode.STREAMING);
+
+		try {
+			parser.process(validWith3Removed.getParentFile(), "id");
+			fail("Expected exception from parser because number of autorisationer decreased too much");
+		} catch (ParserException e) {
+			assertThat(e.getMessage(), containsString(validWith3Removed.getName()));
+			assertThat(e.getMessage(), containsString("3")); // reduktionen som antal
+		} finally {
+			ReflectionTestUtils.setField(parser, "importMode", ImportMode.COMPLETE);
+		}
+	}
+
+	@Test
+	public void streamingParseHandsOverTheSameAutorisationerAsParse() throws IOException {
+		final List<Autorisation> handled = new ArrayList<Autorisation>();
+		parser.parse(valid, new DateTime(), new AutorisationHandler() {
+			@Override
+			public void handle(Autorisation autorisation) {
+				handled.add(autorisation);
+			}
+		});
+
+		assertEquals(4, handled.size());
+		assertEquals("0013H", handled.get(1).getAutorisationsnummer());
+		assertEquals("Tage Søgaard", handled.get(1).getFornavn());
+	}
+
+	@Test
+	public void compactParseHoldsTheSameAutorisationerAsParse() throws IOException {
+		DateTime validFrom = new DateTime();
+		Autorisationsregisterudtraek dataset = parser.parse(valid, validFrom);
+		CompactRegister register = parser.parseCompact(valid, validFrom);
+
+		assertEquals(dataset.size(), register.size());
+		for (int row = 0; row < register.size(); row++) {
+			Autorisation expected = dataset.getEntityById(register.getAutorisationsnummer(row));
+			assertEquals(expected.getCpr(), register.getCpr(row));
+			assertEquals(expected.getEfternavn(), register.getEfternavn(row));
+			assertEquals(expected.getFornavn(), register.getFornavn(row));
+			assertEquals(expected.getUddannelsesKode(), register.getUddannelsesKode(row));
+			assertEquals(validFrom.toDate(), register.getValidFrom());
+		}
+	}
+
 	@Test
 	public void doesNotAllowMoreThanOneInputFile() throws IOException {
 		try {
@@ -141,6 +373,158 @@ public class AutParserTest {
 		}
 	}
 
+	@Test
+	public void catchUpAppliesSeveralFilesInDateOrderAndRebuildsAutregOnce() throws Exception {
+		ReflectionTestUtils.setField(parser, "catchUp", true);
+
+		try {
+			parser.process(valid.getParentFile(), "catchup"); // valid indeholder 2 filer
+
+			InOrder order = inOrder(importFingerprints);
+			order.verify(importFingerprints).recordImported(eq(new DateTime(2009, 9, 15, 0, 0)), any(RegisterFingerprint.class));
+			order.verify(importFingerprints).recordImported(eq(new DateTime(2009, 9, 18, 0, 0)), any(RegisterFingerprint.class));
+			verify(autregUpdater, times(1)).rebuild();
+			assertEquals(9, importStatistics.getImports().get(0).getRows());
+		} finally {
+			ReflectionTestUtils.setField(parser, "catchUp", false);
+			reset(importFingerprints, autregUpdater);
+		}
+	}
+
+	@Test
+	public void catchUpWithinAMemoryBudgetSortsEveryVersion() throws Exception {
+		ReflectionTestUtils.setField(parser, "catchUp", true);
+		ReflectionTestUtils.setField(parser, "spillBudgetMb", 1);
+
+		try {
+			parser.process(valid.getParentFile(), "catchup"); // valid indeholder 2 filer
+
+			ImportMetrics metrics = importStatistics.getImports().get(0);
+			assertTrue(metrics.getPhaseMillis().containsKey(ImportPhase.SORT));
+			assertEquals(9, metrics.getRows());
+			// each version is diffed against the rows the one before it wrote, so none of them are kept in memory
+			verify(autregUpdater, times(1)).rebuild();
+			verify(autregUpdater, never()).update(any(AutregChanges.class));
+		} finally {
+			ReflectionTestUtils.setField(parser, "catchUp", false);
+			ReflectionTestUtils.setField(parser, "spillBudgetMb", 0);
+			reset(autregUpdater);
+		}
+	}
+
+	@Test
+	public void deltaImportUpdatesAutregWithTheChangedRowsOnly() throws Exception {
+		when(autregUpdater.isIncremental()).thenReturn(true);
+		when(autregUpdater.update(any(AutregChanges.class))).thenReturn(4);
+		ReflectionTestUtils.setField(parser, "importMode", ImportMode.DELTA);
+
+		try {
+			parser.process(createDataset(valid), "delta");
+
+			// nothing is valid in the mocked database, so all four autorisationer are added
+			ArgumentCaptor<AutregChanges> changes = ArgumentCaptor.forClass(AutregChanges.class);
+			verify(autregUpdater).update(changes.capture());
+			assertEquals(4, changes.getValue().size());
+			verify(autregUpdater, never()).rebuild();
+			assertEquals(4, importStatistics.getImports().get(0).getAutregRowsTouched());
+		} finally {
+			ReflectionTestUtils.setField(parser, "importMode", ImportMode.COMPLETE);
+			reset(autregUpdater);
+		}
+	}
+
+	@Test
+	public void usesTheRegisterPreparedOnDelivery() throws Exception {
+		DateTime version = new DateTime(2009, 9, 15, 0, 0);
+		RegisterFingerprint fingerprint = new RegisterFingerprint("content", "prepared", 4);
+		CompactRegister register = AutorisationParser.readCompact(valid, version.toDate());
+		when(inputWatcher.takePrepared(any(File.class), eq(version))).thenReturn(new PreparedRegister(version, fingerprint, register));
+
+		try {
+			parser.process(createDataset(valid), "prepared");
+
+			// the prescan is skipped, so the fingerprint recorded is the prepared one
+			verify(importFingerprints).recordImported(version, fingerprint);
+			verify(persister).persistCompleteDataset(Matchers.<CompleteDataset<? extends TemporalEntity>>anyVararg());
+		} finally {
+			reset(inputWatcher, importFingerprints, persister, autregUpdater);
+		}
+	}
+
+	@Test
+	public void deltaImportWithinAMemoryBudgetSortsTheRegisterAndRebuildsAutreg() throws Exception {
+		ReflectionTestUtils.setField(parser, "importMode", ImportMode.DELTA);
+		ReflectionTestUtils.setField(parser, "spillBudgetMb", 1);
+
+		try {
+			parser.process(createDataset(valid), "spill");
+
+			ImportMetrics metrics = importStatistics.getImports().get(0);
+			assertTrue(metrics.getPhaseMillis().containsKey(ImportPhase.SORT));
+			assertEquals(4, metrics.getRows());
+			assertThat(metrics.toString(), containsString(" rowsInserted=4 "));
+			// the net changes are not kept in memory, so autreg is rebuilt
+			verify(autregUpdater).rebuild();
+			verify(autregUpdater, never()).update(any(AutregChanges.class));
+		} finally {
+			ReflectionTestUtils.setField(parser, "importMode", ImportMode.COMPLETE);
+			ReflectionTestUtils.setField(parser, "spillBudgetMb", 0);
+			reset(autregUpdater);
+		}
+	}
+
+	@Test
+	public void refusesTheMemoryBudgetWithTheEnabledOutbox() throws Exception {
+		ReflectionTestUtils.setField(changeOutbox, "enabled", true);
+		ReflectionTestUtils.setField(parser, "importMode", ImportMode.DELTA);
+		ReflectionTestUtils.setField(parser, "spillBudgetMb", 1);
+
+		try {
+			parser.process(createDataset(valid), "spill");
+			fail("Expected exception from parser because the change events of a spilled import are not bounded");
+		} catch (ParserException e) {
+			assertThat(e.getMessage(), containsString("spooler.autorisationimporter.spill.budget.mb"));
+			verify(autregUpdater, never()).rebuild();
+		} finally {
+			ReflectionTestUtils.setField(changeOutbox, "enabled", false);
+			ReflectionTestUtils.setField(parser, "importMode", ImportMode.COMPLETE);
+			ReflectionTestUtils.setField(parser, "spillBudgetMb", 0);
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void chunkedImportResumesFromTheCheckpoint() throws Exception {
+		RegisterFingerprint fingerprint = RegisterFingerprint.of(valid);
+		DateTime version = new DateTime(2009, 9, 15, 0, 0);
+		List<String> lines = FileUtils.readLines(valid, "ISO8859-15");
+		long secondLineEnd = lines.get(0).length() + lines.get(1).length() + 2;
+		when(importStaging.resume(version, fingerprint.getContentHash()))
+				.thenReturn(new ImportStaging.Checkpoint(version, fingerprint.getContentHash(), secondLineEnd, 2));
+		ReflectionTestUtils.setField(parser, "importMode", ImportMode.CHUNKED);
+
+		try {
+			parser.process(createDataset(valid), "chunked");
+
+			// the two lines after the checkpoint fill a chunk of spooler.autorisationimporter.commit.chunk.rows
+			ArgumentCaptor<List> chunk = ArgumentCaptor.forClass(List.class);
+			verify(importStaging).stageChunk(any(ImportStaging.Checkpoint.class), chunk.capture(), eq(valid.length()));
+			assertEquals(2, chunk.getValue().size());
+			assertEquals("0013J", ((Autorisation) chunk.getValue().get(0)).getAutorisationsnummer());
+			verify(importStaging).publish(eq(version), any(AutorisationHandler.class));
+			verify(importStaging).clear();
+		} finally {
+			ReflectionTestUtils.setField(parser, "importMode", ImportMode.COMPLETE);
+			reset(importStaging);
+		}
+	}
+
+	private File createDataset(File file) throws IOException {
+		File dataset = temp.newFolder();
+		FileUtils.copyFileToDirectory(file, dataset);
+		return dataset;
+	}
+
 	@Test(expected = ParserException.class)
     public void testInvalid() throws IOException {
         parser.parse(invalid, new DateTime());
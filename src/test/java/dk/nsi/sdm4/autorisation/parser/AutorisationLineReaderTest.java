@@ -0,0 +1,109 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AutorisationLineReaderTest {
+	private static final Charset ISO8859_15 = Charset.forName("ISO8859-15");
+
+	@Test
+	public void splitsLinesLikeBufferedReader() throws IOException {
+		AutorisationLineReader reader = reader("a;b\r\nc;d\re;f\n\ng;h", 4);
+
+		assertLine(reader, 1, "a", "b");
+		assertLine(reader, 2, "c", "d");
+		assertLine(reader, 3, "e", "f");
+		assertTrue(reader.next());
+		assertEquals(0, reader.fieldCount());
+		assertLine(reader, 5, "g", "h");
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void skipsEmptyFieldsLikeStringTokenizer() throws IOException {
+		AutorisationLineReader reader = reader(";0013F;;0101251489;\n", 64);
+
+		assertLine(reader, 1, "0013F", "0101251489");
+		assertEquals(";0013F;;0101251489;", reader.line());
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void decodesIso885915() throws IOException {
+		// 0xA4 is the euro sign in ISO-8859-15 but the currency sign in ISO-8859-1
+		byte[] line = new byte[] {(byte) 0xD8, 's', 't', 'e', 'r', 'b', 'y', ';', (byte) 0xA4};
+		AutorisationLineReader reader = new AutorisationLineReader(Channels.newChannel(new ByteArrayInputStream(line)), ISO8859_15);
+
+		assertLine(reader, 1, "Østerby", "€");
+	}
+
+	@Test
+	public void readsLinesLongerThanTheBuffer() throws IOException {
+		AutorisationLineReader reader = reader("0013H;0101280063;Johnsen;Tage;7170\n0013J;0101280551", 3);
+
+		assertLine(reader, 1, "0013H", "0101280063", "Johnsen", "Tage", "7170");
+		assertLine(reader, 2, "0013J", "0101280551");
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void knowsTheOffsetOfEachLineAcrossBufferRefills() throws IOException {
+		AutorisationLineReader reader = reader("a;b\r\nc;d\re;f\n", 3);
+
+		assertLine(reader, 1, "a", "b");
+		assertEquals(0, reader.lineOffset());
+		assertLine(reader, 2, "c", "d");
+		assertEquals(5, reader.lineOffset());
+		assertLine(reader, 3, "e", "f");
+		assertEquals(9, reader.lineOffset());
+		assertFalse(reader.next());
+		assertEquals(13, reader.offset());
+	}
+
+	private AutorisationLineReader reader(String content, int bufferSize) {
+		return new AutorisationLineReader(Channels.newChannel(new ByteArrayInputStream(content.getBytes(ISO8859_15))), ISO8859_15, bufferSize);
+	}
+
+	private void assertLine(AutorisationLineReader reader, int lineNumber, String... fields) throws IOException {
+		assertTrue(reader.next());
+		assertEquals(lineNumber, reader.lineNumber());
+		assertEquals(fields.length, reader.fieldCount());
+		for (int i = 0; i < fields.length; i++) {
+			assertEquals(fields[i], reader.field(i));
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+import dk.nsi.sdm4.core.parser.ParserException;
+
+public class BulkRowStreamTest {
+	@Test
+	public void writesTheFieldsSeparatedByTabsInUtf8() throws IOException {
+		BulkRowStream rows = rows("0013H;0101280063;Johnsen;Tage;7170\n0013J;0101280551;Østerby;Åse;0170\n");
+
+		assertEquals("0013H\t0101280063\tJohnsen\tTage\t7170\n0013J\t0101280551\tØsterby\tÅse\t0170\n", IOUtils.toString(rows, "UTF-8"));
+		assertEquals(2, rows.getRows());
+	}
+
+	@Test
+	public void escapesBackslashesAndTabs() throws IOException {
+		BulkRowStream rows = rows("0013H;0101280063;John\\sen;Ta\tge;7170");
+
+		assertEquals("0013H\t0101280063\tJohn\\\\sen\tTa\\tge\t7170\n", IOUtils.toString(rows, "UTF-8"));
+	}
+
+	@Test
+	public void readsRegistersLargerThanABlock() throws IOException {
+		StringBuilder register = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		String name = Strings.repeat("x", 100);
+		for (int i = 0; i < 5000; i++) {
+			register.append(String.format("%05d;0101280063;%s;Tage;7170\n", i, name));
+			expected.append(String.format("%05d\t0101280063\t%s\tTage\t7170\n", i, name));
+		}
+		BulkRowStream rows = rows(register.toString());
+
+		// single bytes and blocks mixed, the way a driver may read
+		StringBuilder actual = new StringBuilder();
+		byte[] buffer = new byte[777];
+		int read;
+		while ((read = rows.read()) != -1) {
+			actual.append((char) read);
+			read = rows.read(buffer, 0, buffer.length);
+			if (read == -1) {
+				break;
+			}
+			actual.append(new String(buffer, 0, read, "US-ASCII"));
+		}
+		assertEquals(expected.toString(), actual.toString());
+		assertEquals(5000, rows.getRows());
+	}
+
+	@Test
+	public void rejectsLinesWithMissingFields() throws IOException {
+		InputStream rows = rows("0013H;0101280063;Johnsen;Tage");
+		try {
+			rows.read();
+			fail("Expected a ParserException");
+		} catch (ParserException e) {
+			assertEquals("Unable to parse line 0013H;0101280063;Johnsen;Tage", e.getMessage());
+		}
+	}
+
+	private BulkRowStream rows(String register) {
+		byte[] bytes = register.getBytes(AutorisationParser.FILE_CHARSET);
+		return new BulkRowStream(new AutorisationLineReader(Channels.newChannel(new ByteArrayInputStream(bytes)), AutorisationParser.FILE_CHARSET));
+	}
+}
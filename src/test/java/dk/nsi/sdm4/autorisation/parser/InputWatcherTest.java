@@ -0,0 +1,177 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import dk.nsi.sdm4.core.parser.ParserException;
+
+public class InputWatcherTest {
+	private static final DateTime VERSION = new DateTime(2009, 9, 15, 0, 0);
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private final InputWatcher watcher = new InputWatcher();
+
+	@After
+	public void stop() {
+		watcher.stop();
+	}
+
+	@Test
+	public void findsAPreparedRegisterByItsContent() throws IOException {
+		PreparedRegister prepared = watcher.prepare(resource("data/aut/valid/20090915AutDK.csv"));
+		assertEquals(VERSION, prepared.getVersion());
+		assertEquals(4, prepared.getRegister().size());
+		assertEquals(4, prepared.getFingerprint().getRecords());
+
+		// the spooler has moved the file by the time it is imported
+		File moved = copy("data/aut/valid/20090915AutDK.csv", temp.newFolder("processing"));
+		assertNull(watcher.takePrepared(moved, VERSION.plusDays(1)));
+		assertSame(prepared, watcher.takePrepared(moved, VERSION));
+		assertNull(watcher.takePrepared(moved, VERSION));
+	}
+
+	@Test
+	public void doesNotPrepareTheContentOfATakenRegisterAgain() throws IOException {
+		File file = resource("data/aut/valid/20090915AutDK.csv");
+		watcher.prepare(file);
+		assertNotNull(watcher.takePrepared(file, VERSION));
+
+		// e.g. the spooler touches the file when it moves it on
+		assertNull(watcher.prepare(file));
+	}
+
+	@Test
+	public void onlyFingerprintsInTheModesThatReadTheFileThemselves() throws IOException {
+		ReflectionTestUtils.setField(watcher, "importMode", ImportMode.BULK);
+
+		PreparedRegister prepared = watcher.prepare(resource("data/aut/valid/20090915AutDK.csv"));
+		assertEquals(4, prepared.getFingerprint().getRecords());
+		assertNull(prepared.getRegister());
+	}
+
+	@Test
+	public void keepsTheLastPreparedRegistersOnly() throws IOException {
+		File first = resource("data/aut/valid/20090915AutDK.csv");
+		watcher.prepare(first);
+		watcher.prepare(resource("data/aut/valid/20090918AutDK.csv"));
+		watcher.prepare(resource("data/aut/validWith3Removed/20090919AutDK.csv"));
+
+		assertNull(watcher.takePrepared(first, VERSION));
+	}
+
+	@Test
+	public void doesNotPrepareAnInvalidRegister() throws IOException {
+		try {
+			watcher.prepare(resource("data/aut/invalid/20090915AutDK.csv"));
+			fail("Expected a ParserException");
+		} catch (ParserException e) {
+			assertNull(watcher.takePrepared(resource("data/aut/invalid/20090915AutDK.csv"), VERSION));
+		}
+	}
+
+	@Test
+	public void ignoresFilesNotNamedLikeARegister() throws IOException {
+		File readme = temp.newFile("readme.txt");
+		FileUtils.writeStringToFile(readme, "not a register");
+
+		assertNull(watcher.prepare(readme));
+	}
+
+	@Test
+	public void preparesAFileOnceItIsCompletelyWritten() throws Exception {
+		File inbox = temp.newFolder("inbox");
+		ReflectionTestUtils.setField(watcher, "enabled", true);
+		ReflectionTestUtils.setField(watcher, "directory", inbox);
+		ReflectionTestUtils.setField(watcher, "quietMillis", 100L);
+		watcher.start();
+
+		// the spooler delivers the file in a dataset directory
+		File dataset = new File(inbox, "dataset");
+		FileUtils.forceMkdir(dataset);
+		File delivered = copy("data/aut/valid/20090915AutDK.csv", dataset);
+
+		PreparedRegister prepared = null;
+		for (int i = 0; i < 100 && prepared == null; i++) {
+			Thread.sleep(100);
+			prepared = watcher.takePrepared(delivered, VERSION);
+		}
+		assertNotNull("the delivered file was not prepared", prepared);
+		assertEquals(4, prepared.getRegister().size());
+	}
+
+	@Test
+	public void leavesOldFilesAndTheDirectoriesBelowTheDatasetsAlone() throws Exception {
+		File inbox = temp.newFolder("inbox");
+		File old = copy("data/aut/valid/20090918AutDK.csv", inbox);
+		ReflectionTestUtils.setField(watcher, "enabled", true);
+		ReflectionTestUtils.setField(watcher, "directory", inbox);
+		ReflectionTestUtils.setField(watcher, "quietMillis", 100L);
+		watcher.start();
+
+		File dataset = new File(inbox, "dataset");
+		FileUtils.forceMkdir(dataset);
+		File nested = copy("data/aut/validWith3Removed/20090919AutDK.csv", new File(dataset, "nested"));
+		File delivered = copy("data/aut/valid/20090915AutDK.csv", dataset);
+
+		Map<?, ?> prepared = (Map<?, ?>) ReflectionTestUtils.getField(watcher, "prepared");
+		for (int i = 0; i < 100 && prepared.isEmpty(); i++) {
+			Thread.sleep(100);
+		}
+		Thread.sleep(500);
+		assertNull(watcher.takePrepared(old, new DateTime(2009, 9, 18, 0, 0)));
+		assertNull(watcher.takePrepared(nested, new DateTime(2009, 9, 19, 0, 0)));
+		assertNotNull("the delivered file was not prepared", watcher.takePrepared(delivered, VERSION));
+	}
+
+	private File resource(String name) {
+		return FileUtils.toFile(getClass().getClassLoader().getResource(name));
+	}
+
+	private File copy(String name, File directory) throws IOException {
+		FileUtils.copyFileToDirectory(resource(name), directory);
+		return new File(directory, resource(name).getName());
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import dk.nsi.sdm4.autorisation.metrics.ImportMetrics;
+import dk.nsi.sdm4.autorisation.metrics.ImportStatistics;
+import dk.nsi.sdm4.autorisation.metrics.StageMetrics;
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+import dk.nsi.sdm4.core.parser.ParserException;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipelinedAutorisationParserTest {
+	private static final DateTime VALID_FROM = new DateTime(2009, 9, 15, 0, 0);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void givesTheSameAutorisationerAsTheSequentialParser() throws IOException {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			String terminator = i % 3 == 0 ? "\r\n" : i % 3 == 1 ? "\n" : "\r";
+			content.append(String.format("%05d;%010d;Efternavn%d;Fornavn%d;%04d", i, 101250000L + i, i, i, 7170 + i % 10)).append(terminator);
+		}
+		File file = folder.newFile("20090915AutDK.csv");
+		FileUtils.writeStringToFile(file, content.toString(), "ISO8859-15");
+
+		List<String> sequential = sequential(file);
+		assertEquals(1000, sequential.size());
+		for (int queueCapacity : new int[] {1, 4}) {
+			// blocks shorter than a line make the reader grow its buffer
+			for (int blockBytes : new int[] {1, 7, 100, 4096}) {
+				assertEquals("queueCapacity=" + queueCapacity + ", blockBytes=" + blockBytes, sequential, pipelined(file, queueCapacity, blockBytes, metrics()));
+			}
+		}
+	}
+
+	@Test
+	public void recordsEachStage() throws IOException {
+		File file = new File(getClass().getClassLoader().getResource("data/aut/valid/20090915AutDK.csv").getFile());
+		ImportMetrics metrics = metrics();
+
+		assertEquals(sequential(file), pipelined(file, 2, 64, metrics));
+
+		List<String> names = new ArrayList<String>();
+		for (StageMetrics stage : metrics.getStages()) {
+			names.add(stage.getName());
+		}
+		assertEquals(Arrays.asList("read", "parse", "write"), names);
+		assertEquals(file.length(), metrics.getStages().get(0).getBytes());
+		assertEquals(4, metrics.getStages().get(2).getRows());
+	}
+
+	@Test
+	public void reportsTheFailureOfAStageWithTheLineInTheFile() throws IOException {
+		File file = folder.newFile("20090915AutDK.csv");
+		FileUtils.writeStringToFile(file, "0013H;0101280063;Johnsen;Tage;7170\n0013I;0101280063;Hansen;Bo;7170\n0013J;0101280551\n", "ISO8859-15");
+
+		try {
+			// every line is a block of its own
+			pipelined(file, 1, 16, metrics());
+			fail("Expected a ParserException");
+		} catch (ParserException e) {
+			assertTrue(e.getMessage(), e.getMessage().endsWith("Unable to parse line 0013J;0101280551"));
+			assertEquals("Line 3 has 2 fields, expected 5", e.getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void cutsBlocksAfterWholeLines() {
+		assertEquals(4, PipelinedAutorisationParser.blockEnd("a;b\nc".getBytes(), 5));
+		assertEquals(5, PipelinedAutorisationParser.blockEnd("a;b\r\nc".getBytes(), 6));
+		assertEquals(6, PipelinedAutorisationParser.blockEnd("a;b\nc\n".getBytes(), 6));
+		// the '\n' of a "\r\n" may be in the next block
+		assertEquals(4, PipelinedAutorisationParser.blockEnd("a;b\nc\r".getBytes(), 6));
+		assertEquals(0, PipelinedAutorisationParser.blockEnd("a;b;c".getBytes(), 5));
+	}
+
+	private ImportMetrics metrics() {
+		return new ImportStatistics().importStarted("test");
+	}
+
+	private List<String> sequential(File file) throws IOException {
+		Collector collector = new Collector();
+		new AutorisationParser().parse(file, VALID_FROM, collector);
+		return collector.lines;
+	}
+
+	private List<String> pipelined(File file, int queueCapacity, int blockBytes, ImportMetrics metrics) throws IOException {
+		Collector collector = new Collector();
+		new PipelinedAutorisationParser(queueCapacity, blockBytes).parse(file, VALID_FROM.toDate(), collector, metrics);
+		return collector.lines;
+	}
+
+	private static class Collector implements AutorisationHandler {
+		private final List<String> lines = new ArrayList<String>();
+
+		@Override
+		public void handle(Autorisation autorisation) {
+			lines.add(autorisation.getAutorisationsnummer() + ";" + autorisation.getCpr() + ";" + autorisation.getEfternavn() + ";"
+					+ autorisation.getFornavn() + ";" + autorisation.getUddannelsesKode() + ";" + autorisation.getValidFrom() + ";" + autorisation.getValidTo());
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RegisterFingerprintTest {
+	private final File valid = file("data/aut/valid/20090915AutDK.csv");
+
+	@Test
+	public void recordDigestIgnoresLineEndings() throws IOException {
+		RegisterFingerprint lf = RegisterFingerprint.of(valid);
+		RegisterFingerprint crlf = RegisterFingerprint.of(file("data/aut/unchanged/20090916AutDK.csv"));
+
+		assertEquals(lf.getRecordDigest(), crlf.getRecordDigest());
+		assertFalse(lf.getContentHash().equals(crlf.getContentHash()));
+		assertEquals(4, crlf.getRecords());
+	}
+
+	@Test
+	public void recordDigestChangesWithTheRecords() throws IOException {
+		RegisterFingerprint before = RegisterFingerprint.of(valid);
+		RegisterFingerprint after = RegisterFingerprint.of(file("data/aut/valid/20090918AutDK.csv"));
+
+		assertFalse(before.getRecordDigest().equals(after.getRecordDigest()));
+	}
+
+	private File file(String name) {
+		return FileUtils.toFile(getClass().getClassLoader().getResource(name));
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RegisterInputTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private File valid;
+	private AutorisationParser parser = new AutorisationParser();
+
+	@Before
+	public void setUp() {
+		valid = FileUtils.toFile(getClass().getClassLoader().getResource("data/aut/valid/20090915AutDK.csv"));
+	}
+
+	@Test
+	public void recognisesCompressionByContentNotName() throws IOException {
+		assertEquals(RegisterInput.Compression.NONE, RegisterInput.compressionOf(valid));
+		assertEquals(RegisterInput.Compression.GZIP, RegisterInput.compressionOf(gzip("delivery.bin")));
+		assertEquals(RegisterInput.Compression.ZIP, RegisterInput.compressionOf(zip("delivery.bin", valid.getName())));
+		assertEquals(RegisterInput.Compression.ZSTD, RegisterInput.compressionOf(zstd("delivery.bin")));
+	}
+
+	@Test
+	public void compressedFilesParseToTheSameAutorisationerAndRecords() throws IOException {
+		DateTime validFrom = new DateTime();
+		Autorisationsregisterudtraek expected = parser.parse(valid, validFrom);
+		RegisterFingerprint fingerprint = RegisterFingerprint.of(valid);
+
+		for (File compressed : new File[]{gzip("20090915AutDK.csv.gz"), zip("20090915AutDK.zip", valid.getName()), zstd("20090915AutDK.csv.zst")}) {
+			Autorisationsregisterudtraek actual = parser.parse(compressed, validFrom);
+			assertEquals(expected.size(), actual.size());
+			assertEquals("Tage Søgaard", actual.getEntityById("0013H").getFornavn());
+
+			RegisterFingerprint compressedFingerprint = RegisterFingerprint.of(compressed);
+			assertEquals(fingerprint.getRecordDigest(), compressedFingerprint.getRecordDigest());
+			assertEquals(fingerprint.getRecords(), compressedFingerprint.getRecords());
+			assertFalse(fingerprint.getContentHash().equals(compressedFingerprint.getContentHash()));
+		}
+	}
+
+	@Test
+	public void readsTheVersionFromTheInnerNameWhenTheOuterNameHasNoDate() throws IOException {
+		assertEquals("20090918AutDK.csv", RegisterInput.registerName(zip("delivery.zip", "export/20090918AutDK.csv")));
+		assertEquals("20090915AutDK.csv", RegisterInput.registerName(gzip("delivery.gz")));
+		assertEquals("20090917AutDK.zip", RegisterInput.registerName(zip("20090917AutDK.zip", "20090918AutDK.csv")));
+	}
+
+	private File gzip(String name) throws IOException {
+		File file = temp.newFile(name);
+		// unlike gzip(1), GZIPOutputStream does not write the original name, so the header is written here
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[]{0x1f, (byte) 0x8b, 8, 0x08, 0, 0, 0, 0, 0, (byte) 0xff});
+			out.write((valid.getName() + "\0").getBytes("ISO8859-1"));
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			DeflaterOutputStream deflate = new DeflaterOutputStream(out, deflater);
+			byte[] content = FileUtils.readFileToByteArray(valid);
+			deflate.write(content);
+			deflate.finish();
+			CRC32 crc = new CRC32();
+			crc.update(content);
+			writeIntLE(out, (int) crc.getValue());
+			writeIntLE(out, content.length);
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+		return file;
+	}
+
+	private File zip(String name, String entryName) throws IOException {
+		File file = temp.newFile(name);
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			out.putNextEntry(new ZipEntry(entryName));
+			FileUtils.copyFile(valid, out);
+			out.closeEntry();
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+		return file;
+	}
+
+	private File zstd(String name) throws IOException {
+		File file = temp.newFile(name);
+		OutputStream out = new ZstdOutputStream(new FileOutputStream(file));
+		try {
+			FileUtils.copyFile(valid, out);
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+		return file;
+	}
+
+	private static void writeIntLE(OutputStream out, int value) throws IOException {
+		for (int i = 0; i < 4; i++) {
+			out.write(value >>> (8 * i));
+		}
+	}
+}
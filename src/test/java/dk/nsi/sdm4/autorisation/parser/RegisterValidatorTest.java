@@ -0,0 +1,135 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.parser;
+
+import dk.nsi.sdm4.core.parser.ParserException;
+import org.apache.commons.io.FileUtils;
+import com.google.common.base.Strings;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.matchers.JUnitMatchers.containsString;
+
+public class RegisterValidatorTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void acceptsAValidRegister() throws IOException {
+		File file = FileUtils.toFile(getClass().getClassLoader().getResource("data/aut/valid/20090915AutDK.csv"));
+		RegisterValidator validator = new RegisterValidator();
+
+		RegisterFingerprint.of(file, validator);
+
+		assertEquals(0, validator.getViolationCount());
+		validator.throwIfInvalid(file.getName());
+	}
+
+	@Test
+	public void reportsEveryViolationWithItsLineNumber() throws IOException {
+		RegisterValidator validator = validate(
+				"0013H;0101280063;Johnsen;Tage;7170",
+				"0013HX;0101280063;Johnsen;Tage;7170",
+				"0013J;01012800;Jensen;Ib;7170",
+				"0013K;0101280063;" + Strings.repeat("x", 101) + ";Ib;7170",
+				"0013L;0101280063;Jensen;Ib;syv",
+				"0013H;0101280063;Hansen;Ole;7170",
+				"0013M;0101280063;Jensen",
+				"0013N;0101280063;Jensen;Ib;7170");
+
+		assertEquals(Arrays.asList(
+				"line 2: Autorisationsnummer '0013HX' does not have 1 to 5 characters",
+				"line 3: CPR 01012800 does not have 10 digits",
+				"line 4: Efternavn is longer than 100 characters",
+				"line 5: UddannelsesKode 'syv' is not a number",
+				"line 6: Autorisationsnummer 0013H occurs more than once",
+				"line 7: has 3 fields, expected 5"), validator.getViolations());
+	}
+
+	@Test
+	public void reportsTheViolationsInOneException() throws IOException {
+		RegisterValidator validator = validate("0013H;0101280063;Johnsen;Tage;7170", "0013H;0101280063;Johnsen;Tage;7170", "0013J;x;Jensen;Ib;7170");
+
+		try {
+			validator.throwIfInvalid("20090915AutDK.csv");
+			fail("Expected a ParserException");
+		} catch (ParserException e) {
+			assertThat(e.getMessage(), containsString("20090915AutDK.csv has 2 invalid value(s)"));
+			assertThat(e.getMessage(), containsString("line 2: Autorisationsnummer 0013H occurs more than once"));
+			assertThat(e.getMessage(), containsString("line 3: CPR x does not have 10 digits"));
+		}
+	}
+
+	@Test
+	public void countsTheViolationsBeyondTheReport() throws IOException {
+		String[] lines = new String[RegisterValidator.MAX_REPORTED + 5];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = String.format("%05d;x;Jensen;Ib;7170", i);
+		}
+		RegisterValidator validator = validate(lines);
+
+		assertEquals(lines.length, validator.getViolationCount());
+		assertEquals(RegisterValidator.MAX_REPORTED, validator.getViolations().size());
+		try {
+			validator.throwIfInvalid("big.csv");
+			fail("Expected a ParserException");
+		} catch (ParserException e) {
+			assertTrue(e.getMessage().endsWith("... and 5 more"));
+		}
+	}
+
+	@Test
+	public void findsDuplicatesAmongManyNumre() {
+		LongHashSet set = new LongHashSet();
+		for (long i = 0; i < 100000; i++) {
+			assertTrue(set.add(i * 257));
+		}
+		for (long i = 0; i < 100000; i++) {
+			assertTrue(set.contains(i * 257));
+			assertTrue(!set.add(i * 257));
+		}
+		assertTrue(!set.contains(1));
+		assertEquals(100000, set.size());
+	}
+
+	private RegisterValidator validate(String... lines) throws IOException {
+		File file = folder.newFile();
+		FileUtils.writeLines(file, "ISO8859-15", Arrays.asList(lines));
+		RegisterValidator validator = new RegisterValidator();
+		RegisterFingerprint.of(file, validator);
+		return validator;
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class AutorisationArchiverTest {
+	private static final DateTime VERSION = new DateTime(2009, 9, 20, 0, 0);
+
+	private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+	private final AutorisationArchiver archiver = new AutorisationArchiver();
+
+	@Before
+	public void setUp() {
+		archiver.jdbcTemplate = jdbcTemplate;
+	}
+
+	@Test
+	public void doesNothingWithoutAHorizon() {
+		assertEquals(0, archiver.archive(VERSION));
+		verifyZeroInteractions(jdbcTemplate);
+	}
+
+	@Test
+	public void movesTheRowsClosedBeforeTheHorizon() {
+		ReflectionTestUtils.setField(archiver, "horizonDays", 30);
+		when(jdbcTemplate.update(anyString(), any())).thenReturn(3);
+
+		assertEquals(3, archiver.archive(VERSION));
+
+		verify(jdbcTemplate).update(startsWith("INSERT INTO AutorisationHistory"), eq(VERSION.minusDays(30).toDate()));
+		verify(jdbcTemplate).update(startsWith("DELETE FROM Autorisation"), eq(VERSION.minusDays(30).toDate()));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void failsWhenTheDeletedRowsAreNotTheArchivedRows() {
+		ReflectionTestUtils.setField(archiver, "horizonDays", 30);
+		when(jdbcTemplate.update(startsWith("INSERT"), any())).thenReturn(3);
+		when(jdbcTemplate.update(startsWith("DELETE"), any())).thenReturn(2);
+
+		archiver.archive(VERSION);
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AutregUpdaterTest {
+	private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+	private final AutregUpdater updater = new AutregUpdater();
+
+	@Before
+	public void setUp() {
+		updater.jdbcTemplate = jdbcTemplate;
+		when(jdbcTemplate.batchUpdate(anyString(), anyListOf(Object[].class))).thenReturn(new int[] {1});
+	}
+
+	@Test
+	public void deletesAndInsertsOnlyTheChangedRows() {
+		AutregChanges changes = new AutregChanges();
+		changes.closed(new CurrentAutorisation(1, "00001", "0000000001", "Fornavn", "Efternavn", 7170));
+		changes.inserted(new CurrentAutorisation(CurrentAutorisation.UNKNOWN_PID, "00001", "0000000001", "Andet fornavn", "Efternavn", 7170));
+
+		assertEquals(2, updater.update(changes));
+
+		verify(jdbcTemplate).batchUpdate(startsWith("DELETE FROM autreg"), argsOf(new Object[] {"0000000001", "00001"}));
+		verify(jdbcTemplate).batchUpdate(startsWith("INSERT INTO autreg"), argsOf(new Object[] {"0000000001", "Andet fornavn", "Efternavn", "00001", "7170"}));
+		verify(jdbcTemplate, never()).execute(anyString());
+	}
+
+	@Test
+	public void reconcilesEveryIntervalAndRebuildsOnDrift() {
+		ReflectionTestUtils.setField(updater, "reconcileInterval", 2);
+		when(jdbcTemplate.queryForInt(contains("LEFT JOIN"))).thenReturn(1);
+		when(jdbcTemplate.queryForInt("SELECT COUNT(*) FROM autreg")).thenReturn(5);
+		when(jdbcTemplate.queryForInt(startsWith("SELECT COUNT(AutorisationPID)"))).thenReturn(5);
+		when(jdbcTemplate.update(startsWith("INSERT INTO autreg "))).thenReturn(5);
+
+		updater.update(new AutregChanges());
+		verify(jdbcTemplate, never()).queryForInt(anyString());
+
+		assertEquals(5, updater.update(new AutregChanges()));
+		verify(jdbcTemplate).update("DELETE FROM autreg");
+		// DDL would commit the import's transaction
+		verify(jdbcTemplate, never()).execute(anyString());
+	}
+
+	@Test
+	public void doesNotRebuildWhenAutregIsInSync() {
+		when(jdbcTemplate.queryForInt(contains("LEFT JOIN"))).thenReturn(0);
+		when(jdbcTemplate.queryForInt("SELECT COUNT(*) FROM autreg")).thenReturn(5);
+		when(jdbcTemplate.queryForInt(startsWith("SELECT COUNT(AutorisationPID)"))).thenReturn(5);
+
+		assertEquals(0, updater.reconcile());
+		verify(jdbcTemplate, never()).execute(anyString());
+	}
+
+	private static List<Object[]> argsOf(final Object[] expected) {
+		return argThat(new BaseMatcher<List<Object[]>>() {
+			@Override
+			public boolean matches(Object item) {
+				List<?> args = (List<?>) item;
+				return args.size() == 1 && Arrays.equals((Object[]) args.get(0), expected);
+			}
+
+			@Override
+			public void describeTo(Description description) {
+				description.appendValueList("[", ", ", "]", expected);
+			}
+		});
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.junit.matchers.JUnitMatchers.containsString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BulkAutorisationLoaderTest {
+	private final InputStream rows = new ByteArrayInputStream(new byte[0]);
+
+	@Test
+	public void streamsTheRowsThroughTheDriverStatement() throws SQLException {
+		Statement statement = mock(Statement.class);
+		com.mysql.jdbc.Statement driverStatement = mock(com.mysql.jdbc.Statement.class);
+		when(statement.isWrapperFor(com.mysql.jdbc.Statement.class)).thenReturn(true);
+		when(statement.unwrap(com.mysql.jdbc.Statement.class)).thenReturn(driverStatement);
+
+		BulkAutorisationLoader.setLocalInfileInputStream(statement, rows);
+
+		verify(driverStatement).setLocalInfileInputStream(rows);
+	}
+
+	@Test
+	public void explainsThatTheDriverIsNeeded() throws SQLException {
+		try {
+			BulkAutorisationLoader.setLocalInfileInputStream(mock(Statement.class), rows);
+			fail("Expected an IllegalStateException");
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage(), containsString("jboss-deployment-structure.xml"));
+		}
+	}
+}
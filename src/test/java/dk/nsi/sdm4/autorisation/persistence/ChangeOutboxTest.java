@@ -0,0 +1,120 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.endsWith;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class ChangeOutboxTest {
+	private final Date version = new Date(1000000000000L);
+	private final CurrentAutorisation before = new CurrentAutorisation(1, "00001", "0000000001", "Fornavn", "Efternavn", 7170);
+	private final CurrentAutorisation after = new CurrentAutorisation(CurrentAutorisation.UNKNOWN_PID, "00001", "0000000001", "Andet", "Efternavn", 7170);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+	private final ChangeOutbox outbox = new ChangeOutbox();
+
+	@Before
+	public void setUp() {
+		outbox.jdbcTemplate = jdbcTemplate;
+		ReflectionTestUtils.setField(outbox, "file", "");
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void writesTheBeforeAndAfterValuesToTheTable() {
+		outbox.record(Arrays.asList(ChangeEvent.modified(version, before, after), ChangeEvent.removed(version, before)));
+
+		ArgumentCaptor<List> batch = ArgumentCaptor.forClass(List.class);
+		verify(jdbcTemplate).batchUpdate(startsWith("INSERT INTO autorisationimporterOutbox"), batch.capture());
+		List<Object[]> rows = batch.getValue();
+		assertEquals(2, rows.size());
+		assertArrayEquals(new Object[] {version, "MODIFIED", "00001", "0000000001", "Fornavn", "Efternavn", 7170, "0000000001", "Andet", "Efternavn", 7170},
+				Arrays.copyOf(rows.get(0), 11));
+		assertArrayEquals(new Object[] {version, "REMOVED", "00001", "0000000001", "Fornavn", "Efternavn", 7170, null, null, null, null},
+				Arrays.copyOf(rows.get(1), 11));
+	}
+
+	@Test
+	public void appendsTheEventsToTheFile() throws Exception {
+		File file = new File(folder.getRoot(), "changes.log");
+		ReflectionTestUtils.setField(outbox, "file", file.getPath());
+
+		outbox.record(Arrays.asList(ChangeEvent.added(version, after)));
+		outbox.record(Arrays.asList(ChangeEvent.removed(version, after)));
+
+		assertEquals(Arrays.asList("20010909;ADDED;00001;;;;;0000000001;Efternavn;Andet;7170", "20010909;REMOVED;00001;0000000001;Efternavn;Andet;7170;;;;"),
+				FileUtils.readLines(file, "UTF-8"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void readsTheFeedInPagesAfterASequence() {
+		outbox.eventsAfter(version, 42, 100);
+
+		verify(jdbcTemplate).query(endsWith("WHERE Version > ? AND Sequence > ? ORDER BY Sequence LIMIT ?"), any(RowMapper.class),
+				eq(version), eq(42L), eq(100));
+	}
+
+	@Test
+	public void writesNothingForAVersionWithoutChanges() {
+		File file = new File(folder.getRoot(), "changes.log");
+		ReflectionTestUtils.setField(outbox, "file", file.getPath());
+
+		outbox.record(Arrays.<ChangeEvent>asList());
+
+		verify(jdbcTemplate, never()).batchUpdate(anyString(), anyListOf(Object[].class));
+		assertFalse(file.exists());
+	}
+}
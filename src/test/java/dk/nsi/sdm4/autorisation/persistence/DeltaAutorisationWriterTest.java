@@ -0,0 +1,143 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static dk.nsi.sdm4.autorisation.persistence.TestAutorisationer.autorisation;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DeltaAutorisationWriterTest {
+	private final Date day1 = new Date(1000000000000L);
+	private final Date day2 = new Date(1000086400000L);
+
+	@Test
+	public void nextVersionDiffsAgainstTheRowsThePreviousVersionLeftValid() throws Exception {
+		JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+		when(jdbcTemplate.query(anyString(), any(RowMapper.class), anyVararg())).thenReturn(Arrays.asList(
+				new CurrentAutorisation(1, "00001", "0000000001", "Fornavn", "Efternavn", 7170),
+				new CurrentAutorisation(2, "00002", "0000000002", "Fornavn", "Efternavn", 7170)));
+		readsBackPid("00003", 3, jdbcTemplate);
+
+		DeltaAutorisationWriter first = new DeltaAutorisationWriter(jdbcTemplate, day1, 1000);
+		first.handle(autorisation("00001", "Fornavn"));
+		first.handle(autorisation("00003", "Fornavn"));
+		first.finish();
+		assertEquals(1, first.getAdded());
+		assertEquals(1, first.getRemoved());
+		assertEquals(2, first.getValidCount());
+
+		DeltaAutorisationWriter second = first.nextVersion(day2);
+		second.handle(autorisation("00001", "Fornavn"));
+		second.handle(autorisation("00003", "Andet fornavn"));
+		second.finish();
+		assertEquals(0, second.getAdded());
+		assertEquals(1, second.getChanged());
+		assertEquals(0, second.getRemoved());
+		assertEquals(2, second.getValidCount());
+
+		// the valid rows are only read from the database for the first version
+		verify(jdbcTemplate, times(1)).query(anyString(), any(RowMapper.class), anyVararg());
+
+		// 00003 was inserted and changed within the run, so autreg only gets its last row
+		AutregChanges changes = second.getAutregChanges();
+		assertEquals(1, changes.getRemoved().size());
+		assertEquals("00002", changes.getRemoved().iterator().next().autorisationsnummer);
+		assertEquals(1, changes.getAdded().size());
+		assertEquals("Andet fornavn", changes.getAdded().iterator().next().fornavn);
+	}
+
+	@Test
+	public void collectsTheChangeEventsOfEachVersion() throws Exception {
+		JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+		when(jdbcTemplate.query(anyString(), any(RowMapper.class), anyVararg())).thenReturn(Arrays.asList(
+				new CurrentAutorisation(1, "00001", "0000000001", "Fornavn", "Efternavn", 7170),
+				new CurrentAutorisation(2, "00002", "0000000002", "Fornavn", "Efternavn", 7170)));
+		readsBackPid("00003", 3, jdbcTemplate);
+
+		DeltaAutorisationWriter first = new DeltaAutorisationWriter(jdbcTemplate, day1, 1000).collectChangeEvents();
+		first.handle(autorisation("00001", "Andet fornavn"));
+		first.handle(autorisation("00003", "Fornavn"));
+		first.finish();
+		assertEquals(Arrays.asList(
+				"20010909;MODIFIED;00001;0000000001;Efternavn;Fornavn;7170;0000000001;Efternavn;Andet fornavn;7170",
+				"20010909;ADDED;00003;;;;;0000000003;Efternavn;Fornavn;7170",
+				"20010909;REMOVED;00002;0000000002;Efternavn;Fornavn;7170;;;;"), formatted(first.getChangeEvents()));
+
+		DeltaAutorisationWriter second = first.nextVersion(day2);
+		second.handle(autorisation("00001", "Andet fornavn"));
+		second.finish();
+		assertEquals(Arrays.asList("20010910;REMOVED;00003;0000000003;Efternavn;Fornavn;7170;;;;"), formatted(second.getChangeEvents()));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void cannotMoveOnBeforeFinishing() {
+		JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+		new DeltaAutorisationWriter(jdbcTemplate, day1, 1000).nextVersion(day2);
+	}
+
+	private void readsBackPid(final String nummer, final long pid, JdbcTemplate jdbcTemplate) throws Exception {
+		final ResultSet rs = mock(ResultSet.class);
+		when(rs.getString("Autorisationsnummer")).thenReturn(nummer);
+		when(rs.getLong("AutorisationPID")).thenReturn(pid);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				((RowCallbackHandler) invocation.getArguments()[2]).processRow(rs);
+				return null;
+			}
+		}).when(jdbcTemplate).query(anyString(), any(Object[].class), any(RowCallbackHandler.class));
+	}
+
+	private List<String> formatted(List<ChangeEvent> events) {
+		List<String> result = new ArrayList<String>();
+		for (ChangeEvent event : events) {
+			result.add(event.format());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Ordering;
+
+public class ExternalSorterTest {
+	private static final ExternalSorter.Codec<Integer> CODEC = new ExternalSorter.Codec<Integer>() {
+		@Override
+		public void write(Integer record, DataOutputStream out) throws IOException {
+			out.writeInt(record);
+		}
+
+		@Override
+		public Integer read(DataInputStream in) throws IOException {
+			return in.readInt();
+		}
+
+		@Override
+		public long heapBytes(Integer record) {
+			return 16;
+		}
+	};
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void sortsInMemoryWithinTheBudget() throws IOException {
+		ExternalSorter<Integer> sorter = sorter(1000);
+		List<Integer> records = shuffled(50);
+		for (Integer record : records) {
+			sorter.add(record);
+		}
+
+		assertEquals(sorted(records), drain(sorter.sorted()));
+		assertEquals(0, sorter.getRuns());
+		assertEquals(0, temp.getRoot().list().length);
+	}
+
+	@Test
+	public void mergesTheRunsSpilledOverTheBudget() throws IOException {
+		ExternalSorter<Integer> sorter = sorter(16 * 100);
+		List<Integer> records = shuffled(1050);
+		records.addAll(shuffled(30));
+		for (Integer record : records) {
+			sorter.add(record);
+		}
+
+		assertEquals(10, sorter.getRuns());
+		assertEquals(1080, sorter.size());
+		// the duplicates come out next to each other
+		assertEquals(sorted(records), drain(sorter.sorted()));
+		assertEquals(11, temp.getRoot().list().length);
+
+		sorter.close();
+		assertEquals(0, temp.getRoot().list().length);
+	}
+
+	@Test
+	public void mergesMoreRunsThanTheFanInInPasses() throws IOException {
+		ExternalSorter<Integer> sorter = new ExternalSorter<Integer>(temp.getRoot(), 16 * 10, Ordering.<Integer>natural(), CODEC, 4);
+		List<Integer> records = shuffled(1000);
+		for (Integer record : records) {
+			sorter.add(record);
+		}
+
+		ExternalSorter.Cursor<Integer> sorted = sorter.sorted();
+		// the 91 spilled runs are merged down to no more than can be open at once
+		assertEquals(91, sorter.getRuns());
+		assertEquals(2, temp.getRoot().list().length);
+		assertEquals(sorted(records), drain(sorted));
+
+		sorter.close();
+		assertEquals(0, temp.getRoot().list().length);
+	}
+
+	@Test
+	public void peekDoesNotAdvance() throws IOException {
+		ExternalSorter<Integer> sorter = sorter(16);
+		sorter.add(2);
+		sorter.add(1);
+		ExternalSorter.Cursor<Integer> cursor = sorter.sorted();
+
+		assertEquals(Integer.valueOf(1), cursor.peek());
+		assertEquals(Integer.valueOf(1), cursor.next());
+		assertEquals(Integer.valueOf(2), cursor.next());
+		assertNull(cursor.peek());
+		assertNull(cursor.next());
+		sorter.close();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void cannotAddOnceSorted() throws IOException {
+		ExternalSorter<Integer> sorter = sorter(1000);
+		sorter.sorted();
+		sorter.add(1);
+	}
+
+	private ExternalSorter<Integer> sorter(long budgetBytes) {
+		return new ExternalSorter<Integer>(temp.getRoot(), budgetBytes, Ordering.<Integer>natural(), CODEC);
+	}
+
+	private List<Integer> shuffled(int count) {
+		List<Integer> records = new ArrayList<Integer>();
+		for (int i = 0; i < count; i++) {
+			records.add(i);
+		}
+		Collections.shuffle(records, new Random(count));
+		return records;
+	}
+
+	private List<Integer> sorted(List<Integer> records) {
+		return Ordering.<Integer>natural().sortedCopy(records);
+	}
+
+	private List<Integer> drain(ExternalSorter.Cursor<Integer> cursor) {
+		List<Integer> result = new ArrayList<Integer>();
+		for (Integer record = cursor.next(); record != null; record = cursor.next()) {
+			result.add(record);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ImportLedgerTest {
+	private static final Timestamp LEDGER_VERSION = Timestamp.valueOf("2009-09-18 00:00:00");
+
+	private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+	private final ImportLedger ledger = new ImportLedger();
+
+	@Before
+	public void setUp() {
+		ledger.jdbcTemplate = jdbcTemplate;
+		ledger.importFingerprints = mock(ImportFingerprints.class);
+		when(jdbcTemplate.queryForInt(anyString())).thenReturn(3);
+		when(jdbcTemplate.queryForObject(contains("MAX(ValidFrom)"), eq(Timestamp.class))).thenReturn(Timestamp.valueOf("2009-09-15 00:00:00"));
+	}
+
+	@Test
+	public void readsTheNewestLedgerRowInsteadOfTheAggregates() {
+		ledgerHasRow(LEDGER_VERSION, 5);
+
+		assertEquals(LEDGER_VERSION.getTime(), ledger.lastVersion().getTime());
+		assertEquals(5, ledger.validCount());
+		verify(jdbcTemplate, never()).queryForInt(anyString());
+		verify(jdbcTemplate, never()).queryForObject(anyString(), eq(Timestamp.class));
+	}
+
+	@Test
+	public void usesTheAggregatesUntilTheFirstImportIsRecorded() {
+		when(jdbcTemplate.query(contains(ImportLedger.TABLE), any(RowMapper.class))).thenReturn(Collections.emptyList());
+
+		assertEquals(Timestamp.valueOf("2009-09-15 00:00:00").getTime(), ledger.lastVersion().getTime());
+		assertEquals(3, ledger.validCount());
+	}
+
+	@Test
+	public void reconcilingPrefersTheAggregates() {
+		ledgerHasRow(LEDGER_VERSION, 5);
+		ReflectionTestUtils.setField(ledger, "reconcile", true);
+
+		assertEquals(Timestamp.valueOf("2009-09-15 00:00:00").getTime(), ledger.lastVersion().getTime());
+		assertEquals(3, ledger.validCount());
+	}
+
+	@SuppressWarnings("unchecked")
+	private void ledgerHasRow(final Timestamp version, final int validCount) {
+		when(jdbcTemplate.query(contains(ImportLedger.TABLE), any(RowMapper.class))).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				ResultSet rs = mock(ResultSet.class);
+				when(rs.getTimestamp("Version")).thenReturn(version);
+				when(rs.getInt("ValidCount")).thenReturn(validCount);
+				return Collections.singletonList(((RowMapper<Object>) invocation.getArguments()[1]).mapRow(rs, 0));
+			}
+		});
+	}
+}
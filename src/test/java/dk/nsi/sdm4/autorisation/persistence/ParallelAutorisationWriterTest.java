@@ -0,0 +1,149 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+
+import static dk.nsi.sdm4.autorisation.persistence.TestAutorisationer.autorisation;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ParallelAutorisationWriterTest {
+	private final Date day1 = new Date(1000000000000L);
+
+	@Test
+	public void publishesOnceEveryWriterHasCommittedItsPartition() {
+		JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+		PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+
+		ParallelAutorisationWriter writer = new ParallelAutorisationWriter(jdbcTemplate, transactionManager, day1, 10, 4);
+		try {
+			for (int i = 0; i < 1000; i++) {
+				writer.handle(autorisation(String.format("%05d", i)));
+			}
+			assertEquals(1000, writer.finish());
+		} finally {
+			writer.close();
+		}
+
+		// clearing the staging table, and then one transaction per writer
+		verify(transactionManager, times(5)).commit(any(TransactionStatus.class));
+		verify(jdbcTemplate).update(startsWith("UPDATE Autorisation a LEFT JOIN " + BulkAutorisationLoader.BULK_TABLE), anyVararg());
+		verify(jdbcTemplate).update(startsWith("INSERT INTO Autorisation"), anyVararg());
+	}
+
+	@Test
+	public void aFailingWriterFailsTheImportWithoutPublishing() {
+		JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+		PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+		when(jdbcTemplate.update(startsWith("INSERT INTO " + BulkAutorisationLoader.BULK_TABLE), any(PreparedStatementSetter.class)))
+				.thenThrow(new DataIntegrityViolationException("Duplicate entry"));
+
+		ParallelAutorisationWriter writer = new ParallelAutorisationWriter(jdbcTemplate, transactionManager, day1, 1000, 2);
+		try {
+			for (int i = 0; i < 10; i++) {
+				writer.handle(autorisation(String.format("%05d", i)));
+			}
+			writer.finish();
+			fail("Expected the failure of the writer");
+		} catch (DataIntegrityViolationException e) {
+			assertEquals("Duplicate entry", e.getMessage());
+		} finally {
+			writer.close();
+		}
+
+		verify(transactionManager, atLeastOnce()).rollback(any(TransactionStatus.class));
+		verify(jdbcTemplate, never()).update(startsWith("INSERT INTO Autorisation"), anyVararg());
+	}
+
+	@Test
+	public void failsWhenTheWritersCannotAllGetAConnection() {
+		JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+		PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+		final CountDownLatch released = new CountDownLatch(1);
+		// the pool has no connection left for the second writer
+		when(transactionManager.getTransaction(any(TransactionDefinition.class))).thenAnswer(new Answer<TransactionStatus>() {
+			@Override
+			public TransactionStatus answer(InvocationOnMock invocation) throws Throwable {
+				if (Thread.currentThread().getName().equals("autorisation-writer-1")) {
+					try {
+						released.await();
+					} catch (InterruptedException e) {
+						throw new CannotCreateTransactionException("Interrupted while waiting for a connection");
+					}
+				}
+				return mock(TransactionStatus.class);
+			}
+		});
+
+		try {
+			new ParallelAutorisationWriter(jdbcTemplate, transactionManager, day1, 10, 2, 200);
+			fail("Expected the writers to time out waiting for connections");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Only 1 of 2 writers got a connection within 200 ms"));
+		} finally {
+			released.countDown();
+		}
+	}
+
+	@Test
+	public void partitionsOnAutorisationsnummer() {
+		int[] sizes = new int[4];
+		for (int i = 0; i < 10000; i++) {
+			String nummer = String.format("%05d", i);
+			int partition = ParallelAutorisationWriter.partitionOf(nummer, sizes.length);
+			assertEquals(partition, ParallelAutorisationWriter.partitionOf(new String(nummer), sizes.length));
+			sizes[partition]++;
+		}
+		for (int size : sizes) {
+			assertTrue("partition of " + size + " autorisationer", size > 2000 && size < 3000);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.util.Date;
+
+import static dk.nsi.sdm4.autorisation.persistence.TestAutorisationer.autorisation;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SortedDeltaAutorisationWriterTest {
+	private final Date day1 = new Date(1000000000000L);
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void mergesTheSortedRegisterWithTheSpilledValidRows() throws Exception {
+		JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+		streamsValidRows(jdbcTemplate,
+				new CurrentAutorisation(4, "00004", "0000000004", "Fornavn", "Efternavn", 7170),
+				new CurrentAutorisation(1, "00001", "0000000001", "Fornavn", "Efternavn", 7170),
+				new CurrentAutorisation(2, "00002", "0000000002", "Fornavn", "Efternavn", 7170),
+				new CurrentAutorisation(6, "00006", "0000000006", "Fornavn", "Efternavn", 7170));
+
+		// a budget of a single row spills every row to its own run
+		SortedDeltaAutorisationWriter writer = new SortedDeltaAutorisationWriter(jdbcTemplate, day1, 1000, temp.getRoot(), 1);
+		assertEquals(4, writer.getSpilledRuns());
+		try {
+			writer.handle(autorisation("00001", "Fornavn"));
+			writer.handle(autorisation("00003", "Fornavn"));
+			writer.handle(autorisation("00004", "Andet fornavn"));
+			writer.handle(autorisation("00005", "Fornavn"));
+			assertEquals(4, writer.finish());
+		} finally {
+			writer.close();
+		}
+
+		assertEquals(2, writer.getAdded());
+		assertEquals(1, writer.getChanged());
+		assertEquals(2, writer.getRemoved());
+		assertEquals(4, writer.getValidCount());
+		assertEquals(3, writer.getInsertedRows());
+		assertEquals(3, writer.getClosedRows());
+		assertEquals(0, temp.getRoot().list().length);
+	}
+
+	@Test
+	public void rejectsAnAutorisationsnummerThatComesTwice() throws Exception {
+		JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+		streamsValidRows(jdbcTemplate);
+
+		SortedDeltaAutorisationWriter writer = new SortedDeltaAutorisationWriter(jdbcTemplate, day1, 1000, temp.getRoot(), 1000);
+		writer.handle(autorisation("00001", "Fornavn"));
+		try {
+			writer.handle(autorisation("00001", "Andet fornavn"));
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Autorisationsnummer 00001 occurs more than once", e.getMessage());
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Test
+	public void theRegisterSorterOrdersOnAutorisationsnummer() throws Exception {
+		ExternalSorter<Autorisation> sorter = SortedDeltaAutorisationWriter.registerSorter(temp.getRoot(), 1, day1);
+		try {
+			sorter.add(autorisation("00003", "Tredje"));
+			sorter.add(autorisation("00001", "Første"));
+			sorter.add(autorisation("00002", "Anden"));
+			ExternalSorter.Cursor<Autorisation> sorted = sorter.sorted();
+
+			assertEquals(3, sorter.getRuns());
+			Autorisation first = sorted.next();
+			assertEquals("Første", first.getFornavn());
+			assertEquals("0000000001", first.getCpr());
+			assertEquals("7170", first.getUddannelsesKode());
+			assertEquals(day1, first.getValidFrom());
+			assertEquals("Anden", sorted.next().getFornavn());
+			assertEquals("Tredje", sorted.next().getFornavn());
+		} finally {
+			sorter.close();
+		}
+	}
+
+	private void streamsValidRows(JdbcTemplate jdbcTemplate, final CurrentAutorisation... rows) throws Exception {
+		final ResultSet rs = mock(ResultSet.class);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				RowCallbackHandler handler = (RowCallbackHandler) invocation.getArguments()[1];
+				for (CurrentAutorisation row : rows) {
+					when(rs.getLong("AutorisationPID")).thenReturn(row.pid);
+					when(rs.getString("Autorisationsnummer")).thenReturn(row.autorisationsnummer);
+					when(rs.getString("CPR")).thenReturn(row.cpr);
+					when(rs.getString("Fornavn")).thenReturn(row.fornavn);
+					when(rs.getString("Efternavn")).thenReturn(row.efternavn);
+					when(rs.getInt("UddannelsesKode")).thenReturn(row.uddannelsesKode);
+					handler.processRow(rs);
+				}
+				return null;
+			}
+		}).when(jdbcTemplate).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+	}
+}
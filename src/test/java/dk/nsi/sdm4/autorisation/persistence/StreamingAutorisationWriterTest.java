@@ -0,0 +1,77 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+
+import java.util.Date;
+
+import static dk.nsi.sdm4.autorisation.persistence.TestAutorisationer.autorisation;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class StreamingAutorisationWriterTest {
+	@Test
+	public void insertsNewAutorisationerWithMultiRowStatements() {
+		JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+		StreamingAutorisationWriter writer = new StreamingAutorisationWriter(jdbcTemplate, new Date(), 1000);
+
+		int count = AbstractAutorisationWriter.ROWS_PER_STATEMENT * 2 + 50;
+		for (int i = 0; i < count; i++) {
+			writer.handle(autorisation(String.format("%05d", i)));
+		}
+		assertEquals(count, writer.finish());
+
+		ArgumentCaptor<String> fullSql = ArgumentCaptor.forClass(String.class);
+		ArgumentCaptor<BatchPreparedStatementSetter> batch = ArgumentCaptor.forClass(BatchPreparedStatementSetter.class);
+		verify(jdbcTemplate).batchUpdate(fullSql.capture(), batch.capture());
+		assertEquals(2, batch.getValue().getBatchSize());
+		assertEquals(AbstractAutorisationWriter.ROWS_PER_STATEMENT, occurrences(fullSql.getValue(), "(?, ?, ?, ?, ?, ?, ?, ?, ?)"));
+
+		ArgumentCaptor<String> remainingSql = ArgumentCaptor.forClass(String.class);
+		verify(jdbcTemplate).update(remainingSql.capture(), any(PreparedStatementSetter.class));
+		assertTrue(remainingSql.getValue().startsWith("INSERT INTO Autorisation"));
+		assertEquals(50, occurrences(remainingSql.getValue(), "(?, ?, ?, ?, ?, ?, ?, ?, ?)"));
+	}
+
+
+	private int occurrences(String s, String part) {
+		int count = 0;
+		for (int i = s.indexOf(part); i >= 0; i = s.indexOf(part, i + 1)) {
+			count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.sdm4.autorisation.persistence;
+
+import dk.nsi.sdm4.autorisation.model.Autorisation;
+
+/**
+ * Autorisationer for the writer tests. The CPR is the Autorisationsnummer padded to 10 digits.
+ */
+final class TestAutorisationer {
+	private TestAutorisationer() {
+	}
+
+	static Autorisation autorisation(String nummer) {
+		return autorisation(nummer, "Fornavn");
+	}
+
+	static Autorisation autorisation(String nummer, String fornavn) {
+		Autorisation autorisation = new Autorisation();
+		autorisation.setAutorisationnummer(nummer);
+		autorisation.setCpr("00000" + nummer);
+		autorisation.setFornavn(fornavn);
+		autorisation.setEfternavn("Efternavn");
+		autorisation.setUddannelsesKode("7170");
+		return autorisation;
+	}
+}